@@ -239,6 +239,11 @@ class Repository(rhnRepository.Repository):
             content_type = "text/xml"
         elif file_name in ["repomd.xml.asc", "repomd.xml.key"]:
             content_type = "text/plain"
+        elif file_name in ["primary.xml.zst", "other.xml.zst",
+                           "filelists.xml.zst", "updateinfo.xml.zst",
+                           "susedata.xml.zst"]:
+            # written by taskomatic with java.taskomatic_repodata_compression = zstd
+            content_type = "application/zstd"
         elif file_name not in ["primary.xml.gz", "other.xml.gz",
                                "filelists.xml.gz", "updateinfo.xml.gz", "Packages.gz", "modules.yaml",
                                "InRelease", "Release", "Release.gpg",
@@ -20,6 +20,7 @@ import com.redhat.rhn.domain.kickstart.KickstartData;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -62,6 +63,23 @@ public class ConfigDefaults {
     public static final String ERRATA_CACHE_COMPUTE_THRESHOLD
     = "errata_cache_compute_threshold";
 
+    /**
+     * Maximum number of changed package names for which the errata cache of a server is updated
+     * right away, a full update is queued for bigger package changes
+     */
+    public static final String ERRATA_CACHE_DELTA_MAX_PACKAGES = "java.errata_cache_delta_max_packages";
+
+    /**
+     * Number of days after which the errata cache of every server has been fully updated by the
+     * errata-cache-full-update task, 0 disables the task
+     */
+    public static final String ERRATA_CACHE_FULL_UPDATE_DAYS = "java.errata_cache_full_update_days";
+
+    /**
+     * Number of threads computing the relevant channels of systems for CVE audit
+     */
+    public static final String CVE_AUDIT_CHANNELS_THREADS = "java.cve_audit_channels_threads";
+
     public static final String DOWNLOAD_URL_LIFETIME = "java.download_url_lifetime";
 
     public static final String NON_EXPIRABLE_PACKAGE_URLS =
@@ -162,6 +180,21 @@ public class ConfigDefaults {
     private static final String DB_PROTO = "hibernate.connection.driver_proto";
     public static final String DB_CLASS = "hibernate.connection.driver_class";
 
+    /**
+     * Number of updates sent at once by datasource bulk writes
+     */
+    public static final String DB_BATCH_SIZE = "java.db_batch_size";
+
+    /**
+     * Whether the PostgreSQL driver rewrites batched inserts into multi-row inserts
+     */
+    public static final String DB_REWRITE_BATCHED_INSERTS = "java.db_rewrite_batched_inserts";
+
+    /**
+     * Execution time, in milliseconds, above which datasource queries are logged with their bind parameters
+     */
+    public static final String DB_SLOW_QUERY_THRESHOLD = "java.db_slow_query_threshold";
+
     private static final String SSL_TRUSTSTORE = "java.ssl_truststore";
 
     public static final String LOOKUP_EXCEPT_SEND_EMAIL = "lookup_exception_email";
@@ -190,6 +223,29 @@ public class ConfigDefaults {
      */
     private static final String TASKOMATIC_CHANNEL_REPODATA_WORKERS = "java.taskomatic_channel_repodata_workers";
 
+    /**
+     * Time, in minutes, after which channels waiting for repodata generation are scheduled first,
+     * regardless of their size
+     */
+    public static final String TASKOMATIC_CHANNEL_REPODATA_MAX_WAIT = "java.taskomatic_channel_repodata_max_wait";
+
+    /**
+     * Whether repodata generation reuses the package XML fragments stored in the database and only
+     * regenerates those of changed packages
+     */
+    public static final String TASKOMATIC_INCREMENTAL_REPODATA = "java.taskomatic_incremental_repodata";
+
+    /**
+     * Number of threads compressing repodata files, shared by all the channel repodata workers
+     */
+    public static final String TASKOMATIC_REPODATA_COMPRESSION_THREADS =
+            "java.taskomatic_repodata_compression_threads";
+
+    /**
+     * Compression format of repodata xml files: gzip or zstd
+     */
+    public static final String TASKOMATIC_REPODATA_COMPRESSION = "java.taskomatic_repodata_compression";
+
     /**
      * HTTP proxy defaults
      */
@@ -206,6 +262,26 @@ public class ConfigDefaults {
 
     public static final String MESSAGE_QUEUE_THREAD_POOL_SIZE = "java.message_queue_thread_pool_size";
 
+    /**
+     * Number of message queue partitions for messages carrying a partition key (e.g. a server id),
+     * in addition to the global partition for all other messages.
+     */
+    public static final String MESSAGE_QUEUE_PARTITIONS = "java.message_queue_partitions";
+
+    /**
+     * Time window, in milliseconds, during which redundant messages (e.g. channel changes of the same
+     * system) are folded into one before being handled.
+     */
+    public static final String MESSAGE_QUEUE_COALESCING_WINDOW = "java.message_queue_coalescing_window";
+    public static final String MESSAGE_QUEUE_JOURNAL_DIR = "java.message_queue_journal_dir";
+    public static final String MESSAGE_QUEUE_JOURNAL_SIZE = "java.message_queue_journal_size";
+
+    /**
+     * Kind of threads running message queue actions: platform or virtual
+     */
+    public static final String TASK_EXECUTOR = "java.task_executor";
+    public static final String TASK_EXECUTOR_DB_CONCURRENCY = "java.task_executor_db_concurrency";
+
     public static final String VIRTPOLLER_CACHE_EXPIRATION = "server.susemanager.virtpoller.expire_time";
     public static final String VIRTPOLLER_CACHE_FILE = "server.susemanager.virtpoller.cache_file";
     public static final String VIRTPOLLER_INTERVAL = "server.susemanager.virtpoller.interval";
@@ -275,6 +351,11 @@ public class ConfigDefaults {
      */
     public static final String SALT_EVENT_THREAD_POOL_SIZE = "java.salt_event_thread_pool_size";
 
+    /**
+     * Number of queues Salt events are spread into by minion id hash, processed by the Salt event threads.
+     */
+    public static final String SALT_EVENT_SLOTS = "java.salt_event_slots";
+
     /**
      * Timeout in seconds of the presence ping performed in Salt Minions during salt batch calls
      */
@@ -308,6 +389,23 @@ public class ConfigDefaults {
      */
     public static final String SALT_EVENTS_PER_COMMIT = "java.salt_events_per_commit";
 
+    /**
+     * If true, the number of Salt events processed before COMMITTing to the database is adapted to the
+     * observed backlog, between salt_events_per_commit and salt_events_max_per_commit.
+     */
+    public static final String SALT_EVENTS_ADAPTIVE_BATCH = "java.salt_events_adaptive_batch";
+
+    /**
+     * Upper limit to the number of Salt events processed before COMMITTing when adaptive batching is enabled.
+     */
+    public static final String SALT_EVENTS_MAX_PER_COMMIT = "java.salt_events_max_per_commit";
+
+    /**
+     * Maximum number of jobs queued or running for each Salt event thread. Further events are left in the database
+     * until jobs complete.
+     */
+    public static final String SALT_EVENT_QUEUE_CAPACITY = "java.salt_event_queue_capacity";
+
     /**
      * Single Sign-On associated config option name in rhn.conf
      */
@@ -719,6 +817,31 @@ public class ConfigDefaults {
         System.setProperty("javax.net.ssl.trustStore", trustStore);
     }
 
+    /**
+     * Returns the number of updates sent at once to the database by datasource bulk writes.
+     * @return the batch size
+     */
+    public int getDbBatchSize() {
+        return Math.max(1, Config.get().getInt(DB_BATCH_SIZE, 500));
+    }
+
+    /**
+     * Returns the execution time above which datasource queries are logged.
+     * @return the time in milliseconds, 0 if slow queries are not logged
+     */
+    public int getDbSlowQueryThreshold() {
+        return Math.max(0, Config.get().getInt(DB_SLOW_QUERY_THRESHOLD, 0));
+    }
+
+    /**
+     * Returns true if the PostgreSQL driver should rewrite batched inserts into multi-row inserts.
+     * @return true if batched inserts are rewritten
+     */
+    public boolean isDbRewriteBatchedInserts() {
+        return Config.get().getString(DB_REWRITE_BATCHED_INSERTS) == null ||
+                Config.get().getBoolean(DB_REWRITE_BATCHED_INSERTS);
+    }
+
     /**
      * Constructs JDBC connection string based on configuration, checks for
      * some basic sanity.
@@ -745,10 +868,17 @@ public class ConfigDefaults {
             }
             connectionUrl += dbName;
 
+            List<String> urlParameters = new ArrayList<>();
             if (dbSslEnabled) {
-                connectionUrl += "?ssl=true";
+                urlParameters.add("ssl=true");
                 setSslTrustStore();
             }
+            if (isDbRewriteBatchedInserts()) {
+                urlParameters.add("reWriteBatchedInserts=true");
+            }
+            if (!urlParameters.isEmpty()) {
+                connectionUrl += "?" + String.join("&", urlParameters);
+            }
         }
         else {
             throw new ConfigException(
@@ -773,6 +903,68 @@ public class ConfigDefaults {
         return Config.get().getInt(TASKOMATIC_CHANNEL_REPODATA_WORKERS, 1);
     }
 
+    /**
+     * Returns the time after which channels waiting for repodata generation are scheduled first
+     * @return the maximum wait, in minutes
+     */
+    public int getTaskoChannelRepodataMaxWait() {
+        return Config.get().getInt(TASKOMATIC_CHANNEL_REPODATA_MAX_WAIT, 60);
+    }
+
+    /**
+     * Returns true if repodata is assembled from stored package fragments, loading the full details only of
+     * packages without an up to date fragment. Requires {@link #useDBRepodata()}.
+     * @return true if repodata is generated incrementally
+     */
+    public boolean isTaskomaticIncrementalRepodata() {
+        return useDBRepodata() && (Config.get().getString(TASKOMATIC_INCREMENTAL_REPODATA) == null ||
+                Config.get().getBoolean(TASKOMATIC_INCREMENTAL_REPODATA));
+    }
+
+    /**
+     * Returns the number of threads compressing repodata files, by default the number of processors.
+     * With 1 thread files are compressed by the worker generating them.
+     * @return the number of repodata compression threads
+     */
+    public int getTaskoRepodataCompressionThreads() {
+        return Math.max(1, Config.get().getInt(TASKOMATIC_REPODATA_COMPRESSION_THREADS,
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Returns the compression format of repodata xml files, gzip by default
+     * @return the repodata compression format
+     */
+    public String getTaskoRepodataCompression() {
+        return Config.get().getString(TASKOMATIC_REPODATA_COMPRESSION, "gzip");
+    }
+
+    /**
+     * Returns the maximum number of changed package names for which the errata cache of a server is
+     * updated right away instead of queuing a full update
+     * @return the maximum number of changed package names
+     */
+    public int getErrataCacheDeltaMaxPackages() {
+        return Config.get().getInt(ERRATA_CACHE_DELTA_MAX_PACKAGES, 200);
+    }
+
+    /**
+     * Returns the number of days after which the errata cache of every server has been fully
+     * updated by the errata-cache-full-update task
+     * @return the number of days, 0 if the task is disabled
+     */
+    public int getErrataCacheFullUpdateDays() {
+        return Config.get().getInt(ERRATA_CACHE_FULL_UPDATE_DAYS, 7);
+    }
+
+    /**
+     * Returns the number of threads computing the relevant channels of systems for CVE audit
+     * @return the number of threads
+     */
+    public int getCveAuditChannelsThreads() {
+        return Config.get().getInt(CVE_AUDIT_CHANNELS_THREADS, 4);
+    }
+
     /**
      * Gets the proxy host.
      * @return the proxy host
@@ -943,7 +1135,64 @@ public class ConfigDefaults {
      * @return the number of threads
      */
     public int getSaltEventThreadPoolSize() {
-        return Config.get().getInt(SALT_EVENT_THREAD_POOL_SIZE, 8);
+        return Math.max(1, Config.get().getInt(SALT_EVENT_THREAD_POOL_SIZE, 8));
+    }
+
+    /**
+     * Returns the number of queues Salt events associated to a minion are spread into.
+     * @return the number of queues
+     */
+    public int getSaltEventSlots() {
+        return Math.max(1, Config.get().getInt(SALT_EVENT_SLOTS, 64));
+    }
+
+    /**
+     * Returns the number of message queue partitions for keyed messages.
+     * @return the number of partitions
+     */
+    public int getMessageQueuePartitions() {
+        return Math.max(0, Config.get().getInt(MESSAGE_QUEUE_PARTITIONS, 4));
+    }
+
+    /**
+     * Returns the time window during which redundant messages are folded into one.
+     * @return the time window in milliseconds, 0 if coalescing is disabled
+     */
+    public int getMessageQueueCoalescingWindow() {
+        return Math.max(0, Config.get().getInt(MESSAGE_QUEUE_COALESCING_WINDOW, 1000));
+    }
+
+    /**
+     * Returns the directory of the message queue journals.
+     * @return the directory, empty if journaling is disabled
+     */
+    public String getMessageQueueJournalDir() {
+        return Config.get().getString(MESSAGE_QUEUE_JOURNAL_DIR, "");
+    }
+
+    /**
+     * Returns the initial size of the message queue journals.
+     * @return the size in megabytes
+     */
+    public int getMessageQueueJournalSize() {
+        return Math.max(1, Config.get().getInt(MESSAGE_QUEUE_JOURNAL_SIZE, 16));
+    }
+
+    /**
+     * Returns the kind of threads running message queue actions.
+     * @return "virtual" for virtual threads, "platform" otherwise
+     */
+    public String getTaskExecutor() {
+        return Config.get().getString(TASK_EXECUTOR, "platform");
+    }
+
+    /**
+     * Returns the maximum number of message queue actions running at the same time on virtual threads,
+     * bounding their use of the database connection pool.
+     * @return the number of tasks
+     */
+    public int getTaskExecutorDbConcurrency() {
+        return Math.max(1, Config.get().getInt(TASK_EXECUTOR_DB_CONCURRENCY, 15));
     }
 
     /**
@@ -960,6 +1209,30 @@ public class ConfigDefaults {
         return Config.get().getInt(SALT_EVENTS_PER_COMMIT, 1);
     }
 
+    /**
+     * Maximum number of jobs queued or running for each Salt event thread.
+     * @return the number of jobs
+     */
+    public int getSaltEventQueueCapacity() {
+        return Math.max(1, Config.get().getInt(SALT_EVENT_QUEUE_CAPACITY, 1000));
+    }
+
+    /**
+     * Returns true if the number of Salt events processed per COMMIT should adapt to the backlog.
+     * @return true if adaptive batching is enabled
+     */
+    public boolean isSaltEventsAdaptiveBatch() {
+        return Config.get().getBoolean(SALT_EVENTS_ADAPTIVE_BATCH);
+    }
+
+    /**
+     * Upper limit to the number of Salt events processed before COMMITTing when adaptive batching is enabled.
+     * @return the maximum number of events per commit
+     */
+    public int getSaltEventsMaxPerCommit() {
+        return Math.max(getSaltEventsPerCommit(), Config.get().getInt(SALT_EVENTS_MAX_PER_COMMIT, 50));
+    }
+
 
     /**
      * Returns the notifications type disabled.
@@ -144,6 +144,26 @@ public final class NamedPreparedStatement {
         }
     }
 
+    /**
+     * Adds a set of bind parameter values to the batch of the PreparedStatement.
+     * @param ps The PreparedStatement to add a batch to
+     * @param parameterMap The Map returned setup by replaceBindParams
+     * @param parameters The values to substitute for the named bind parameters
+     * @see java.sql.PreparedStatement#addBatch()
+     * @throws RuntimeException in case of SQLException
+     */
+    public static void addBatch(PreparedStatement ps,
+            Map<String, List<Integer>> parameterMap,
+            Map<String, ?> parameters) {
+        try {
+            setVars(ps, parameterMap, parameters);
+            ps.addBatch();
+        }
+        catch (SQLException e) {
+            throw SqlExceptionTranslator.sqlException(e);
+        }
+    }
+
     /* Find the index of the end of the bind variable.  For right now, the
      * logic is to find the first character that can't be used in a Java
      * identifier.  This may be wrong, but we'll fix that later.
@@ -16,6 +16,7 @@ package com.redhat.rhn.common.db.datasource;
 
 import com.redhat.rhn.common.ObjectCreateWrapperException;
 import com.redhat.rhn.common.RhnRuntimeException;
+import com.redhat.rhn.common.conf.ConfigDefaults;
 import com.redhat.rhn.common.db.NamedPreparedStatement;
 import com.redhat.rhn.common.hibernate.HibernateFactory;
 import com.redhat.rhn.common.hibernate.HibernateHelper;
@@ -24,6 +25,8 @@ import com.redhat.rhn.common.translation.SqlExceptionTranslator;
 import com.redhat.rhn.common.util.MethodUtil;
 import com.redhat.rhn.common.util.StringUtil;
 
+import com.suse.manager.metrics.QueryMetrics;
+
 import org.apache.log4j.Logger;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
@@ -38,14 +41,24 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A cached set of query/elaborator strings and the parameterMap hash maps.
@@ -68,6 +81,17 @@ public class CachedStatement implements Serializable {
      */
     public static final int BATCH_SIZE = 500;
 
+    /**
+     * IN clauses taking a list of values, replaced by a comparison with an array parameter when
+     * the values are integers.
+     */
+    private static final Pattern IN_CLAUSE = Pattern.compile("(?i)\\b(not\\s+)?in\\s*\\(\\s*%s\\s*\\)");
+
+    /**
+     * Name of the array parameter bound to the IN clauses.
+     */
+    private static final String IN_CLAUSE_PARAM = "in_clause_values";
+
     /*
      * This is the original config for this query as specified in the mode query
      * xml file. It is intended to be immutable.
@@ -94,6 +118,11 @@ public class CachedStatement implements Serializable {
     private CachedStatement parentStatement;
     private RestartData restartData = null;
 
+    // labels of the metrics of this statement, see QueryMetrics
+    private String metricsFile = QueryMetrics.UNKNOWN;
+    private String metricsMode = QueryMetrics.UNKNOWN;
+    private String metricsStatement = "query";
+
     // We could (and probably should) cache the ResultSet metadata here as
     // well. There is no reason that the first call to each statement
     // couldn't do the work to determine what is returned.
@@ -123,6 +152,19 @@ public class CachedStatement implements Serializable {
         parentStatement = orig;
         this.name = newName;
         this.params = paramsIn;
+        setMetricsLabels(orig.metricsFile, orig.metricsMode, orig.metricsStatement);
+    }
+
+    /**
+     * Sets the labels of the metrics of this statement.
+     * @param file the query file
+     * @param mode the mode name
+     * @param statement "query" for the driving query of the mode, or the elaborator name
+     */
+    void setMetricsLabels(String file, String mode, String statement) {
+        metricsFile = file;
+        metricsMode = mode;
+        metricsStatement = statement;
     }
 
     /**
@@ -228,21 +270,41 @@ public class CachedStatement implements Serializable {
     }
 
     /**
-     * Executes multiple updates with one only prepared statement.
+     * Executes multiple updates with one only prepared statement, sending them in JDBC batches of
+     * {@link ConfigDefaults#getDbBatchSize()} updates.
      *
      * @param parameterList a list of parameter maps
-     * @return a list of affected rows counts
+     * @return a list of affected rows counts, {@link Statement#SUCCESS_NO_INFO} for the
+     * statements rewritten by the driver into multi-row inserts
      */
     List<Integer> executeUpdates(List<Map<String, Object>> parameterList) {
+        int batchSize = ConfigDefaults.get().getDbBatchSize();
         return doWithStolenConnection(connection -> {
+            PreparedStatement ps = null;
             try {
                 List<Integer> result = new ArrayList<Integer>(parameterList.size());
 
                 sqlStatement = NamedPreparedStatement.replaceBindParams(sqlStatement, qMap);
+                if (log.isDebugEnabled()) {
+                    log.debug("executeUpdates() - Executing: " + sqlStatement);
+                    log.debug("executeUpdates() - With " + parameterList.size() + " parameter sets");
+                }
+                long start = System.nanoTime();
+                ps = connection.prepareStatement(sqlStatement);
+                int batched = 0;
                 for (Map<String, Object> parameters : parameterList) {
-                    result.add((Integer) execute(connection, sqlStatement, qMap, parameters,
-                            null, null));
+                    NamedPreparedStatement.addBatch(ps, qMap, setupParamMap(parameters));
+                    batched++;
+                    if (batched == batchSize) {
+                        addUpdateCounts(result, ps.executeBatch());
+                        batched = 0;
+                    }
+                }
+                if (batched > 0) {
+                    addUpdateCounts(result, ps.executeBatch());
                 }
+                recordExecution(sqlStatement, parameterList.size() + " parameter sets", System.nanoTime() - start,
+                        false);
                 return result;
             }
             catch (SQLException e) {
@@ -258,9 +320,18 @@ public class CachedStatement implements Serializable {
                 log.error("Error while processing cached statement sql: " + getQuery(), e);
                 throw e;
             }
+            finally {
+                HibernateHelper.cleanupDB(ps);
+            }
         });
     }
 
+    private static void addUpdateCounts(List<Integer> result, int[] counts) {
+        for (int count : counts) {
+            result.add(count);
+        }
+    }
+
 
     @SuppressWarnings("unchecked")
     DataResult<Object> execute(Map<String, ?> parameters, Mode mode) {
@@ -289,6 +360,15 @@ public class CachedStatement implements Serializable {
             if (inClause == null || inClause.isEmpty()) {
                 return new DataResult<Object>(mode);
             }
+            Long[] values = toArrayValues(inClause);
+            if (values != null) {
+                Map<String, List<Integer>> arrayParameterMap = new HashMap<String, List<Integer>>();
+                String arrayQuery = replaceInClauses(sqlStatement, qMap, arrayParameterMap);
+                if (arrayQuery != null) {
+                    QueryMetrics.inClauseChunks(metricsFile, metricsMode, metricsStatement, 1);
+                    return executeChecking(arrayQuery, arrayParameterMap, parameters, mode, null, values);
+                }
+            }
             // one of these two items is the return value. Ugly, but...
             Integer returnInt = null;
             DataResult<Object> returnDataResult = null;
@@ -302,8 +382,9 @@ public class CachedStatement implements Serializable {
                 String finalQuery =
                         sqlStatement.replaceAll("%s", commaSeparatedList(subClause));
                 Object resultObj =
-                        executeChecking(finalQuery, qMap, parameters, mode, null);
+                        executeChecking(finalQuery, qMap, parameters, mode, null, null);
                 subStart += subLength;
+                QueryMetrics.inClauseChunks(metricsFile, metricsMode, metricsStatement, 1);
 
                 if (resultObj instanceof DataResult) {
                     if (returnDataResult == null) {
@@ -328,7 +409,216 @@ public class CachedStatement implements Serializable {
             return returnDataResult;
         }
         else {
-            return executeChecking(sqlStatement, qMap, parameters, mode, null);
+            return executeChecking(sqlStatement, qMap, parameters, mode, null, null);
+        }
+    }
+
+    /**
+     * Rewrites the IN (%s) clauses of a statement to compare with an array parameter, so that the statement
+     * text does not depend on the values and its plan can be reused.
+     * @param sql the statement, with bind parameters replaced
+     * @param parameterMap the positions of the bind parameters of the statement
+     * @param arrayParameterMap filled with the positions of the bind parameters of the rewritten statement,
+     * including the array parameter
+     * @return the rewritten statement, or null if %s is used elsewhere than in IN clauses
+     */
+    private static String replaceInClauses(String sql, Map<String, List<Integer>> parameterMap,
+            Map<String, List<Integer>> arrayParameterMap) {
+        Matcher matcher = IN_CLAUSE.matcher(sql);
+        StringBuffer rewritten = new StringBuffer();
+        // number of bind parameters before each IN clause
+        List<Integer> preceding = new ArrayList<Integer>();
+        while (matcher.find()) {
+            preceding.add(countBindParams(sql, matcher.start()));
+            matcher.appendReplacement(rewritten, matcher.group(1) == null ?
+                    "= ANY(CAST(? AS bigint[]))" : "<> ALL(CAST(? AS bigint[]))");
+        }
+        matcher.appendTail(rewritten);
+        if (preceding.isEmpty() || rewritten.indexOf("%s") >= 0) {
+            return null;
+        }
+
+        for (Map.Entry<String, List<Integer>> entry : parameterMap.entrySet()) {
+            List<Integer> positions = new ArrayList<Integer>();
+            for (Integer position : entry.getValue()) {
+                positions.add(position + (int) preceding.stream().filter(p -> p < position).count());
+            }
+            arrayParameterMap.put(entry.getKey(), positions);
+        }
+        List<Integer> arrayPositions = new ArrayList<Integer>();
+        for (int i = 0; i < preceding.size(); i++) {
+            arrayPositions.add(preceding.get(i) + i + 1);
+        }
+        arrayParameterMap.put(IN_CLAUSE_PARAM, arrayPositions);
+        return rewritten.toString();
+    }
+
+    /**
+     * Counts the bind parameters outside of quotes before a position, the same way
+     * {@link NamedPreparedStatement#replaceBindParams(String, Map)} finds them.
+     */
+    private static int countBindParams(String sql, int end) {
+        boolean inQuotes = false;
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            char c = sql.charAt(i);
+            if (c == '"' || c == '\'') {
+                inQuotes = !inQuotes;
+            }
+            else if (!inQuotes && c == '?') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the values of an IN clause as an array parameter, if they are all integers.
+     * Other values, like strings, are still inlined in the statement: comparing them with an
+     * array would need the type of the column.
+     * @param values the values
+     * @return the array values, or null
+     */
+    private static Long[] toArrayValues(List<?> values) {
+        Long[] result = new Long[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            Object value = values.get(i);
+            if (!(value instanceof Long || value instanceof Integer || value instanceof Short)) {
+                return null;
+            }
+            result[i] = ((Number) value).longValue();
+        }
+        return result;
+    }
+
+    /**
+     * Executes the query, reading its rows through a cursor in chunks of the given size instead of all at once.
+     * Elaborators are run on every chunk. The statement stays open until the stream is consumed or closed.
+     * @param parameters named query parameters
+     * @param elabParameters named parameters for elaborators
+     * @param mode the mode of this query
+     * @param chunkSize number of rows fetched and elaborated at once
+     * @return stream of the rows
+     */
+    Stream<Object> stream(Map<String, ?> parameters, Map<String, ?> elabParameters, SelectMode mode,
+            int chunkSize) {
+        storeForRestart(parameters, null, mode);
+        this.sqlStatement = NamedPreparedStatement.replaceBindParams(sqlStatement, qMap);
+        if (sqlStatement.indexOf("%s") > 0) {
+            throw new IllegalArgumentException("Queries with an IN clause cannot be streamed: " + getName());
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("stream() - Executing: " + sqlStatement);
+            log.debug("stream() - With: " + parameters);
+        }
+
+        return doWithStolenConnection(connection -> {
+            PreparedStatement ps = null;
+            try {
+                ps = prepareStatement(connection, sqlStatement, mode);
+                // PostgreSQL only uses a cursor with a fetch size, outside of autocommit mode
+                ps.setFetchSize(chunkSize);
+                NamedPreparedStatement.execute(ps, qMap, setupParamMap(parameters));
+                ChunkIterator chunks = new ChunkIterator(ps, mode, elabParameters, chunkSize);
+                return StreamSupport.stream(Spliterators.spliteratorUnknownSize(chunks,
+                        Spliterator.ORDERED | Spliterator.NONNULL), false)
+                        .onClose(chunks::close)
+                        .flatMap(List::stream);
+            }
+            catch (SQLException e) {
+                HibernateHelper.cleanupDB(ps);
+                throw SqlExceptionTranslator.sqlException(e);
+            }
+            catch (RuntimeException e) {
+                HibernateHelper.cleanupDB(ps);
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Reads and elaborates the rows of an open statement, chunk by chunk.
+     */
+    private class ChunkIterator implements Iterator<List<Object>> {
+
+        private final PreparedStatement ps;
+        private final SelectMode mode;
+        private final Map<String, ?> elabParameters;
+        private final int chunkSize;
+        private ResultSet rs;
+        private List<String> columns;
+        private RowMapper mapper;
+        private List<Object> next;
+
+        ChunkIterator(PreparedStatement psIn, SelectMode modeIn, Map<String, ?> elabParametersIn,
+                int chunkSizeIn) throws SQLException {
+            ps = psIn;
+            mode = modeIn;
+            elabParameters = elabParametersIn != null ? elabParametersIn : Collections.emptyMap();
+            chunkSize = chunkSizeIn;
+            rs = ps.getResultSet();
+            columns = getColumnNames(rs.getMetaData());
+            String className = mode.getClassString();
+            if (className != null && !className.equals("java.util.Map")) {
+                try {
+                    mapper = ModeFactory.getRowMapper(Class.forName(className), columns);
+                }
+                catch (ClassNotFoundException e) {
+                    throw new ObjectCreateWrapperException("Could not create " + className, e);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && rs != null) {
+                next = readChunk();
+            }
+            return next != null;
+        }
+
+        @Override
+        public List<Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            List<Object> chunk = next;
+            next = null;
+            return chunk;
+        }
+
+        private List<Object> readChunk() {
+            List<Object> chunk = new ArrayList<Object>(chunkSize);
+            try {
+                while (chunk.size() < chunkSize && rs.next()) {
+                    chunk.add(readRow(rs, mode, columns, mapper));
+                }
+            }
+            catch (SQLException e) {
+                close();
+                throw SqlExceptionTranslator.sqlException(e);
+            }
+            catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+            if (chunk.size() < chunkSize) {
+                // last chunk, release the cursor before elaborating
+                close();
+            }
+            if (chunk.isEmpty()) {
+                return null;
+            }
+            mode.elaborate(chunk, elabParameters);
+            return chunk;
+        }
+
+        void close() {
+            if (rs != null) {
+                ResultSet toClose = rs;
+                rs = null;
+                HibernateHelper.cleanupDB(toClose, ps);
+            }
         }
     }
 
@@ -354,6 +644,10 @@ public class CachedStatement implements Serializable {
 
     Collection<Object> executeElaborator(List<Object> resultList, Mode mode,
             Map<String, ?> parametersIn) {
+        Collection<Object> elaboratedWithArray = executeElaboratorWithArray(resultList, mode, parametersIn);
+        if (elaboratedWithArray != null) {
+            return elaboratedWithArray;
+        }
         List<Object> elaborated = new LinkedList<Object>();
         for (int batch = 0; batch < resultList.size(); batch = batch + BATCH_SIZE) {
             int toIndex = batch + BATCH_SIZE;
@@ -366,6 +660,39 @@ public class CachedStatement implements Serializable {
         return elaborated;
     }
 
+    /**
+     * Elaborates all results at once, binding their keys as an array parameter.
+     * @return the elaborated results, or null if the elaborator cannot bind them as an array
+     */
+    @SuppressWarnings("unchecked")
+    private Collection<Object> executeElaboratorWithArray(List<Object> resultList, Mode mode,
+            Map<String, ?> parametersIn) {
+        this.sqlStatement = NamedPreparedStatement.replaceBindParams(sqlStatement, qMap);
+        if (resultList.isEmpty() || sqlStatement.indexOf("%s") == -1) {
+            return null;
+        }
+        if (!checkForColumn(resultList.get(0), getColumn())) {
+            throw new MapColumnNotFoundException(
+                    "Column, " + getColumn() + ", not found in driving query results");
+        }
+        List<Object> keys = new ArrayList<Object>(resultList.size());
+        for (Object result : resultList) {
+            keys.add(getKey(result, getColumn()));
+        }
+        Long[] values = toArrayValues(keys);
+        if (values == null) {
+            return null;
+        }
+        Map<String, List<Integer>> arrayParameterMap = new HashMap<String, List<Integer>>();
+        String arrayQuery = replaceInClauses(sqlStatement, qMap, arrayParameterMap);
+        if (arrayQuery == null) {
+            return null;
+        }
+        Map<String, ?> parameters = parametersIn != null ? parametersIn : new HashMap<String, Object>();
+        return (DataResult<Object>) executeChecking(arrayQuery, arrayParameterMap, parameters, mode,
+                resultList, values);
+    }
+
     @SuppressWarnings("unchecked")
     private Collection<Object> executeElaboratorBatch(List<Object> resultList, Mode mode,
         Map<String, ?> parametersIn) {
@@ -385,7 +712,7 @@ public class CachedStatement implements Serializable {
         // If we aren't actually operating on a list, just elaborate.
         if (sqlStatement.indexOf("%s") == -1) {
             return (DataResult<Object>) executeChecking(sqlStatement, qMap, parameters,
-                    mode, resultList);
+                    mode, resultList, null);
         }
 
         if (!checkForColumn(resultList.get(0), getColumn())) {
@@ -439,15 +766,16 @@ public class CachedStatement implements Serializable {
      * @param parameters The Map returned setup by replaceBindParams
      * @param mode Mode for selection queries
      * @param dr Data result list or null
+     * @param inClauseValues values of the IN clause array parameter, or null
      * @return either an integer count of the number of rows updated, or the
      *         DataResult. Casting to int or DataResult is caller's
      *         responsibility
      */
     private Object executeChecking(String sql, Map<String, List<Integer>> parameterMap,
-            Map<String, ?> parameters, Mode mode, List<Object> dr) {
+            Map<String, ?> parameters, Mode mode, List<Object> dr, Long[] inClauseValues) {
         return doWithStolenConnection(connection -> {
             try {
-                return execute(connection, sql, parameterMap, parameters, mode, dr);
+                return execute(connection, sql, parameterMap, parameters, mode, dr, inClauseValues);
             }
             catch (SQLException e) {
                 throw SqlExceptionTranslator.sqlException(e);
@@ -473,6 +801,7 @@ public class CachedStatement implements Serializable {
      * @param parameters The Map returned setup by replaceBindParams
      * @param mode Mode for selection queries
      * @param dr Data result list or null
+     * @param inClauseValues values of the IN clause array parameter, or null
      * @return either an integer count of the number of rows updated, or the
      *         DataResult. Casting to int or DataResult is caller's
      *         responsibility
@@ -480,18 +809,22 @@ public class CachedStatement implements Serializable {
      */
     private Object execute(Connection connection, String sql,
             Map<String, List<Integer>> parameterMap, Map<String, ?> parameters, Mode mode,
-            List<Object> dr)
+            List<Object> dr, Long[] inClauseValues)
         throws SQLException {
         if (log.isDebugEnabled()) {
             log.debug("execute() - Executing: " + sql);
             log.debug("execute() - With: " + parameters);
         }
 
+        long start = System.nanoTime();
         PreparedStatement ps = null;
         try {
             ps = prepareStatement(connection, sql, mode);
-            boolean returnType = NamedPreparedStatement.execute(ps, parameterMap,
-                    setupParamMap(parameters));
+            Map<String, Object> boundParameters = new HashMap<String, Object>(setupParamMap(parameters));
+            if (inClauseValues != null) {
+                boundParameters.put(IN_CLAUSE_PARAM, connection.createArrayOf("bigint", inClauseValues));
+            }
+            boolean returnType = NamedPreparedStatement.execute(ps, parameterMap, boundParameters);
             if (log.isDebugEnabled()) {
                 log.debug("execute() - Return type: " + returnType);
             }
@@ -502,6 +835,28 @@ public class CachedStatement implements Serializable {
         }
         finally {
             HibernateHelper.cleanupDB(ps);
+            recordExecution(sql, parameters, System.nanoTime() - start, dr != null);
+        }
+    }
+
+    /**
+     * Records the metrics of an execution of this statement, and logs it if it was slow.
+     * @param sql the executed SQL
+     * @param parameters the bind parameters, for debug logging
+     * @param nanos the execution time, in nanoseconds
+     * @param elaborator true if this statement elaborated results of a driving query
+     */
+    private void recordExecution(String sql, Object parameters, long nanos, boolean elaborator) {
+        QueryMetrics.queryExecuted(metricsFile, metricsMode, metricsStatement, nanos, elaborator);
+        int threshold = ConfigDefaults.get().getDbSlowQueryThreshold();
+        if (threshold > 0 && nanos >= TimeUnit.MILLISECONDS.toNanos(threshold)) {
+            log.warn("Slow query " + metricsFile + "/" + metricsMode + "/" + metricsStatement + " took " +
+                    TimeUnit.NANOSECONDS.toMillis(nanos) + " ms");
+            // bind parameters may contain sensitive data
+            if (log.isDebugEnabled()) {
+                log.debug("Slow query " + metricsFile + "/" + metricsMode + "/" + metricsStatement + ": " + sql +
+                        " With: " + parameters);
+            }
         }
     }
 
@@ -552,10 +907,13 @@ public class CachedStatement implements Serializable {
             this.sqlStatement =
                     NamedPreparedStatement.replaceBindParams(sqlStatement, qMap);
             CallableStatement cs = null;
+            long start = System.nanoTime();
             try {
                 cs = connection.prepareCall(this.sqlStatement);
                 NamedPreparedStatement.execute(cs, qMap, inParams, outParams);
-                return processOutputParams(cs, outParams);
+                Map<String, Object> result = processOutputParams(cs, outParams);
+                recordExecution(sqlStatement, inParams, System.nanoTime() - start, false);
+                return result;
             }
             catch (SQLException e) {
                 throw SqlExceptionTranslator.sqlException(e);
@@ -599,9 +957,15 @@ public class CachedStatement implements Serializable {
                 throw new MapColumnNotFoundException(
                         "Column, " + getColumn() + ", not found in elaborator results");
             }
+            RowMapper mapper = null;
+            if (className != null && !className.equals("java.util.Map")) {
+                mapper = ModeFactory.getRowMapper(Class.forName(className), columns);
+            }
 
             // loop through the results, adding them to the displayMap
+            int rows = 0;
             while (rs.next()) {
+                rows++;
                 /*
                  * If no className was specified *or* if the caller wants a Map
                  */
@@ -623,8 +987,8 @@ public class CachedStatement implements Serializable {
                         resultMap =
                                 (Map<String, Object>) currentResults.get(pos);
                     }
-                    addToMap(columns, rs, resultMap,
-                            mode.getElaborators().indexOf(parentStatement));
+                    addToMap(columns, rs, resultMap, mode.getElaborators().indexOf(
+                            parentStatement != null ? parentStatement : this));
 
                     // bug 141664: Don't add to the DataResult if we are
                     // elaborating the data.
@@ -636,10 +1000,9 @@ public class CachedStatement implements Serializable {
                  * Otherwise, try to set the results to the class given.
                  */
                 else {
-                    Class<?> clazz = Class.forName(className);
                     Object obj;
                     if (pointers == null) {
-                        obj = clazz.newInstance();
+                        obj = mapper.newInstance();
                     }
                     else {
                         Integer pos = pointers.get(getObject(rs, getColumn()));
@@ -651,7 +1014,7 @@ public class CachedStatement implements Serializable {
                         obj = currentResults.get(pos);
                     }
                     // if pointers are null, we are doing an elaborator.
-                    addToObject(columns, rs, obj, (pointers != null));
+                    addToObject(mapper, rs, obj, (pointers != null));
                     // bug 141664: Don't add to the DataResult if we are
                     // elaborating the data.
                     if (pointers == null) {
@@ -666,6 +1029,7 @@ public class CachedStatement implements Serializable {
             // bowels of CachedStatement inside datasource.
             // Remove this pointless coupling once we move the paging
             // logic elsewhere.
+            QueryMetrics.rowsReturned(metricsFile, metricsMode, metricsStatement, rows);
             if (dr.size() > 0) {
                 dr.setStart(1);
                 dr.setEnd(dr.size());
@@ -679,17 +1043,32 @@ public class CachedStatement implements Serializable {
         catch (ClassNotFoundException e) {
             throw new ObjectCreateWrapperException("Could not create " + className, e);
         }
-        catch (InstantiationException e) {
-            throw new ObjectCreateWrapperException("Could not create " + className, e);
-        }
-        catch (IllegalAccessException e) {
-            throw new ObjectCreateWrapperException("Could not create " + className, e);
-        }
         finally {
             HibernateHelper.cleanupDB(rs);
         }
     }
 
+    /**
+     * Creates the object of the driving query for the current row.
+     * @param rs the result set
+     * @param mode the mode of the query
+     * @param columns the column names
+     * @param mapper the row mapper, null if rows are maps
+     * @return the map or DTO
+     * @throws SQLException if reading columns fails
+     */
+    private Object readRow(ResultSet rs, SelectMode mode, List<String> columns, RowMapper mapper)
+        throws SQLException {
+        if (mapper == null) {
+            Map<String, Object> resultMap = new HashMap<String, Object>();
+            addToMap(columns, rs, resultMap, mode.getElaborators().indexOf(parentStatement));
+            return resultMap;
+        }
+        Object obj = mapper.newInstance();
+        addToObject(mapper, rs, obj, false);
+        return obj;
+    }
+
     @SuppressWarnings("unchecked")
     private void addToMap(List<String> columns, ResultSet rs, Map<String, Object> resultMap,
             int pos)
@@ -735,9 +1114,7 @@ public class CachedStatement implements Serializable {
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private void addToObject(List<String> columns, ResultSet rs, Object obj,
-            boolean elaborator)
+    private void addToObject(RowMapper mapper, ResultSet rs, Object obj, boolean elaborator)
         throws SQLException {
 
         List<String> columnSkip;
@@ -747,59 +1124,9 @@ public class CachedStatement implements Serializable {
             columnSkip = cb.getCallBackColumns();
         }
         else {
-            columnSkip = new ArrayList<String>();
+            columnSkip = Collections.emptyList();
         }
-
-        Iterator<String> i = columns.iterator();
-        while (i.hasNext()) {
-            String columnName = i.next();
-            if (columnSkip.contains(columnName.toLowerCase())) {
-                continue;
-            }
-
-            String setName = StringUtil.beanify("set " + columnName.toLowerCase());
-            String getName = StringUtil.beanify("get " + columnName.toLowerCase());
-
-            boolean isList = false;
-            Method[] methods = obj.getClass().getMethods();
-            /*
-             * Now loop through the methods and find the set method for this
-             * column then decide if it takes a collection Note: This action
-             * might not complete correctly if there are two set methods with
-             * the same name
-             */
-            for (int j = 0; j < methods.length; j++) {
-                // getName() gets the name of the set method
-                // setName is the name of the set method
-                if (methods[j].getName().equals(setName)) {
-                    Class<?> paramType = methods[j].getParameterTypes()[0];
-                    if (Collection.class.isAssignableFrom(paramType)) {
-                        isList = true;
-                    }
-                    break;
-                }
-            }
-
-            if (isList) { // requires matching get method returning the same
-                          // list
-                Collection<Object> c = (Collection<Object>) MethodUtil.callMethod(obj,
-                        getName, new Object[0]);
-                if (c == null) {
-                    c = new ArrayList<Object>();
-                }
-                c.add(getObject(rs, columnName));
-                MethodUtil.callMethod(obj, setName, c);
-                continue;
-            }
-            /*
-             * Just call the set method. This will call the same set method
-             * multiple times. If the result set should be a list, but has a
-             * non-Collection set method, the attribute corresponding to this
-             * column will ultimately contain the last item found for this
-             * column.
-             */
-            MethodUtil.callMethod(obj, setName, getObject(rs, columnName));
-        } // while
+        mapper.map(rs, obj, columnSkip);
     }
 
     /**
@@ -815,7 +1142,18 @@ public class CachedStatement implements Serializable {
      * @throws SQLException if rs.getObject/rs.getTimestamp raise an exception.
      */
     private Object getObject(ResultSet rs, String columnName) throws SQLException {
-        Object columnValue = rs.getObject(columnName);
+        return getObject(rs, rs.findColumn(columnName));
+    }
+
+    /**
+     * Same as {@link #getObject(ResultSet, String)}, reading the column by index.
+     * @param rs the sql result set
+     * @param column the index of the column to be returned, starting from 1
+     * @return the column value
+     * @throws SQLException if rs.getObject/rs.getTimestamp raise an exception.
+     */
+    static Object getObject(ResultSet rs, int column) throws SQLException {
+        Object columnValue = rs.getObject(column);
         if (columnValue == null) {
             return null;
         }
@@ -832,10 +1170,10 @@ public class CachedStatement implements Serializable {
                      .equals(columnValue.getClass().getCanonicalName())) ||
                 ("oracle.sql.TIMESTAMPTZ"
                      .equals(columnValue.getClass().getCanonicalName()))) {
-            return rs.getTimestamp(columnName);
+            return rs.getTimestamp(column);
         }
         else if (columnValue instanceof BigDecimal) {
-            return rs.getLong(columnName);
+            return rs.getLong(column);
         }
         return columnValue;
     }
@@ -25,8 +25,11 @@ import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.XMLReaderFactory;
 
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Class to drive parsing of the DataSource XML files, and return modes
@@ -47,6 +50,9 @@ public class ModeFactory implements ManifestFactoryBuilder {
 
     private static XMLReader parser = null;
 
+    /* Row mappers by DTO class and result set columns */
+    private static final Map<List<Object>, RowMapper> ROW_MAPPERS = new ConcurrentHashMap<>();
+
     /** {@inheritDoc} */
     public String getManifestFilename() {
         return "xml/file-list.xml";
@@ -100,17 +106,30 @@ public class ModeFactory implements ManifestFactoryBuilder {
         }
         switch (pm.getType()) {
         case SELECT:
-            return new SelectMode(pm);
+            return setMetricsLabels(new SelectMode(pm), name, mode);
         case CALLABLE:
-            return new CallableMode(pm);
+            return setMetricsLabels(new CallableMode(pm), name, mode);
         case WRITE:
-            return new WriteMode(pm);
+            return setMetricsLabels(new WriteMode(pm), name, mode);
         default:
             // should never reach here
             return null;
         }
     }
 
+    private static <T extends Mode> T setMetricsLabels(T m, String name, String mode) {
+        m.getQuery().setMetricsLabels(name, mode, "query");
+        if (m instanceof SelectMode) {
+            List<CachedStatement> elaborators = ((SelectMode) m).getElaborators();
+            for (int i = 0; i < elaborators.size(); i++) {
+                String elaborator = elaborators.get(i).getName();
+                elaborators.get(i).setMetricsLabels(name, mode,
+                        elaborator == null || elaborator.isEmpty() ? "elaborator" + i : elaborator);
+            }
+        }
+        return m;
+    }
+
     private static SelectMode getSelectMode(String name, String mode) {
         Map modes = (Map) factory.getObject(name);
         ParsedMode pm = (ParsedMode) modes.get(mode);
@@ -118,7 +137,18 @@ public class ModeFactory implements ManifestFactoryBuilder {
             throw new ModeNotFoundException(
                               "Could not find mode " + mode + " in " + name);
         }
-        return new SelectMode(pm);
+        return setMetricsLabels(new SelectMode(pm), name, mode);
+    }
+
+    /**
+     * Returns the mapper of result set rows with the given columns to a DTO class, building it on first use.
+     * @param clazz the DTO class
+     * @param columns the lower case column names, in result set order
+     * @return the row mapper
+     */
+    static RowMapper getRowMapper(Class<?> clazz, List<String> columns) {
+        return ROW_MAPPERS.computeIfAbsent(Arrays.asList(clazz, List.copyOf(columns)),
+                key -> new RowMapper(clazz, columns));
     }
 
     /**
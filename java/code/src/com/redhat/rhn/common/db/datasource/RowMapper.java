@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.common.db.datasource;
+
+import com.redhat.rhn.common.MethodInvocationException;
+import com.redhat.rhn.common.ObjectCreateWrapperException;
+import com.redhat.rhn.common.translation.TranslationException;
+import com.redhat.rhn.common.translation.Translator;
+import com.redhat.rhn.common.util.MethodUtil;
+import com.redhat.rhn.common.util.StringUtil;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Maps result set rows to objects of a DTO class, calling for each column the setter named after it.
+ *
+ * Setters are looked up once per DTO class and column layout, and called through method handles reading columns
+ * by index, instead of searching them by reflection for every row. Mappers are cached by {@link ModeFactory}.
+ *
+ * Setters are resolved like {@link MethodUtil#callMethod(Object, String, Object...)} does: values are converted
+ * with the {@link Translator} if needed. Setters taking a collection, or overloaded setters, are still called
+ * through MethodUtil.
+ */
+class RowMapper {
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+
+    private final Class<?> clazz;
+    private final MethodHandle constructor;
+    private final List<ColumnSetter> setters;
+
+    /**
+     * Setter of one column.
+     */
+    private static final class ColumnSetter {
+        private final String column;
+        private final int index;
+        private final String setName;
+        private final String getName;
+        private final boolean isList;
+        /* parameter type and handle of the setter, null if not unique or not accessible */
+        private final Class<?> type;
+        private final MethodHandle handle;
+
+        ColumnSetter(Class<?> clazz, String columnIn, int indexIn) {
+            column = columnIn;
+            index = indexIn;
+            setName = StringUtil.beanify("set " + columnIn);
+            getName = StringUtil.beanify("get " + columnIn);
+
+            Method[] methods = clazz.getMethods();
+            isList = Arrays.stream(methods)
+                    .filter(m -> m.getName().equals(setName) && m.getParameterCount() > 0)
+                    .findFirst()
+                    .map(m -> Collection.class.isAssignableFrom(m.getParameterTypes()[0]))
+                    .orElse(false);
+            List<Method> candidates = Arrays.stream(methods)
+                    .filter(m -> m.getName().equals(setName) && m.getParameterCount() == 1)
+                    .collect(Collectors.toList());
+
+            Class<?> setterType = null;
+            MethodHandle setterHandle = null;
+            if (!isList && candidates.size() == 1) {
+                try {
+                    setterHandle = MethodHandles.publicLookup().unreflect(candidates.get(0)).asType(SETTER_TYPE);
+                    setterType = candidates.get(0).getParameterTypes()[0];
+                }
+                catch (IllegalAccessException e) {
+                    // not accessible through a public class, use reflection
+                }
+            }
+            type = setterType;
+            handle = setterHandle;
+        }
+
+        @SuppressWarnings("unchecked")
+        void set(Object obj, Object value) {
+            if (isList) { // requires matching get method returning the same list
+                Collection<Object> c = (Collection<Object>) MethodUtil.callMethod(obj, getName, new Object[0]);
+                if (c == null) {
+                    c = new ArrayList<Object>();
+                }
+                c.add(value);
+                MethodUtil.callMethod(obj, setName, c);
+                return;
+            }
+            if (handle == null) {
+                MethodUtil.callMethod(obj, setName, value);
+                return;
+            }
+
+            Object arg = value;
+            if (value == null ? type.isPrimitive() : !type.isInstance(value)) {
+                try {
+                    arg = Translator.convert(value, type);
+                }
+                catch (TranslationException e) {
+                    // fails the same way as before
+                    MethodUtil.callMethod(obj, setName, value);
+                    return;
+                }
+            }
+            try {
+                handle.invokeExact(obj, arg);
+            }
+            catch (Throwable t) {
+                throw new MethodInvocationException("Something bad happened when calling " + setName, t);
+            }
+        }
+    }
+
+    /**
+     * Builds a mapper.
+     * @param clazzIn the DTO class
+     * @param columns the lower case column names, in result set order
+     */
+    RowMapper(Class<?> clazzIn, List<String> columns) {
+        clazz = clazzIn;
+        MethodHandle constructorHandle;
+        try {
+            constructorHandle = MethodHandles.publicLookup()
+                    .findConstructor(clazzIn, MethodType.methodType(void.class))
+                    .asType(CONSTRUCTOR_TYPE);
+        }
+        catch (NoSuchMethodException | IllegalAccessException e) {
+            constructorHandle = null;
+        }
+        constructor = constructorHandle;
+
+        setters = new ArrayList<>(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            // duplicate column names are read from their first occurrence, as by name
+            setters.add(new ColumnSetter(clazzIn, columns.get(i), columns.indexOf(columns.get(i)) + 1));
+        }
+    }
+
+    /**
+     * Creates a DTO.
+     * @return the new instance
+     */
+    Object newInstance() {
+        if (constructor == null) {
+            throw new ObjectCreateWrapperException("Could not create " + clazz.getName());
+        }
+        try {
+            return (Object) constructor.invokeExact();
+        }
+        catch (Throwable t) {
+            throw new ObjectCreateWrapperException("Could not create " + clazz.getName(), t);
+        }
+    }
+
+    /**
+     * Sets the columns of the current row on a DTO.
+     * @param rs the result set
+     * @param obj the DTO
+     * @param columnSkip lower case names of the columns not to set
+     * @throws SQLException if reading columns fails
+     */
+    void map(ResultSet rs, Object obj, List<String> columnSkip) throws SQLException {
+        for (ColumnSetter setter : setters) {
+            if (!columnSkip.contains(setter.column)) {
+                setter.set(obj, CachedStatement.getObject(rs, setter.index));
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * A cached set of query/elaborator strings and the parameterMap hash maps.
@@ -117,6 +118,34 @@ public class SelectMode extends BaseMode implements Serializable {
         return getQuery().execute(parameters, inClause, this);
     }
 
+    /**
+     * Executes the query, streaming its results instead of reading them all in memory. Rows are fetched through a
+     * database cursor {@link CachedStatement#BATCH_SIZE} at a time, and elaborators are run on each of these chunks
+     * with the query parameters.
+     *
+     * The statement stays open on the current connection until the stream is fully consumed or closed, so the
+     * stream should be used in a try-with-resources block within the current transaction.
+     * @param parameters Query parameters.
+     * @param <T> the type of the results
+     * @return Stream of the results of the query.
+     */
+    public <T> Stream<T> stream(Map<String, ?> parameters) {
+        return stream(parameters, parameters);
+    }
+
+    /**
+     * Executes the query, streaming its results instead of reading them all in memory, see
+     * {@link #stream(Map)}.
+     * @param parameters Query parameters.
+     * @param elabParameters named query parameters for elaborators.
+     * @param <T> the type of the results
+     * @return Stream of the results of the query.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Stream<T> stream(Map<String, ?> parameters, Map<String, ?> elabParameters) {
+        return (Stream<T>) getQuery().stream(parameters, elabParameters, this, CachedStatement.BATCH_SIZE);
+    }
+
     /**
      * Elaborates a list by calling the elaboration queries with the given
      * parameters.
@@ -26,6 +26,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.log4j.Logger;
 import com.redhat.rhn.common.ObjectCreateWrapperException;
@@ -201,6 +203,27 @@ public class AdvDataSourceTest extends RhnBaseTestCase {
         lookup("after_update_multi", 5, 1);
     }
 
+    public void testExecuteUpdates() throws Exception {
+        WriteMode m = ModeFactory.getWriteMode("test_queries", "insert_into_table");
+        List<Map<String, Object>> parameterList = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < 1200; i++) {
+            Map<String, Object> params = new HashMap<String, Object>();
+            params.put("foobar", "batch_insert_test");
+            params.put("id", 3000 + i);
+            params.put("test_column", "test-" + TestUtils.randomString());
+            params.put("pin", random.nextInt(100));
+            parameterList.add(params);
+        }
+        List<Integer> res = m.executeUpdates(parameterList);
+        assertEquals(parameterList.size(), res.size());
+
+        SelectMode s = ModeFactory.getMode("test_queries", "find_in_table");
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("foobar", "batch_insert_test");
+        DataResult<AdvDataSourceDto> dr = s.execute(params);
+        assertEquals(parameterList.size(), dr.size());
+    }
+
     public void testGetCallable() throws Exception {
         CallableMode m = ModeFactory.getCallableMode("test_queries",
                                         "stored_procedure_jdbc_format");
@@ -255,6 +278,23 @@ public class AdvDataSourceTest extends RhnBaseTestCase {
         assertNotEmpty(result);
     }
 
+    public void testInClauseLargerThanBatch() {
+        SelectMode m = ModeFactory.getMode("test_queries", "select_in");
+        List<Long> small = new ArrayList<Long>();
+        List<Long> large = new ArrayList<Long>();
+        for (long i = 1; i <= 3; i++) {
+            small.add(i);
+        }
+        for (long i = 1; i <= 1200; i++) {
+            large.add(-i);
+        }
+        large.addAll(small);
+        DataResult expected = m.execute(small);
+        DataResult result = m.execute(large);
+        assertNotEmpty(result);
+        assertEquals(expected.size(), result.size());
+    }
+
     public void testStressedElaboration() throws Exception {
         int startId = 1000;
         int endId = startId + 1500;
@@ -292,6 +332,33 @@ public class AdvDataSourceTest extends RhnBaseTestCase {
         }
     }
 
+    public void testStreamWithElaboration() throws Exception {
+        int startId = 1000;
+        int endId = startId + 1200;
+
+        for (int i = startId; i < endId; i++) {
+            insert("foobar" + TestUtils.randomString(), i);
+        }
+        SelectMode m = ModeFactory.getMode("test_queries", "find_all_in_table");
+        DataResult<AdvDataSourceDto> dr = m.execute(Collections.EMPTY_MAP);
+        dr.elaborate();
+
+        List<AdvDataSourceDto> streamed;
+        try (Stream<AdvDataSourceDto> stream = m.stream(Collections.emptyMap())) {
+            streamed = stream.collect(Collectors.toList());
+        }
+        assertEquals(dr.size(), streamed.size());
+        Map<Long, String> testColumns = new HashMap<Long, String>();
+        for (AdvDataSourceDto row : dr) {
+            testColumns.put(row.getId(), row.getTestColumn());
+        }
+        for (AdvDataSourceDto row : streamed) {
+            assertEquals(testColumns.get(row.getId()), row.getTestColumn());
+            assertNotNull(row.getPin());
+            assertNotNull(row.getFoobar());
+        }
+    }
+
     public void testSelectInWithParams() throws Exception {
         SelectMode m = ModeFactory.getMode("test_queries", "select_in_withparams");
         List inclause = new ArrayList();
@@ -15,12 +15,16 @@
 package com.redhat.rhn.common.messaging;
 
 import com.redhat.rhn.frontend.events.TransactionHelper;
+import com.suse.manager.metrics.EventMetrics;
 
 import org.apache.log4j.Logger;
+import org.hibernate.Transaction;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * Utility class which encapsulates the logic necessary to dispatch actions.
@@ -28,9 +32,15 @@ import java.util.List;
 class ActionExecutor implements Runnable {
 
     private static final Logger LOG = Logger.getLogger(ActionExecutor.class);
+    private static final Consumer<EventMessage> NO_LISTENER = handled -> { };
 
     private EventMessage msg;
     private List<MessageAction> actionHandlers = new ArrayList<MessageAction>();
+    private final long publishedNanos = System.nanoTime();
+    /* identical messages published later and folded into this one, see MessageCoalescer */
+    private final List<EventMessage> coalescedMessages = new CopyOnWriteArrayList<>();
+    /* called with every handled message once all actions ran, see MessageJournal */
+    private volatile Consumer<EventMessage> completionListener = NO_LISTENER;
 
     /**
      * Constructor
@@ -42,38 +52,100 @@ class ActionExecutor implements Runnable {
         msg = eventMsg;
     }
 
+    /**
+     * Folds an identical message into this one, so that it is handled once. In case of
+     * database messages, handlers wait for the transactions of all folded messages.
+     * @param coalesced the message published later
+     */
+    void coalesce(EventMessage coalesced) {
+        coalescedMessages.add(coalesced);
+    }
+
+    /**
+     * Sets the function called with the message and all folded ones once all actions ran.
+     * @param listener the completion listener
+     */
+    void setCompletionListener(Consumer<EventMessage> listener) {
+        completionListener = listener;
+    }
+
+    /**
+     * Returns true if a completion listener was set, i.e. the message is journaled.
+     * @return true if a completion listener was set
+     */
+    boolean hasCompletionListener() {
+        return completionListener != NO_LISTENER;
+    }
+
+    /**
+     * Returns the published message
+     * @return the message
+     */
+    EventMessage getMessage() {
+        return msg;
+    }
+
     /**
      * Iterates over the list of handlers and dispatches
      * the message to each
      */
     public void run() {
+        try {
+            runActions();
+        }
+        finally {
+            completionListener.accept(msg);
+            coalescedMessages.forEach(completionListener);
+        }
+    }
+
+    private void runActions() {
         for (Iterator<MessageAction> iter = actionHandlers.iterator(); iter.hasNext();) {
             MessageAction action = iter.next();
             LOG.debug("run() - got action: " + action.getClass().getName());
+            String actionName = action.getClass().getSimpleName();
+            long start = EventMetrics.actionStarted(actionName, System.nanoTime() - publishedNanos);
+            boolean[] failed = {false};
             try {
-                if (msg instanceof EventDatabaseMessage) {
-                    EventDatabaseMessage evtdb = (EventDatabaseMessage) msg;
-                    LOG.debug("Got a EventDatabaseMessage");
-                    while (evtdb.getTransaction().isActive()) {
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("DB message, waiting for txn: active: " +
-                                    evtdb.getTransaction().isActive());
-                        }
-                        Thread.sleep(10);
-                    }
-                    LOG.debug("Transaction finished.  Executing");
+                waitForTransaction(msg);
+                for (EventMessage coalesced : coalescedMessages) {
+                    waitForTransaction(coalesced);
                 }
                 if (action.needsTransactionHandling()) {
-                    TransactionHelper.handlingTransaction(() -> action.execute(msg), action.getExceptionHandler());
+                    TransactionHelper.handlingTransaction(() -> action.execute(msg), e -> {
+                        failed[0] = true;
+                        action.getExceptionHandler().accept(e);
+                    });
                 }
                 else {
                     action.execute(msg);
                 }
             }
             catch (Throwable t) {
+                failed[0] = true;
                 LOG.error(t);
                 t.printStackTrace();
             }
+            finally {
+                EventMetrics.actionFinished(actionName, start, failed[0]);
+            }
+        }
+    }
+
+    private static void waitForTransaction(EventMessage message) throws InterruptedException {
+        if (message instanceof EventDatabaseMessage) {
+            EventDatabaseMessage evtdb = (EventDatabaseMessage) message;
+            LOG.debug("Got a EventDatabaseMessage");
+            // messages replayed from the journal have no transaction
+            Transaction transaction = evtdb.getTransaction();
+            while (transaction != null && transaction.isActive()) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("DB message, waiting for txn: active: " +
+                            transaction.isActive());
+                }
+                Thread.sleep(10);
+            }
+            LOG.debug("Transaction finished.  Executing");
         }
     }
 
@@ -34,6 +34,27 @@ public interface EventMessage {
      * @return the user that scheduled the Event
      */
     Long getUserId();
+
+    /**
+     * Get the key used to route this message to one of the {@link MessageQueue} partitions.
+     * Messages sharing the same key are handled in the order they were published, while
+     * messages with different keys may be handled in parallel. Messages without a key are
+     * handled in order on the global partition.
+     * @return the partition key, or null for the global partition
+     */
+    default Object getPartitionKey() {
+        return null;
+    }
+
+    /**
+     * Get the key identifying messages that are redundant with each other. A message with a key is
+     * held back for a short time window, and further messages with an equal key published
+     * meanwhile are folded into it, so that handlers run only once.
+     * @return the coalescing key, or null if this message must always be handled
+     */
+    default Object getCoalescingKey() {
+        return null;
+    }
 }
 
 
@@ -28,6 +28,15 @@ public interface MessageAction {
      */
     void execute(EventMessage msg);
 
+    /**
+     * Prepares the execution of an EventMessage, e.g. decoding its payload, ahead of
+     * {@link #execute(EventMessage)}. This might be called concurrently for different
+     * messages, outside of any transaction, so it must not access the database.
+     * @param msg EventMessage to prepare.
+     */
+    default void prepare(EventMessage msg) {
+    }
+
     /**
      * Return true in case this action can run concurrently with others. Depending on this
      * flag the action will either be executed in the main message queue dispatcher thread
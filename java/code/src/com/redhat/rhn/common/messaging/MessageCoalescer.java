@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.common.messaging;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Holds back messages with a coalescing key (see {@link EventMessage#getCoalescingKey()}) for a time window,
+ * folding any further message with the same key published meanwhile into the held one, so that it is handled
+ * only once.
+ *
+ * Held messages are released early if a message with the same partition key is published, so that messages
+ * for the same target are still handled in the order they were published.
+ */
+class MessageCoalescer {
+
+    private static final Logger LOG = Logger.getLogger(MessageCoalescer.class);
+
+    private final long windowMillis;
+    private final BiConsumer<EventMessage, ActionExecutor> sink;
+    private final Map<Object, Held> held = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private volatile boolean isStopped = false;
+
+    /**
+     * A message held back, with the executor handling it and the timer releasing it.
+     */
+    private static class Held {
+        private final EventMessage msg;
+        private final ActionExecutor executor;
+        private ScheduledFuture<?> release;
+
+        Held(EventMessage msgIn, ActionExecutor executorIn) {
+            msg = msgIn;
+            executor = executorIn;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param windowMillisIn the time messages are held back, in milliseconds. 0 disables coalescing
+     * @param sinkIn the function enqueueing released messages
+     */
+    MessageCoalescer(long windowMillisIn, BiConsumer<EventMessage, ActionExecutor> sinkIn) {
+        windowMillis = windowMillisIn;
+        sink = sinkIn;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                new BasicThreadFactory.Builder().namingPattern("RHN Message Coalescer").daemon(true).build());
+        executor.setRemoveOnCancelPolicy(true);
+        timer = executor;
+    }
+
+    /**
+     * Holds back a message if it has a coalescing key, enqueues it right away otherwise.
+     * @param msg the published message
+     * @param executor the executor wrapping the message and its handlers
+     */
+    void enqueue(EventMessage msg, ActionExecutor executor) {
+        Object key = msg.getCoalescingKey();
+        if (key == null || windowMillis <= 0) {
+            releaseSamePartition(msg.getPartitionKey());
+            sink.accept(msg, executor);
+            return;
+        }
+
+        boolean[] rejected = {false};
+        held.compute(key, (k, existing) -> {
+            if (existing != null) {
+                LOG.debug("Coalescing " + msg.toText() + " into a pending message");
+                existing.executor.coalesce(msg);
+                return existing;
+            }
+            Held created = new Held(msg, executor);
+            try {
+                created.release = timer.schedule(() -> release(k), windowMillis, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e) {
+                rejected[0] = true;
+                return null;
+            }
+            return created;
+        });
+        if (rejected[0]) {
+            sink.accept(msg, executor);
+        }
+        else if (isStopped) {
+            // held while stop() was releasing the held messages
+            release(key);
+        }
+    }
+
+    /**
+     * Enqueues the message held back with a coalescing key, if any.
+     * @param key the coalescing key
+     */
+    private void release(Object key) {
+        Held released = held.remove(key);
+        if (released != null) {
+            released.release.cancel(false);
+            sink.accept(released.msg, released.executor);
+        }
+    }
+
+    /**
+     * Enqueues all messages held back for a partition key, so that they are handled before a new message for
+     * the same key.
+     * @param partitionKey the partition key, nothing is released if null
+     */
+    private void releaseSamePartition(Object partitionKey) {
+        if (partitionKey == null || held.isEmpty()) {
+            return;
+        }
+        List<Object> keys = new ArrayList<>();
+        held.forEach((key, h) -> {
+            if (Objects.equals(partitionKey, h.msg.getPartitionKey())) {
+                keys.add(key);
+            }
+        });
+        keys.forEach(this::release);
+    }
+
+    /**
+     * Stops the timer and enqueues all held back messages. Messages published afterwards are not held back.
+     */
+    void stop() {
+        isStopped = true;
+        timer.shutdownNow();
+        new ArrayList<>(held.keySet()).forEach(this::release);
+    }
+
+    /**
+     * Returns the number of messages held back
+     * @return the number of messages
+     */
+    int size() {
+        return held.size();
+    }
+}
@@ -21,28 +21,89 @@ import com.redhat.rhn.frontend.events.TraceBackEvent;
 import com.suse.manager.metrics.PrometheusExporter;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
+import java.util.Queue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Polls the EventQueue for events and executes them
+ * Routes published events to the partitions of the message queue and executes them
  *
  * @version $Rev $
  */
-public class MessageDispatcher implements Runnable {
+public class MessageDispatcher {
 
     private static Logger log = Logger.getLogger(MessageDispatcher.class);
-    private boolean isStopped = false;
+    private volatile boolean isStopped = false;
 
     /* Thread pool for concurrent execution of message actions */
-    private ExecutorService threadPool = new MessageQueueThreadPool(
-            Config.get().getInt(ConfigDefaults.MESSAGE_QUEUE_THREAD_POOL_SIZE));
+    private ExecutorService threadPool = TaskExecutors.useVirtualThreads() ?
+            MessageQueueThreadPool.newVirtualThreadPerTask(TaskExecutors.getDatabasePermits()) :
+            new MessageQueueThreadPool(Config.get().getInt(ConfigDefaults.MESSAGE_QUEUE_THREAD_POOL_SIZE));
+
+    /* Partition 0 handles messages without a partition key, the others keyed messages */
+    private final MessagePartition[] partitions;
+
+    /* Holds back redundant messages before they reach their partition */
+    private final MessageCoalescer coalescer;
+
+    /* Records pending messages for replay after a restart, null if not journaling */
+    private volatile MessageJournal journal;
+
+    /* Receives the messages not dispatched once stopped, for the next dispatcher */
+    private final Queue<ActionExecutor> undispatched;
+
+    /**
+     * Constructor, creates one partition for global messages plus the configured
+     * number of partitions for keyed messages.
+     * @param undispatchedIn the queue receiving the messages not dispatched once stopped
+     */
+    MessageDispatcher(Queue<ActionExecutor> undispatchedIn) {
+        undispatched = undispatchedIn;
+        int keyedPartitions = ConfigDefaults.get().getMessageQueuePartitions();
+        partitions = new MessagePartition[keyedPartitions + 1];
+        for (int i = 0; i < partitions.length; i++) {
+            String name = i == 0 ? "RHN Message Dispatcher" : "RHN Message Dispatcher-" + i;
+            partitions[i] = new MessagePartition(name, this::dispatch);
+        }
+        coalescer = new MessageCoalescer(ConfigDefaults.get().getMessageQueueCoalescingWindow(),
+                (msg, executor) -> offer(executor));
+    }
 
     /**
-     * Signals the dispatcher to stop
+     * Starts the partition threads
+     */
+    public void start() {
+        // register the executor service for exporting metrics
+        PrometheusExporter.INSTANCE.registerThreadPool((ThreadPoolExecutor) this.threadPool, "message_queue");
+        PrometheusExporter.INSTANCE.registerEventMetrics();
+
+        for (MessagePartition partition : partitions) {
+            partition.start();
+        }
+    }
+
+    /**
+     * Signals the dispatcher to stop. Events not dispatched yet are left for the next dispatcher,
+     * or in the journal if they were journaled.
      */
     public synchronized void stop() {
+        isStopped = true;
+        coalescer.stop();
+        for (MessagePartition partition : partitions) {
+            partition.stop();
+        }
+        for (MessagePartition partition : partitions) {
+            try {
+                partition.awaitStop(TimeUnit.MINUTES.toMillis(1), this::reject);
+            }
+            catch (InterruptedException e) {
+                log.error("Interrupted while awaiting termination of the partitions", e);
+                Thread.currentThread().interrupt();
+            }
+        }
+
         // Gracefully shut down the thread pool
         threadPool.shutdown();
         log.info("Awaiting termination of threads (for 1 minute)");
@@ -54,67 +115,140 @@ public class MessageDispatcher implements Runnable {
             log.error("Interrupted while awaiting termination", e);
         }
 
-        isStopped = true;
+        // messages not handled yet stay in the journal
+        MessageJournal current = journal;
+        if (current != null) {
+            try {
+                current.close();
+            }
+            catch (IOException e) {
+                log.error("Error closing the message queue journal", e);
+            }
+        }
+    }
+
+    /**
+     * Starts recording published messages in a journal
+     * @param journalIn the journal
+     */
+    void setJournal(MessageJournal journalIn) {
+        journal = journalIn;
     }
 
     /**
      * Returns the current stop state
      * @return true if stopped, else false
      */
-    public synchronized boolean isStopped() {
+    public boolean isStopped() {
         return isStopped;
     }
 
     /**
-     * Main run loop where events are popped off the queue
-     * and executed. Events are wrapped inside of a Runnable instance
+     * Appends an event to the partition it is routed to, possibly after holding it back
+     * to fold redundant events into it. Once stopped, events are left for the next dispatcher.
+     * @param msg the published message
+     * @param executor the executor wrapping the message and its handlers
      */
-    public void run() {
+    void enqueue(EventMessage msg, ActionExecutor executor) {
+        MessageJournal current = journal;
+        if (current != null && current.append(msg)) {
+            executor.setCompletionListener(current::complete);
+        }
+        coalescer.enqueue(msg, executor);
+    }
 
-        // register the executor service for exporting metrics
-        PrometheusExporter.INSTANCE.registerThreadPool((ThreadPoolExecutor) this.threadPool, "message_queue");
+    /**
+     * Appends the events left by a stopped dispatcher to their partitions, in order.
+     */
+    void resubmitUndispatched() {
+        // events rejected meanwhile go back to the queue, take each one once
+        for (int i = undispatched.size(); i > 0 && !isStopped; i--) {
+            ActionExecutor executor = undispatched.poll();
+            if (executor == null) {
+                return;
+            }
+            offer(executor);
+        }
+    }
 
+    private void offer(ActionExecutor executor) {
+        if (!partitions[partitionFor(executor.getMessage().getPartitionKey())].offer(executor)) {
+            reject(executor);
+        }
+    }
 
-        while (!isStopped) {
-            try {
-                ActionExecutor actionHandler = MessageQueue.popEventMessage();
-                if (actionHandler == null) {
-                    continue;
-                }
-                else if (actionHandler.canRunConcurrently()) {
-                    log.info("Executing in thread pool: " + actionHandler);
-                    threadPool.execute(actionHandler);
-                }
-                else {
-                    actionHandler.run();
-                }
-            }
-            catch (InterruptedException e) {
-                log.error("Error occurred in the MessageQueue", e);
-                return;
+    /**
+     * Leaves an event not dispatched for the next dispatcher. Journaled events are not kept, they are
+     * replayed from the journal instead.
+     */
+    private void reject(ActionExecutor executor) {
+        if (executor.hasCompletionListener()) {
+            log.info("Leaving " + executor + " in the message queue journal");
+        }
+        else {
+            undispatched.add(executor);
+        }
+    }
+
+    /**
+     * Returns the number of events waiting in all partitions or held back for coalescing
+     * @return the number of events
+     */
+    int getMessageCount() {
+        int count = coalescer.size();
+        for (MessagePartition partition : partitions) {
+            count += partition.size();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the partition a key is routed to: 0 for messages without a key, a stable
+     * partition depending on the key hash otherwise.
+     * @param key the partition key, can be null
+     * @return the partition index
+     */
+    int partitionFor(Object key) {
+        if (key == null || partitions.length == 1) {
+            return 0;
+        }
+        return 1 + Math.floorMod(key.hashCode(), partitions.length - 1);
+    }
+
+    /**
+     * Executes an event popped off one of the partitions, either in the calling partition
+     * thread or, if all its actions allow it, in the thread pool.
+     * @param actionHandler the event wrapped in its executor
+     */
+    private void dispatch(ActionExecutor actionHandler) {
+        try {
+            if (actionHandler.canRunConcurrently()) {
+                log.info("Executing in thread pool: " + actionHandler);
+                threadPool.execute(actionHandler);
             }
-            catch (Throwable t) {
-                // better log this puppy to let folks know we have a problem
-                // but keep the queue running.
-                log.error("Error occurred with an event in the MessageQueue", t);
-
-                try {
-                    // ok let's email the admins of what's going on.
-                    // WARNING! DO NOT PUBLISH THE EVENT TO THE QUEUE!
-                    TraceBackEvent evt = new TraceBackEvent();
-                    evt.setUser(null);
-                    evt.setRequest(null);
-                    evt.setException(t);
-
-                    TraceBackAction tba = new TraceBackAction();
-                    tba.execute(evt);
-                }
-                catch (Throwable t1) {
-                    log.error("Error sending traceback email, logging for posterity.", t1);
-                }
+            else {
+                actionHandler.run();
             }
+        }
+        catch (Throwable t) {
+            // better log this puppy to let folks know we have a problem
+            // but keep the queue running.
+            log.error("Error occurred with an event in the MessageQueue", t);
 
+            try {
+                // ok let's email the admins of what's going on.
+                // WARNING! DO NOT PUBLISH THE EVENT TO THE QUEUE!
+                TraceBackEvent evt = new TraceBackEvent();
+                evt.setUser(null);
+                evt.setRequest(null);
+                evt.setException(t);
+
+                TraceBackAction tba = new TraceBackAction();
+                tba.execute(evt);
+            }
+            catch (Throwable t1) {
+                log.error("Error sending traceback email, logging for posterity.", t1);
+            }
         }
     }
-
 }
@@ -0,0 +1,334 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.common.messaging;
+
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the messages waiting in the {@link MessageQueue}, kept in a memory-mapped file so that
+ * they survive a restart of the process and can be replayed.
+ *
+ * Only messages implementing {@link Serializable} are journaled. Each published message is recorded, and a
+ * completion record is appended once its actions ran, successfully or not. Messages replayed after a restart keep
+ * their records until they are completed. Whenever the file is full, the pending messages are written to a new
+ * file, which then replaces the journal, so that a crash while compacting loses nothing.
+ *
+ * Record layout: type (1 byte), payload length (int), message id (long), CRC32 of id and payload (int), payload.
+ * A zero type byte marks the end of the journal, a CRC mismatch a record torn by a crash.
+ */
+public class MessageJournal implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(MessageJournal.class);
+
+    private static final byte END = 0;
+    private static final byte APPEND = 1;
+    private static final byte COMPLETE = 2;
+    private static final int HEADER_SIZE = 1 + 4 + 8 + 4;
+
+    /* Only message classes of this code base and JDK types can be replayed */
+    private static final ObjectInputFilter FILTER = info -> {
+        Class<?> clazz = info.serialClass();
+        if (clazz == null) {
+            return ObjectInputFilter.Status.UNDECIDED;
+        }
+        while (clazz.isArray()) {
+            clazz = clazz.getComponentType();
+        }
+        String name = clazz.getName();
+        return clazz.isPrimitive() || name.startsWith("java.") || name.startsWith("com.redhat.rhn.") ||
+                name.startsWith("com.suse.") ?
+                ObjectInputFilter.Status.ALLOWED : ObjectInputFilter.Status.REJECTED;
+    };
+
+    private final Path path;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long nextId = 1;
+    private boolean closed = false;
+
+    /* serialized pending messages by id, in publication order */
+    private final Map<Long, byte[]> pending = new LinkedHashMap<>();
+    /* ids of the pending messages published or replayed since the journal was opened */
+    private final Map<EventMessage, Long> ids = new IdentityHashMap<>();
+
+    /**
+     * Opens a journal, creating the file if needed, and reads the messages left pending by a previous process.
+     * @param pathIn the journal file
+     * @param size the initial size of the file in bytes, it grows if pending messages do not fit
+     * @throws IOException if the file cannot be opened
+     */
+    public MessageJournal(Path pathIn, int size) throws IOException {
+        path = pathIn;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+        read();
+        compact();
+    }
+
+    /**
+     * Reads all records, keeping the messages appended and not completed.
+     */
+    private void read() {
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            byte type = buffer.get();
+            int length = buffer.getInt();
+            long id = buffer.getLong();
+            int crc = buffer.getInt();
+            if ((type != APPEND && type != COMPLETE) || length < 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            if (crc != checksum(id, payload)) {
+                LOG.warn("Ignoring torn message queue journal record at offset " + start);
+                buffer.position(start);
+                break;
+            }
+            if (type == APPEND) {
+                pending.put(id, payload);
+            }
+            else {
+                pending.remove(id);
+            }
+            nextId = Math.max(nextId, id + 1);
+        }
+    }
+
+    /**
+     * Returns the messages left pending by a previous process, in publication order. They are expected to be
+     * published again: their records stay in the journal until they are completed, publishing them does not
+     * record them again. Messages that cannot be deserialized any more, e.g. after an upgrade, are dropped.
+     * @return the pending messages
+     */
+    public synchronized List<EventMessage> takePending() {
+        List<EventMessage> messages = new ArrayList<>();
+        List<Long> dropped = new ArrayList<>();
+        pending.forEach((id, payload) -> {
+            if (ids.containsValue(id)) {
+                return;
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+                in.setObjectInputFilter(FILTER);
+                EventMessage msg = (EventMessage) in.readObject();
+                ids.put(msg, id);
+                messages.add(msg);
+            }
+            catch (IOException | ClassNotFoundException | ClassCastException e) {
+                LOG.warn("Dropping message queue journal record " + id + ": " + e.getMessage());
+                dropped.add(id);
+            }
+        });
+        // completion records are not needed, the next compaction drops them
+        dropped.forEach(pending::remove);
+        return messages;
+    }
+
+    /**
+     * Records a published message, if it is serializable and the journal is open. The message is serialized
+     * outside of the lock, so that concurrent publishers only wait for each other while writing the record.
+     * @param msg the message
+     * @return true if the message was recorded, false if it cannot be journaled
+     */
+    public boolean append(EventMessage msg) {
+        if (!(msg instanceof Serializable)) {
+            return false;
+        }
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            if (ids.containsKey(msg)) {
+                // a replayed message, still recorded
+                return true;
+            }
+        }
+        byte[] payload;
+        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+             ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(msg);
+            out.flush();
+            payload = bytes.toByteArray();
+        }
+        catch (IOException e) {
+            LOG.warn("Not journaling " + msg.toText() + ": " + e.getMessage());
+            return false;
+        }
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            long id = nextId++;
+            // write first, as compacting the journal to make room rewrites all pending messages
+            write(APPEND, id, payload);
+            pending.put(id, payload);
+            ids.put(msg, id);
+            return true;
+        }
+    }
+
+    /**
+     * Records that a message was handled, so that it is not replayed.
+     * @param msg the message, ignored if it was not recorded or the journal is closed
+     */
+    public synchronized void complete(EventMessage msg) {
+        if (closed) {
+            return;
+        }
+        Long id = ids.remove(msg);
+        if (id != null) {
+            pending.remove(id);
+            write(COMPLETE, id, new byte[0]);
+        }
+    }
+
+    /**
+     * Returns the number of messages recorded and not completed
+     * @return the number of messages
+     */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    private void write(byte type, long id, byte[] payload) {
+        // room for the record and the end marker
+        if (buffer.remaining() < HEADER_SIZE + payload.length + 1) {
+            compact();
+        }
+        if (buffer.remaining() < HEADER_SIZE + payload.length + 1) {
+            grow(HEADER_SIZE + payload.length + 1);
+        }
+        writeRecord(buffer, type, id, payload);
+    }
+
+    private static void writeRecord(MappedByteBuffer target, byte type, long id, byte[] payload) {
+        int start = target.position();
+        target.position(start + 1);
+        target.putInt(payload.length);
+        target.putLong(id);
+        target.putInt(checksum(id, payload));
+        target.put(payload);
+        target.put(target.position(), END);
+        // the type makes the record visible, write it last
+        target.put(start, type);
+    }
+
+    /**
+     * Writes the pending messages to a new file, flushed to disk and then renamed over the journal. The journal
+     * is left untouched until the rename, which is atomic.
+     */
+    private void compact() {
+        int needed = pending.values().stream().mapToInt(p -> HEADER_SIZE + p.length).sum() + 1;
+        long size = buffer.capacity();
+        if (needed > size) {
+            size = Math.min(Math.max(size * 2, needed), Integer.MAX_VALUE);
+        }
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        try {
+            int position;
+            try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer map = out.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                map.put(0, END);
+                pending.forEach((id, payload) -> writeRecord(map, APPEND, id, payload));
+                position = map.position();
+                map.force();
+                out.force(true);
+            }
+            Files.move(compacted, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            syncDirectory();
+
+            FileChannel previous = channel;
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.position(position);
+            previous.close();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Cannot compact the message queue journal", e);
+        }
+    }
+
+    /**
+     * Flushes the rename of the journal to disk, where the platform allows opening directories.
+     */
+    private void syncDirectory() {
+        Path dir = path.toAbsolutePath().getParent();
+        try (FileChannel dirChannel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            dirChannel.force(true);
+        }
+        catch (IOException e) {
+            LOG.debug("Cannot flush directory " + dir + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Enlarges the file to fit at least the given number of additional bytes.
+     */
+    private void grow(int bytes) {
+        try {
+            int position = buffer.position();
+            long size = Math.max((long) buffer.capacity() * 2, (long) buffer.capacity() + bytes);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(size, Integer.MAX_VALUE));
+            buffer.position(position);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Cannot grow the message queue journal", e);
+        }
+    }
+
+    private static int checksum(long id, byte[] payload) {
+        CRC32 crc = new CRC32();
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (id >>> shift));
+        }
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Flushes the journal to disk and closes it.
+     * @throws IOException if closing fails
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        buffer.force();
+        channel.close();
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.common.messaging;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * One partition of the {@link MessageQueue}: a FIFO queue of {@link ActionExecutor}s
+ * drained by a single dedicated thread, so that messages routed to the same partition are
+ * dispatched in the order they were published.
+ *
+ * Publishers only share a read lock with each other, stopping takes it exclusively to hand over
+ * the messages left, so that none is lost or overtaken by a message rejected meanwhile.
+ */
+class MessagePartition implements Runnable {
+
+    /* Maximum time the worker sleeps before checking again whether it was stopped */
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final Queue<ActionExecutor> messages = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Consumer<ActionExecutor> dispatcher;
+    private final Thread worker;
+    private volatile boolean isStopped = false;
+    /* Set once the messages left are handed over, guarded by drainLock */
+    private boolean isDrained = false;
+    private final ReadWriteLock drainLock = new ReentrantReadWriteLock();
+
+    /**
+     * Constructor
+     * @param name the name of the worker thread
+     * @param dispatcherIn the function handling every message popped from this partition
+     */
+    MessagePartition(String name, Consumer<ActionExecutor> dispatcherIn) {
+        dispatcher = dispatcherIn;
+        worker = new Thread(this, name);
+        worker.setDaemon(false);
+    }
+
+    /**
+     * Starts the worker thread of this partition
+     */
+    void start() {
+        worker.start();
+    }
+
+    /**
+     * Signals the worker thread to stop after the message it is currently dispatching, if any.
+     */
+    void stop() {
+        isStopped = true;
+        LockSupport.unpark(worker);
+    }
+
+    /**
+     * Waits for the worker thread to stop and hands over the messages it did not dispatch, also
+     * if interrupted. Messages offered afterwards are rejected.
+     * @param timeoutMillis maximum time to wait, in milliseconds
+     * @param leftovers receives the messages not dispatched, in the order they were appended
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void awaitStop(long timeoutMillis, Consumer<ActionExecutor> leftovers) throws InterruptedException {
+        try {
+            worker.join(timeoutMillis);
+        }
+        finally {
+            drainLock.writeLock().lock();
+            try {
+                isDrained = true;
+                for (ActionExecutor executor = messages.poll(); executor != null; executor = messages.poll()) {
+                    size.decrementAndGet();
+                    leftovers.accept(executor);
+                }
+            }
+            finally {
+                drainLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Appends a message to this partition and wakes up its worker thread, unless the partition
+     * is stopped.
+     * @param executor the message to append
+     * @return true if the message was appended, false if the partition is stopped
+     */
+    boolean offer(ActionExecutor executor) {
+        // shared between publishers, only stop() takes it exclusively
+        drainLock.readLock().lock();
+        try {
+            if (isDrained) {
+                return false;
+            }
+            messages.offer(executor);
+            size.incrementAndGet();
+        }
+        finally {
+            drainLock.readLock().unlock();
+        }
+        LockSupport.unpark(worker);
+        return true;
+    }
+
+    /**
+     * Returns the number of messages waiting in this partition
+     * @return the number of messages
+     */
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Main loop of the worker thread: pops messages off the queue and hands them to the dispatcher,
+     * sleeping while the queue is empty.
+     */
+    @Override
+    public void run() {
+        while (!isStopped) {
+            ActionExecutor executor = messages.poll();
+            if (executor == null) {
+                LockSupport.parkNanos(this, PARK_NANOS);
+                continue;
+            }
+            size.decrementAndGet();
+            dispatcher.accept(executor);
+        }
+    }
+}
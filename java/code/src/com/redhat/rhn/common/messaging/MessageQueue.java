@@ -15,6 +15,7 @@
 
 package com.redhat.rhn.common.messaging;
 
+import com.redhat.rhn.common.conf.ConfigDefaults;
 import com.redhat.rhn.frontend.events.AlignSoftwareTargetAction;
 import com.redhat.rhn.frontend.events.CloneErrataAction;
 import com.redhat.rhn.frontend.events.CloneErrataEvent;
@@ -59,18 +60,23 @@ import com.suse.manager.reactor.messaging.ChannelsChangedEventMessageAction;
 import com.suse.manager.webui.services.iface.SystemQuery;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Stream;
 
-import EDU.oswego.cs.dl.util.concurrent.Channel;
-import EDU.oswego.cs.dl.util.concurrent.LinkedQueue;
-
 /**
- * A class that passes messages from the sender to an action class
+ * A class that passes messages from the sender to an action class.
+ *
+ * Messages are routed by their partition key (see {@link EventMessage#getPartitionKey()})
+ * to one of several lock-free queues, each drained in FIFO order by its own thread.
  */
 public class MessageQueue {
 
@@ -79,12 +85,12 @@ public class MessageQueue {
      */
     private static Logger logger = Logger.getLogger(MessageQueue.class);
 
+    /* Handlers are copy-on-write, so publishing never blocks on (de)registration */
     private static final Map<Class, List<MessageAction>> ACTIONS =
-            new HashMap<Class, List<MessageAction>>();
-    private static Channel messages = new LinkedQueue();
-    private static Thread dispatcherThread = null;
-    private static MessageDispatcher dispatcher = null;
-    private static int messageCount;
+            new ConcurrentHashMap<Class, List<MessageAction>>();
+    private static volatile MessageDispatcher dispatcher = null;
+    /* Messages left by a stopped dispatcher, handled by the next one */
+    private static final Queue<ActionExecutor> UNDISPATCHED = new ConcurrentLinkedQueue<ActionExecutor>();
 
     /**
      * Util class so we don't have a usable constructor
@@ -105,22 +111,22 @@ public class MessageQueue {
             startMessaging();
         }
         if (msg != null) {
-            synchronized (ACTIONS) {
-                List<MessageAction> handlers = ACTIONS.get(msg.getClass());
-                if (handlers != null && handlers.size() > 0) {
-                    logger.debug("creating ActionExecutor");
-                    ActionExecutor executor = new ActionExecutor(handlers, msg);
-                    try {
-                        messages.put(executor);
-                        messageCount++;
-                    }
-                    catch (InterruptedException e) {
-                        logger.error(e.getMessage(), e);
+            List<MessageAction> handlers = ACTIONS.get(msg.getClass());
+            if (handlers != null && handlers.size() > 0) {
+                logger.debug("creating ActionExecutor");
+                ActionExecutor executor = new ActionExecutor(handlers, msg);
+                MessageDispatcher current = dispatcher;
+                if (current != null) {
+                    current.enqueue(msg, executor);
+                    // stopped meanwhile and restarted: the new dispatcher may have resubmitted already
+                    MessageDispatcher restarted = dispatcher;
+                    if (restarted != current && !UNDISPATCHED.isEmpty()) {
+                        restarted.resubmitUndispatched();
                     }
                 }
-                else {
-                    logger.debug("handlers is null, not processing!");
-                }
+            }
+            else {
+                logger.debug("handlers is null, not processing!");
             }
         }
 
@@ -138,16 +144,6 @@ public class MessageQueue {
         return ACTIONS.get(message.getClass()).stream();
     }
 
-    static ActionExecutor popEventMessage() throws InterruptedException {
-        ActionExecutor retval = (ActionExecutor) messages.poll(500);
-        if (retval != null) {
-            synchronized (ACTIONS) {
-                messageCount--;
-            }
-        }
-        return retval;
-    }
-
     /**
      * Start the messaging system
      */
@@ -158,16 +154,43 @@ public class MessageQueue {
         if (isMessaging()) {
             return;
         }
-        dispatcher = new MessageDispatcher();
-        dispatcherThread = new Thread(dispatcher);
-        dispatcherThread.setName("RHN Message Dispatcher");
-        dispatcherThread.setDaemon(false);
-        dispatcherThread.start();
+        MessageDispatcher newDispatcher = new MessageDispatcher(UNDISPATCHED);
+        newDispatcher.start();
+        dispatcher = newDispatcher;
+        newDispatcher.resubmitUndispatched();
         if (logger.isDebugEnabled()) {
             logger.debug("startMessaging() - end");
         }
     }
 
+    /**
+     * Starts recording published messages in a journal named after the process, if a journal directory is
+     * configured, and publishes again the messages left pending by its previous run. To be called once actions
+     * are registered and Hibernate is started.
+     * @param processName the name of the process, e.g. tomcat or taskomatic
+     */
+    public static synchronized void startJournal(String processName) {
+        String dir = ConfigDefaults.get().getMessageQueueJournalDir();
+        if (dir.isEmpty() || !isMessaging()) {
+            return;
+        }
+        MessageJournal journal;
+        try {
+            journal = new MessageJournal(Paths.get(dir, processName + ".journal"),
+                    ConfigDefaults.get().getMessageQueueJournalSize() * 1024 * 1024);
+        }
+        catch (IOException e) {
+            logger.error("Cannot open the message queue journal in " + dir + ", messages will not be journaled", e);
+            return;
+        }
+        List<EventMessage> pending = journal.takePending();
+        dispatcher.setJournal(journal);
+        if (!pending.isEmpty()) {
+            logger.info("Replaying " + pending.size() + " messages from the message queue journal");
+            pending.forEach(MessageQueue::publish);
+        }
+    }
+
     /**
      * Stop the messaging system
      */
@@ -186,7 +209,8 @@ public class MessageQueue {
      * @return int number of messages in queue.
      */
     public static int getMessageCount() {
-        return messageCount;
+        MessageDispatcher current = dispatcher;
+        return current == null ? 0 : current.getMessageCount();
     }
 
     /**
@@ -199,14 +223,7 @@ public class MessageQueue {
             logger.debug("registerAction(MessageAction, Class) - : " + act +
                     " class: " + eventType.getName());
         }
-        synchronized (ACTIONS) {
-            List<MessageAction> handlers = ACTIONS.get(eventType);
-            if (handlers == null) {
-                handlers = new ArrayList<MessageAction>();
-                ACTIONS.put(eventType, handlers);
-            }
-            handlers.add(act);
-        }
+        ACTIONS.computeIfAbsent(eventType, k -> new CopyOnWriteArrayList<MessageAction>()).add(act);
     }
 
     /**
@@ -218,8 +235,8 @@ public class MessageQueue {
         if (logger.isDebugEnabled()) {
             logger.debug("deRegisterAction(MessageAction, Class) - start");
         }
-        synchronized (ACTIONS) {
-            List<MessageAction> handlers = ACTIONS.get(eventType);
+        List<MessageAction> handlers = ACTIONS.get(eventType);
+        if (handlers != null) {
             handlers.remove(act);
         }
         if (logger.isDebugEnabled()) {
@@ -237,15 +254,14 @@ public class MessageQueue {
             logger.debug("getRegisteredEventNames() - start");
         }
         String[] retval = null;
-        synchronized (ACTIONS) {
-            if (ACTIONS.keySet().size() > 0) {
-                retval = new String[ACTIONS.keySet().size()];
-                int index = 0;
-                for (Iterator<Class> iter = ACTIONS.keySet().iterator(); iter.hasNext();) {
-                    Class klazz = iter.next();
-                    retval[index] = klazz.getName();
-                    index++;
-                }
+        List<Class> eventTypes = new ArrayList<Class>(ACTIONS.keySet());
+        if (eventTypes.size() > 0) {
+            retval = new String[eventTypes.size()];
+            int index = 0;
+            for (Iterator<Class> iter = eventTypes.iterator(); iter.hasNext();) {
+                Class klazz = iter.next();
+                retval[index] = klazz.getName();
+                index++;
             }
         }
 
@@ -20,10 +20,14 @@ import com.redhat.rhn.frontend.events.TraceBackEvent;
 import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.log4j.Logger;
 
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -35,23 +39,47 @@ public class MessageQueueThreadPool extends ThreadPoolExecutor {
     /* Logger for this class */
     private final Logger log = Logger.getLogger(MessageQueueThreadPool.class);
 
-    /* A warning is logged if the queue is growing bigger than this */
+    /* A warning is logged if the number of tasks waiting to run is growing bigger than this */
     private static final int QUEUE_SIZE_WARNING_THRESHOLD = 100;
 
+    /* Permits a task must hold while running, null if unbounded */
+    private final Semaphore permits;
+
     /**
      * Constructor for creating a thread pool for being used with the message queue.
      *
      * @param size the number of threads to create, i.e. pool size
      */
     public MessageQueueThreadPool(int size) {
-        super(size, size, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
-        setThreadFactory(new BasicThreadFactory.Builder().namingPattern("message-queue-thread-%d").build());
+        this(size, size, new LinkedBlockingQueue<Runnable>(),
+                new BasicThreadFactory.Builder().namingPattern("message-queue-thread-%d").build(), null);
         log.info("Started message queue thread pool (size: " + size + ")");
     }
 
+    private MessageQueueThreadPool(int coreSize, int maxSize, BlockingQueue<Runnable> queue,
+            ThreadFactory threadFactory, Semaphore permitsIn) {
+        super(coreSize, maxSize, 0, TimeUnit.MILLISECONDS, queue, threadFactory);
+        permits = permitsIn;
+    }
+
+    /**
+     * Creates a pool running every task in a new virtual thread, as long as a permit is available.
+     *
+     * @param permits the permits bounding the number of tasks running at the same time
+     * @return the thread pool
+     * @throws UnsupportedOperationException if the JDK does not support virtual threads
+     */
+    public static MessageQueueThreadPool newVirtualThreadPerTask(Semaphore permits) {
+        MessageQueueThreadPool pool = new MessageQueueThreadPool(0, Integer.MAX_VALUE, new SynchronousQueue<>(),
+                TaskExecutors.virtualThreadFactory("message-queue-thread-%d"), permits);
+        pool.log.info("Started message queue virtual thread pool (permits: " + permits.availablePermits() + ")");
+        return pool;
+    }
+
     @Override
     public void execute(Runnable command) {
-        int queueSize = getQueue().size();
+        // tasks on virtual threads are never queued, they wait for a permit instead
+        int queueSize = permits == null ? getQueue().size() : permits.getQueueLength();
         if (queueSize >= QUEUE_SIZE_WARNING_THRESHOLD) {
             log.warn("Thread pool queue size is: " + queueSize);
         }
@@ -61,8 +89,19 @@ public class MessageQueueThreadPool extends ThreadPoolExecutor {
         super.execute(command);
     }
 
+    @Override
+    protected void beforeExecute(Thread thread, Runnable task) {
+        super.beforeExecute(thread, task);
+        if (permits != null) {
+            permits.acquireUninterruptibly();
+        }
+    }
+
     @Override
     protected void afterExecute(Runnable task, Throwable thrown) {
+        if (permits != null) {
+            permits.release();
+        }
         super.afterExecute(task, thrown);
 
         if (thrown == null && task instanceof Future<?>) {
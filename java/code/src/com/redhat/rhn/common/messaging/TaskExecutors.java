@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.common.messaging;
+
+import com.redhat.rhn.common.conf.ConfigDefaults;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the threads running message queue actions, either platform threads or, if configured and supported by
+ * the JDK, virtual threads.
+ *
+ * Tasks on virtual threads are cheap to block, so their number is not bounded by the thread pool sizes: instead,
+ * they share a number of permits bounding how many of them use the database connection pool at the same time.
+ */
+public final class TaskExecutors {
+
+    private static final Logger LOG = Logger.getLogger(TaskExecutors.class);
+
+    private static final boolean VIRTUAL_THREADS = initVirtualThreads();
+    private static final Semaphore DATABASE_PERMITS =
+            new Semaphore(ConfigDefaults.get().getTaskExecutorDbConcurrency(), true);
+
+    private TaskExecutors() {
+    }
+
+    private static boolean initVirtualThreads() {
+        if (!"virtual".equalsIgnoreCase(ConfigDefaults.get().getTaskExecutor())) {
+            return false;
+        }
+        if (!isVirtualThreadSupported()) {
+            LOG.warn("Virtual threads are not supported by this JDK, using platform threads");
+            return false;
+        }
+        LOG.info("Using virtual threads for message queue actions");
+        return true;
+    }
+
+    /**
+     * Returns true if message queue actions run on virtual threads.
+     * @return true if virtual threads are used
+     */
+    public static boolean useVirtualThreads() {
+        return VIRTUAL_THREADS;
+    }
+
+    /**
+     * Returns true if the running JDK can create virtual threads.
+     * @return true if virtual threads are supported
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            virtualThreadFactory("probe-%d");
+            return true;
+        }
+        catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the permits bounding the number of tasks on virtual threads using the database at the same time.
+     * @return the permits, shared by all virtual thread executors
+     */
+    public static Semaphore getDatabasePermits() {
+        return DATABASE_PERMITS;
+    }
+
+    /**
+     * Returns a factory of the configured kind of threads.
+     * @param namingPattern the thread names, %d being replaced by a counter
+     * @return the thread factory
+     */
+    public static ThreadFactory threadFactory(String namingPattern) {
+        if (VIRTUAL_THREADS) {
+            return virtualThreadFactory(namingPattern);
+        }
+        return new BasicThreadFactory.Builder().namingPattern(namingPattern).build();
+    }
+
+    /**
+     * Returns a factory of virtual threads. The JDK API is looked up by reflection, as older JDKs lack it.
+     * @param namingPattern the thread names, %d being replaced by a counter
+     * @return the thread factory
+     * @throws UnsupportedOperationException if the JDK does not support virtual threads
+     */
+    public static ThreadFactory virtualThreadFactory(String namingPattern) {
+        ThreadFactory factory;
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            factory = (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        }
+        catch (InvocationTargetException e) {
+            // preview JDKs throw UnsupportedOperationException unless preview features are enabled
+            throw new UnsupportedOperationException("Virtual threads are not enabled", e.getCause());
+        }
+        catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available", e);
+        }
+
+        AtomicLong count = new AtomicLong();
+        return runnable -> {
+            Thread thread = factory.newThread(runnable);
+            thread.setName(String.format(namingPattern, count.incrementAndGet()));
+            return thread;
+        };
+    }
+}
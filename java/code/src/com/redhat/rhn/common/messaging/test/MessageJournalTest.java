@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.common.messaging.test;
+
+import com.redhat.rhn.common.messaging.EventMessage;
+import com.redhat.rhn.common.messaging.MessageJournal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link MessageJournal}.
+ */
+public class MessageJournalTest extends TestCase {
+
+    private Path path;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        path = Files.createTempFile("message-queue", ".journal");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(compactedPath());
+        super.tearDown();
+    }
+
+    public void testPendingMessagesAreReplayed() throws IOException {
+        MessageJournal journal = new MessageJournal(path, 4096);
+        JournaledMessage first = new JournaledMessage("first");
+        JournaledMessage second = new JournaledMessage("second");
+        JournaledMessage third = new JournaledMessage("third");
+        assertTrue(journal.append(first));
+        assertTrue(journal.append(second));
+        assertTrue(journal.append(third));
+        journal.complete(second);
+        assertEquals(2, journal.size());
+        journal.close();
+
+        // replayed messages stay recorded until they are completed
+        journal = new MessageJournal(path, 4096);
+        assertEquals(List.of("first", "third"), names(journal.takePending()));
+        assertEquals(2, journal.size());
+        journal.close();
+
+        journal = new MessageJournal(path, 4096);
+        List<EventMessage> replayed = journal.takePending();
+        assertEquals(List.of("first", "third"), names(replayed));
+        for (EventMessage msg : replayed) {
+            assertTrue(journal.append(msg));
+        }
+        assertEquals(2, journal.size());
+        for (EventMessage msg : replayed) {
+            journal.complete(msg);
+        }
+        assertEquals(0, journal.size());
+        journal.close();
+
+        journal = new MessageJournal(path, 4096);
+        assertTrue(journal.takePending().isEmpty());
+        journal.close();
+    }
+
+    public void testInterruptedCompactionIsIgnored() throws IOException {
+        MessageJournal journal = new MessageJournal(path, 4096);
+        journal.append(new JournaledMessage("first"));
+        journal.close();
+
+        // a crash while compacting leaves a partial file next to the untouched journal
+        Files.write(compactedPath(), new byte[] {1, 0, 0, 0, 42});
+
+        journal = new MessageJournal(path, 4096);
+        assertEquals(List.of("first"), names(journal.takePending()));
+        assertFalse(Files.exists(compactedPath()));
+        journal.close();
+    }
+
+    public void testNotSerializableMessagesAreNotJournaled() throws IOException {
+        MessageJournal journal = new MessageJournal(path, 4096);
+        assertFalse(journal.append(new PlainMessage()));
+        assertEquals(0, journal.size());
+        journal.close();
+    }
+
+    public void testJournalIsCompactedAndGrown() throws IOException {
+        MessageJournal journal = new MessageJournal(path, 1024);
+        // many more records than fit in the initial size, only the last ones stay pending
+        for (int i = 0; i < 1000; i++) {
+            JournaledMessage msg = new JournaledMessage("message-" + i);
+            journal.append(msg);
+            if (i < 990) {
+                journal.complete(msg);
+            }
+        }
+        journal.close();
+
+        journal = new MessageJournal(path, 1024);
+        List<String> names = names(journal.takePending());
+        assertEquals(10, names.size());
+        assertEquals("message-990", names.get(0));
+        assertEquals("message-999", names.get(9));
+        journal.close();
+    }
+
+    public void testTornRecordIsIgnored() throws IOException {
+        MessageJournal journal = new MessageJournal(path, 4096);
+        journal.append(new JournaledMessage("first"));
+        journal.append(new JournaledMessage("second"));
+        journal.close();
+
+        // corrupt the last byte of the second record's payload
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            long end = 0;
+            while (file.length() > end && file.readByte() != 0) {
+                file.seek(end + 1);
+                int length = file.readInt();
+                end += 1 + 4 + 8 + 4 + length;
+                file.seek(end);
+            }
+            file.seek(end - 1);
+            byte last = file.readByte();
+            file.seek(end - 1);
+            file.writeByte(last ^ 0xFF);
+        }
+
+        journal = new MessageJournal(path, 4096);
+        assertEquals(List.of("first"), names(journal.takePending()));
+        journal.close();
+    }
+
+    public void testMessagesAreSerializedConcurrently() throws Exception {
+        MessageJournal journal = new MessageJournal(path, 4096);
+        int threads = 4;
+        // each message waits in its serialization for the others, failing if they are serialized one by one
+        CountDownLatch serializing = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> appended = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                SlowMessage msg = new SlowMessage("message-" + i, serializing);
+                appended.add(executor.submit(() -> journal.append(msg)));
+            }
+            for (Future<Boolean> result : appended) {
+                assertTrue(result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(0, serializing.getCount());
+            assertEquals(threads, journal.size());
+        }
+        finally {
+            executor.shutdownNow();
+            journal.close();
+        }
+
+        MessageJournal reopened = new MessageJournal(path, 4096);
+        assertEquals(threads, reopened.takePending().size());
+        reopened.close();
+    }
+
+    private Path compactedPath() {
+        return path.resolveSibling(path.getFileName() + ".compact");
+    }
+
+    private static List<String> names(List<EventMessage> messages) {
+        return messages.stream().map(EventMessage::toText).collect(Collectors.toList());
+    }
+
+    /**
+     * Message that can be journaled.
+     */
+    public static class JournaledMessage implements EventMessage, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+
+        /**
+         * @param nameIn the name of the message
+         */
+        public JournaledMessage(String nameIn) {
+            name = nameIn;
+        }
+
+        @Override
+        public String toText() {
+            return name;
+        }
+
+        @Override
+        public Long getUserId() {
+            return null;
+        }
+    }
+
+    /**
+     * Message waiting in its serialization until a number of messages are being serialized.
+     */
+    public static class SlowMessage extends JournaledMessage {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient CountDownLatch serializing;
+
+        /**
+         * @param nameIn the name of the message
+         * @param serializingIn counted down when serializing, then awaited
+         */
+        public SlowMessage(String nameIn, CountDownLatch serializingIn) {
+            super(nameIn);
+            serializing = serializingIn;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            serializing.countDown();
+            try {
+                if (!serializing.await(5, TimeUnit.SECONDS)) {
+                    throw new IOException("Messages were not serialized concurrently");
+                }
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            out.defaultWriteObject();
+        }
+    }
+
+    /**
+     * Message that cannot be journaled.
+     */
+    public static class PlainMessage implements EventMessage {
+
+        @Override
+        public String toText() {
+            return "plain";
+        }
+
+        @Override
+        public Long getUserId() {
+            return null;
+        }
+    }
+}
@@ -18,10 +18,21 @@ package com.redhat.rhn.common.messaging.test;
 import org.apache.log4j.Logger;
 
 import com.redhat.rhn.common.conf.Config;
+import com.redhat.rhn.common.messaging.EventMessage;
+import com.redhat.rhn.common.messaging.MessageAction;
 import com.redhat.rhn.common.messaging.MessageQueue;
 import com.redhat.rhn.domain.user.User;
 import com.redhat.rhn.testing.RhnBaseTestCase;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class MessageQueueTest extends RhnBaseTestCase {
 
     private static Logger logger = Logger.getLogger(MessageQueueTest.class);
@@ -176,6 +187,104 @@ public class MessageQueueTest extends RhnBaseTestCase {
         logger.debug("testThreadKiller - end");
     }
 
+    public void testPartitionedPublishKeepsOrder() throws Exception {
+        Map<Long, List<Integer>> handled = new ConcurrentHashMap<>();
+        MessageAction action = new MessageAction() {
+            @Override
+            public void execute(EventMessage msg) {
+                KeyedEventMessage keyed = (KeyedEventMessage) msg;
+                handled.computeIfAbsent(keyed.key, k -> Collections.synchronizedList(new ArrayList<>()))
+                        .add(keyed.sequence);
+            }
+
+            @Override
+            public boolean needsTransactionHandling() {
+                return false;
+            }
+        };
+        MessageQueue.registerAction(action, KeyedEventMessage.class);
+        try {
+            for (int i = 0; i < 100; i++) {
+                for (long key = 0; key < 10; key++) {
+                    MessageQueue.publish(new KeyedEventMessage(key, i));
+                }
+            }
+
+            int tries = 0;
+            while (handled.values().stream().mapToInt(List::size).sum() < 1000 && tries++ < 50) {
+                Thread.sleep(100);
+            }
+
+            assertEquals(10, handled.size());
+            for (List<Integer> sequences : handled.values()) {
+                assertEquals(100, sequences.size());
+                for (int i = 0; i < 100; i++) {
+                    assertEquals(Integer.valueOf(i), sequences.get(i));
+                }
+            }
+        }
+        finally {
+            MessageQueue.deRegisterAction(action, KeyedEventMessage.class);
+        }
+    }
+
+    public void testStopKeepsPendingMessages() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+        MessageAction action = new MessageAction() {
+            @Override
+            public void execute(EventMessage msg) {
+                KeyedEventMessage keyed = (KeyedEventMessage) msg;
+                if (keyed.sequence == 0) {
+                    blocked.countDown();
+                    try {
+                        unblock.await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                handled.add(keyed.sequence);
+            }
+
+            @Override
+            public boolean needsTransactionHandling() {
+                return false;
+            }
+        };
+        MessageQueue.registerAction(action, KeyedEventMessage.class);
+        try {
+            for (int i = 0; i < 10; i++) {
+                MessageQueue.publish(new KeyedEventMessage(1L, i));
+            }
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+            Thread stopper = new Thread(MessageQueue::stopMessaging);
+            stopper.start();
+            // stopping waits for the blocked partition
+            while (stopper.getState() != Thread.State.TIMED_WAITING) {
+                Thread.sleep(10);
+            }
+            unblock.countDown();
+            stopper.join();
+            assertEquals(Collections.singletonList(0), handled);
+
+            MessageQueue.startMessaging();
+            int tries = 0;
+            while (handled.size() < 10 && tries++ < 50) {
+                Thread.sleep(100);
+            }
+            for (int i = 0; i < 10; i++) {
+                assertEquals(Integer.valueOf(i), handled.get(i));
+            }
+        }
+        finally {
+            unblock.countDown();
+            MessageQueue.deRegisterAction(action, KeyedEventMessage.class);
+        }
+    }
+
     private void verifyMessageEvent(TestEventMessage me, boolean matchingValue)
             throws InterruptedException {
         MessageQueue.publish(me);
@@ -201,6 +310,92 @@ public class MessageQueueTest extends RhnBaseTestCase {
 
     }
 
+    public void testCoalescedPublish() throws Exception {
+        Map<Long, AtomicInteger> handled = new ConcurrentHashMap<>();
+        MessageAction action = new MessageAction() {
+            @Override
+            public void execute(EventMessage msg) {
+                CoalescedEventMessage coalesced = (CoalescedEventMessage) msg;
+                handled.computeIfAbsent(coalesced.target, k -> new AtomicInteger()).incrementAndGet();
+            }
+
+            @Override
+            public boolean needsTransactionHandling() {
+                return false;
+            }
+        };
+        MessageQueue.registerAction(action, CoalescedEventMessage.class);
+        try {
+            for (int i = 0; i < 100; i++) {
+                MessageQueue.publish(new CoalescedEventMessage(1L));
+            }
+            MessageQueue.publish(new CoalescedEventMessage(2L));
+
+            int tries = 0;
+            while (handled.size() < 2 && tries++ < 50) {
+                Thread.sleep(100);
+            }
+
+            assertEquals(1, handled.get(1L).get());
+            assertEquals(1, handled.get(2L).get());
+        }
+        finally {
+            MessageQueue.deRegisterAction(action, CoalescedEventMessage.class);
+        }
+    }
+
+    /**
+     * Message coalesced with the pending messages having the same target.
+     */
+    public static class CoalescedEventMessage implements EventMessage {
+
+        private final Long target;
+
+        CoalescedEventMessage(Long targetIn) {
+            target = targetIn;
+        }
+
+        public String toText() {
+            return "CoalescedEventMessage " + target;
+        }
+
+        public Long getUserId() {
+            return null;
+        }
+
+        @Override
+        public Object getCoalescingKey() {
+            return target;
+        }
+    }
+
+    /**
+     * Message routed to a partition by its key.
+     */
+    public static class KeyedEventMessage implements EventMessage {
+
+        private final Long key;
+        private final int sequence;
+
+        KeyedEventMessage(Long keyIn, int sequenceIn) {
+            key = keyIn;
+            sequence = sequenceIn;
+        }
+
+        public String toText() {
+            return "KeyedEventMessage " + key + "/" + sequence;
+        }
+
+        public Long getUserId() {
+            return null;
+        }
+
+        @Override
+        public Object getPartitionKey() {
+            return key;
+        }
+    }
+
     /**
     * Util thread to simulate multiple Threads publishing
     * events.
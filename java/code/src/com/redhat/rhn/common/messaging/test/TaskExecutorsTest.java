@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.common.messaging.test;
+
+import com.redhat.rhn.common.messaging.MessageQueueThreadPool;
+import com.redhat.rhn.common.messaging.TaskExecutors;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link TaskExecutors} and the virtual thread pool of the message queue.
+ */
+public class TaskExecutorsTest extends TestCase {
+
+    public void testPlatformThreadsByDefault() {
+        assertFalse(TaskExecutors.useVirtualThreads());
+        Thread thread = TaskExecutors.threadFactory("test-thread-%d").newThread(() -> { });
+        assertEquals("test-thread-1", thread.getName());
+    }
+
+    public void testVirtualThreadFactory() throws Exception {
+        if (!TaskExecutors.isVirtualThreadSupported()) {
+            try {
+                TaskExecutors.virtualThreadFactory("test-thread-%d");
+                fail("Virtual threads should not be available");
+            }
+            catch (UnsupportedOperationException e) {
+                // expected
+            }
+            return;
+        }
+        Thread thread = TaskExecutors.virtualThreadFactory("test-thread-%d").newThread(() -> { });
+        assertEquals("test-thread-1", thread.getName());
+        assertEquals(true, Thread.class.getMethod("isVirtual").invoke(thread));
+    }
+
+    public void testVirtualThreadPerTaskIsBoundedByPermits() throws Exception {
+        if (!TaskExecutors.isVirtualThreadSupported()) {
+            return;
+        }
+        MessageQueueThreadPool pool = MessageQueueThreadPool.newVirtualThreadPerTask(new Semaphore(3));
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(30);
+        for (int i = 0; i < 30; i++) {
+            pool.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(5);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(maxRunning.get() <= 3);
+        pool.shutdown();
+    }
+
+    /**
+     * Checks how many tasks blocking as if waiting for the database run at the same time: at most the pool
+     * size on platform threads, up to the number of permits on virtual threads.
+     * @throws Exception if interrupted
+     */
+    public void testConcurrentlyBlockedTasks() throws Exception {
+        assertEquals(5, maxConcurrentlyBlockedTasks(new MessageQueueThreadPool(5)));
+        if (TaskExecutors.isVirtualThreadSupported()) {
+            assertEquals(15, maxConcurrentlyBlockedTasks(
+                    MessageQueueThreadPool.newVirtualThreadPerTask(new Semaphore(15))));
+        }
+    }
+
+    /**
+     * Runs tasks staying blocked until as many of them as possible are running at the same time.
+     */
+    private int maxConcurrentlyBlockedTasks(ExecutorService pool) throws InterruptedException {
+        int tasks = 50;
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            pool.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+        // give the pool time to start every task it can run
+        sleep(500);
+        release.countDown();
+        assertTrue(done.await(1, TimeUnit.MINUTES));
+        pool.shutdown();
+        return maxRunning.get();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.common.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An RPM version or release string parsed once, which compares like {@link RpmVersionComparator}
+ * without parsing the strings again on every comparison.
+ *
+ * The string is split in the segments rpmvercmp compares, each one encoded in a long: the
+ * segment kind in the 4 high bits, and in the remaining 60 bits either the value of numbers up
+ * to 18 digits or up to 10 ASCII letters of alphabetic segments. Longer segments are kept as
+ * strings. The special handling of Debian versions containing a '-' done by
+ * {@link RpmVersionComparator} is applied too.
+ *
+ * Like the comparator, the ordering is not consistent with equals: "1.0" and "1_0" compare equal.
+ */
+public final class RpmVersion implements Comparable<RpmVersion> {
+
+    private static final int KIND_SHIFT = 60;
+    private static final long PAYLOAD_MASK = (1L << KIND_SHIFT) - 1;
+    private static final long TILDE = 1L << KIND_SHIFT;
+    private static final long CARET = 2L << KIND_SHIFT;
+    private static final long NUMBER = 3;
+    private static final long WORD = 4;
+    private static final long LONG_NUMBER = 5;
+    private static final long LONG_WORD = 6;
+
+    private static final int MAX_NUMBER_DIGITS = 18;
+    private static final int BITS_PER_LETTER = 6;
+    private static final int MAX_WORD_LETTERS = KIND_SHIFT / BITS_PER_LETTER;
+    private static final long[] NO_SEGMENTS = new long[0];
+
+    private final String value;
+    private final int upstreamLength;
+    private final long[] upstream;
+    private final long[] revision;
+    private final String[] strings;
+
+    private RpmVersion(String valueIn) {
+        value = valueIn;
+        int dash = value.length() > 1 ? value.indexOf('-') : -1;
+        List<String> longSegments = new ArrayList<String>(0);
+        if (dash > 0) {
+            upstreamLength = dash;
+            upstream = parse(value, 0, dash, longSegments);
+            revision = parse(value, dash + 1, value.length(), longSegments);
+        }
+        else {
+            upstreamLength = value.length();
+            upstream = parse(value, 0, value.length(), longSegments);
+            revision = null;
+        }
+        strings = longSegments.toArray(new String[longSegments.size()]);
+    }
+
+    /**
+     * Parses a version or release string.
+     * @param value the version or release, null is handled as the empty string
+     * @return the parsed version
+     */
+    public static RpmVersion parse(String value) {
+        return new RpmVersion(value == null ? "" : value);
+    }
+
+    /**
+     * @return the version or release string
+     */
+    @Override
+    public String toString() {
+        return value;
+    }
+
+    /**
+     * Compares two versions, like {@link RpmVersionComparator#compare(String, String)} does.
+     * @param other the other version
+     * @return -1, 0 or 1 if this version is older, equal or newer than the other one
+     */
+    @Override
+    public int compareTo(RpmVersion other) {
+        if (value.equals(other.value)) {
+            return 0;
+        }
+        if (upstreamLength != other.upstreamLength ||
+                !value.regionMatches(0, other.value, 0, upstreamLength)) {
+            return compare(upstream, other, other.upstream);
+        }
+        if (revision == null || other.revision == null) {
+            return 0;
+        }
+        return compare(revision, other, other.revision);
+    }
+
+    /**
+     * Splits value[from, to) in segments, mirroring the loop of rpmvercmp.
+     */
+    private static long[] parse(String value, int from, int to, List<String> longSegments) {
+        if (from >= to) {
+            return NO_SEGMENTS;
+        }
+        long[] segments = new long[8];
+        int count = 0;
+        int i = from;
+        while (true) {
+            while (i < to && !isSegmentStart(value.charAt(i))) {
+                i++;
+            }
+            if (i >= to) {
+                break;
+            }
+            char c = value.charAt(i);
+            long segment;
+            if (c == '~') {
+                segment = TILDE;
+                i++;
+            }
+            else if (c == '^') {
+                segment = CARET;
+                i++;
+            }
+            else if (Character.isDigit(c)) {
+                int end = i;
+                while (end < to && Character.isDigit(value.charAt(end))) {
+                    end++;
+                }
+                while (i < end && value.charAt(i) == '0') {
+                    i++;
+                }
+                segment = number(value.substring(i, end), longSegments);
+                i = end;
+            }
+            else {
+                int end = i;
+                while (end < to && Character.isLetter(value.charAt(end))) {
+                    end++;
+                }
+                segment = word(value.substring(i, end), longSegments);
+                i = end;
+            }
+            if (count == segments.length) {
+                long[] grown = new long[count * 2];
+                System.arraycopy(segments, 0, grown, 0, count);
+                segments = grown;
+            }
+            segments[count++] = segment;
+        }
+        long[] result = new long[count];
+        System.arraycopy(segments, 0, result, 0, count);
+        return result;
+    }
+
+    private static boolean isSegmentStart(char c) {
+        return c == '~' || c == '^' || Character.isDigit(c) || Character.isLetter(c);
+    }
+
+    /**
+     * Encodes a number without leading zeros.
+     */
+    private static long number(String digits, List<String> longSegments) {
+        if (digits.length() <= MAX_NUMBER_DIGITS) {
+            long n = 0;
+            for (int i = 0; i < digits.length(); i++) {
+                char c = digits.charAt(i);
+                if (c < '0' || c > '9') {
+                    return longSegment(LONG_NUMBER, digits, longSegments);
+                }
+                n = n * 10 + (c - '0');
+            }
+            return (NUMBER << KIND_SHIFT) | n;
+        }
+        return longSegment(LONG_NUMBER, digits, longSegments);
+    }
+
+    /**
+     * Encodes a word, 6 bits per letter starting from the high bits, so that the encoded values
+     * compare like the strings.
+     */
+    private static long word(String letters, List<String> longSegments) {
+        if (letters.length() > MAX_WORD_LETTERS) {
+            return longSegment(LONG_WORD, letters, longSegments);
+        }
+        long w = 0;
+        for (int i = 0; i < MAX_WORD_LETTERS; i++) {
+            long code = 0;
+            if (i < letters.length()) {
+                code = letterCode(letters.charAt(i));
+                if (code == 0) {
+                    return longSegment(LONG_WORD, letters, longSegments);
+                }
+            }
+            w = (w << BITS_PER_LETTER) | code;
+        }
+        return (WORD << KIND_SHIFT) | w;
+    }
+
+    private static long letterCode(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A' + 1;
+        }
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 27;
+        }
+        return 0;
+    }
+
+    private static long longSegment(long kind, String segment, List<String> longSegments) {
+        longSegments.add(segment);
+        return (kind << KIND_SHIFT) | (longSegments.size() - 1);
+    }
+
+    private static long kind(long segment) {
+        return segment >>> KIND_SHIFT;
+    }
+
+    private static boolean isNumber(long segment) {
+        return kind(segment) == NUMBER || kind(segment) == LONG_NUMBER;
+    }
+
+    private int compare(long[] segments, RpmVersion other, long[] otherSegments) {
+        int i = 0;
+        while (true) {
+            boolean end1 = i >= segments.length;
+            boolean end2 = i >= otherSegments.length;
+            long s1 = end1 ? 0 : segments[i];
+            long s2 = end2 ? 0 : otherSegments[i];
+            // the tilde sorts before everything else
+            if (s1 == TILDE || s2 == TILDE) {
+                if (s1 != TILDE) {
+                    return 1;
+                }
+                if (s2 != TILDE) {
+                    return -1;
+                }
+            }
+            // the caret sorts after the end of a version, before anything else
+            else if (s1 == CARET || s2 == CARET) {
+                if (end1) {
+                    return -1;
+                }
+                if (end2) {
+                    return 1;
+                }
+                if (s1 != CARET) {
+                    return 1;
+                }
+                if (s2 != CARET) {
+                    return -1;
+                }
+            }
+            else if (end1 || end2) {
+                // whichever version still has segments left wins
+                return end1 == end2 ? 0 : (end1 ? -1 : 1);
+            }
+            else {
+                int rc;
+                if (isNumber(s1)) {
+                    if (!isNumber(s2)) {
+                        return 1;
+                    }
+                    rc = compareNumbers(s1, other, s2);
+                }
+                else {
+                    if (isNumber(s2)) {
+                        return -1;
+                    }
+                    rc = compareWords(s1, other, s2);
+                }
+                if (rc != 0) {
+                    return rc < 0 ? -1 : 1;
+                }
+            }
+            i++;
+        }
+    }
+
+    private int compareNumbers(long s1, RpmVersion other, long s2) {
+        if (kind(s1) == NUMBER && kind(s2) == NUMBER) {
+            return Long.compare(s1 & PAYLOAD_MASK, s2 & PAYLOAD_MASK);
+        }
+        // whichever number has more digits wins
+        String n1 = numberString(s1);
+        String n2 = other.numberString(s2);
+        if (n1.length() != n2.length()) {
+            return n1.length() > n2.length() ? 1 : -1;
+        }
+        return n1.compareTo(n2);
+    }
+
+    private int compareWords(long s1, RpmVersion other, long s2) {
+        if (kind(s1) == WORD && kind(s2) == WORD) {
+            return Long.compare(s1 & PAYLOAD_MASK, s2 & PAYLOAD_MASK);
+        }
+        return wordString(s1).compareTo(other.wordString(s2));
+    }
+
+    private String numberString(long segment) {
+        if (kind(segment) == LONG_NUMBER) {
+            return strings[(int) (segment & PAYLOAD_MASK)];
+        }
+        long n = segment & PAYLOAD_MASK;
+        return n == 0 ? "" : Long.toString(n);
+    }
+
+    private String wordString(long segment) {
+        if (kind(segment) == LONG_WORD) {
+            return strings[(int) (segment & PAYLOAD_MASK)];
+        }
+        StringBuilder letters = new StringBuilder(MAX_WORD_LETTERS);
+        for (int i = MAX_WORD_LETTERS - 1; i >= 0; i--) {
+            int code = (int) ((segment >>> (i * BITS_PER_LETTER)) & ((1 << BITS_PER_LETTER) - 1));
+            if (code == 0) {
+                break;
+            }
+            letters.append((char) (code <= 26 ? 'A' + code - 1 : 'a' + code - 27));
+        }
+        return letters.toString();
+    }
+}
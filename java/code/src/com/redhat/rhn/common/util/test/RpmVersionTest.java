@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.common.util.test;
+
+import com.redhat.rhn.common.util.RpmVersion;
+import com.redhat.rhn.common.util.RpmVersionComparator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link RpmVersion}.
+ */
+public class RpmVersionTest extends TestCase {
+
+    private static final List<String> VERSIONS = Arrays.asList(
+            null, "", "0", "00", "1", "01", "9", "10", "00009", "0010", "1.0", "1_0", "1.0.", "1.1", "1a",
+            "1.1.PTF", "10mdk", "10.1mdk", "ximian.1", "1.4snap", "1.4.5", "4.0x", "4.0.36", "p19", "2.0.0",
+            "2.0e", "2.0.11", "asp1.7x.2", "ipl4mdk", "alt0.8", "1asp", "alt1", "1.0~rc1", "1.0~rc2",
+            "1.0~rc1~git123", "1.0^", "1.0^git1", "1.0^git2", "1.01", "1.0^20160101", "1.0.1",
+            "1.0^20160102", "1.0^20160101^git1", "1.0~rc1^git1", "1.0^git1~pre", "8-20180414", "8.3.0",
+            "8", "2.7.15~rc1", "2.7.15", "1.0-1", "2.0-2", "2.2~rc-4", "2.2-1", "0-0", "0foo-0", "0foo~1",
+            "0foo~foo+Bar", "0foo~foo+bar", "0foo~~", "0foo~", "1~", "8.0.9.22-abcd", "8.0.9.22-abcd-expr1",
+            "12345678901234567890", "12345678901234567891", "123456789012345678", "999999999999999999",
+            "abcdefghij", "abcdefghijk", "abcdefghi", "ABCdef", "abcDEF", "\u00e91", "1\u00e9", "1.\u0663", "1.3",
+            "150300.20.3.1", "lp152.2.1", "bp152.3.1", "150200.8.4", "el8_2", "el8", "git20200101.abc123");
+
+    public void testSameOrderAsComparator() {
+        RpmVersionComparator cmp = new RpmVersionComparator();
+        for (String v1 : VERSIONS) {
+            for (String v2 : VERSIONS) {
+                assertEquals(v1 + " <=> " + v2, cmp.compare(v1, v2),
+                        RpmVersion.parse(v1).compareTo(RpmVersion.parse(v2)));
+            }
+        }
+    }
+
+    public void testRandomVersions() {
+        RpmVersionComparator cmp = new RpmVersionComparator();
+        Random random = new Random(42);
+        String alphabet = "0123456789abcXYZ.-_~^+";
+        List<String> versions = new ArrayList<String>();
+        for (int i = 0; i < 300; i++) {
+            StringBuilder v = new StringBuilder();
+            int length = random.nextInt(14);
+            for (int j = 0; j < length; j++) {
+                v.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            versions.add(v.toString());
+        }
+        for (String v1 : versions) {
+            RpmVersion p1 = RpmVersion.parse(v1);
+            for (String v2 : versions) {
+                assertEquals(v1 + " <=> " + v2, cmp.compare(v1, v2), p1.compareTo(RpmVersion.parse(v2)));
+            }
+        }
+    }
+
+    public void testToString() {
+        assertEquals("1.0~rc1", RpmVersion.parse("1.0~rc1").toString());
+        assertEquals("", RpmVersion.parse(null).toString());
+    }
+}
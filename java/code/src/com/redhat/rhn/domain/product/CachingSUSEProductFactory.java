@@ -24,18 +24,21 @@ import com.suse.utils.Opt;
 
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
 /**
  * Fetches {@link SUSEProduct} objects caching them for speed.
+ *
+ * Instances can be shared by threads, each one looking up missing products in its own session.
  */
 public class CachingSUSEProductFactory {
 
-    /* Cache for findSUSEProduct() results */
-    private Map<String, SUSEProduct> suseProductCache = new HashMap<>();
+    /* Cache for findSUSEProduct() results, including products not found */
+    private final Map<String, Optional<SUSEProduct>> suseProductCache = new ConcurrentHashMap<>();
 
     /**
      * Returns the SUSE product corresponding to an InstalledProduct, if available. Caches results for faster lookups.
@@ -48,13 +51,13 @@ public class CachingSUSEProductFactory {
         String arch = Opt.fold(ofNullable(ip.getArch()), () -> null, PackageArch::getLabel);
 
         String key = name + "-" + version + "-" + release + "-" + arch;
-        SUSEProduct cached = suseProductCache.get(key);
+        Optional<SUSEProduct> cached = suseProductCache.get(key);
         if (cached != null) {
-            return cached;
+            return cached.orElse(null);
         }
         else {
             SUSEProduct result = SUSEProductFactory.findSUSEProduct(name, version, release, arch, true);
-            suseProductCache.put(key, result);
+            suseProductCache.putIfAbsent(key, Optional.ofNullable(result));
             return result;
         }
     }
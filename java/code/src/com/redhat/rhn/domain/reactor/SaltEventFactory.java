@@ -63,6 +63,39 @@ public class SaltEventFactory extends HibernateFactory {
         }).boxed().collect(Collectors.toList());
     }
 
+    /**
+     * Returns the highest id of the Salt events currently queued.
+     * @return the highest id, 0 if there are no events
+     */
+    public static long getMaxSaltEventId() {
+        return (Long) singleton.lookupObjectByNamedQuery("SaltEvent.getMaxSaltEventId", Collections.EMPTY_MAP);
+    }
+
+    /**
+     * Returns the number of Salt events queued in some queues with an id up to maxId. Used to find events that
+     * were inserted before a given point in time and are still waiting.
+     * @param queuesCount the number of queues handling events
+     * @param queues the queues to count events in
+     * @param maxId the highest event id to consider
+     * @return the list of events count per queue starting with queue 0, queues not in queues are always 0
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Long> countSaltEventsUpTo(int queuesCount, Collection<Integer> queues, long maxId) {
+        if (queues.isEmpty()) {
+            return IntStream.range(0, queuesCount).mapToObj(i -> 0L).collect(Collectors.toList());
+        }
+        List<Object[]> countObjects = singleton.listObjectsByNamedQuery("SaltEvent.countSaltEventsUpTo",
+                new HashMap<String, Object>() { { put("queues", queues); put("maxId", maxId); } });
+
+        return IntStream.range(0, queuesCount).mapToLong(i -> {
+            return countObjects.stream()
+                    .filter(c -> c[0].equals(i))
+                    .map(c -> (Long) c[1])
+                    .findFirst()
+                    .orElse(Long.valueOf(0L));
+        }).boxed().collect(Collectors.toList());
+    }
+
     /**
      * Returns Salt events, if any, up to limit.
      * @param limit the maximum count of events to return
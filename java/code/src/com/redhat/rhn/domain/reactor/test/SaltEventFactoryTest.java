@@ -78,6 +78,24 @@ public class SaltEventFactoryTest extends RhnBaseTestCase {
         assertEquals(Arrays.asList(0L, 0L, 0L, 0L), saltEventsCount);
     }
 
+    public void testCountSaltEventsUpTo() {
+        assertEquals(0L, SaltEventFactory.getMaxSaltEventId());
+
+        insertIntoSuseSaltEvent(new SaltEvent(1L, "minion_1", "data_minion_1", 1));
+        insertIntoSuseSaltEvent(new SaltEvent(2L, "minion_2", "data_minion_2", 2));
+        insertIntoSuseSaltEvent(new SaltEvent(3L, "minion_1", "data_minion_1", 1));
+        assertEquals(3L, SaltEventFactory.getMaxSaltEventId());
+
+        assertEquals(Arrays.asList(0L, 2L, 1L, 0L),
+                SaltEventFactory.countSaltEventsUpTo(4, Arrays.asList(0, 1, 2, 3), 3L));
+        assertEquals(Arrays.asList(0L, 1L, 1L, 0L),
+                SaltEventFactory.countSaltEventsUpTo(4, Arrays.asList(0, 1, 2, 3), 2L));
+        assertEquals(Arrays.asList(0L, 0L, 1L, 0L),
+                SaltEventFactory.countSaltEventsUpTo(4, Arrays.asList(2), 3L));
+        assertEquals(Arrays.asList(0L, 0L, 0L, 0L),
+                SaltEventFactory.countSaltEventsUpTo(4, new ArrayList<>(), 3L));
+    }
+
     public void testPopSaltEvents() throws NoSuchAlgorithmException {
         // verify there are no salt events
         List<Long> saltEventsCount = SaltEventFactory.countSaltEvents(4);
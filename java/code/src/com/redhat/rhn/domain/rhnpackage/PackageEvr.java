@@ -14,8 +14,6 @@
  */
 package com.redhat.rhn.domain.rhnpackage;
 
-import com.redhat.rhn.common.util.RpmVersionComparator;
-
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -26,13 +24,11 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  */
 public class PackageEvr implements Comparable {
 
-    private static final RpmVersionComparator VERCMP = new RpmVersionComparator();
-    private static final Integer ZERO = 0;
-
     private Long id;
     private String epoch;
     private String version;
     private String release;
+    private ParsedEvr parsed;
 
     /**
      * Null constructor, needed for hibernate
@@ -80,6 +76,7 @@ public class PackageEvr implements Comparable {
      */
     public void setEpoch(String e) {
         this.epoch = e;
+        this.parsed = null;
     }
 
     /**
@@ -108,6 +105,7 @@ public class PackageEvr implements Comparable {
      */
     public void setRelease(String r) {
         this.release = r;
+        this.parsed = null;
     }
 
     /**
@@ -122,6 +120,7 @@ public class PackageEvr implements Comparable {
      */
     public void setVersion(String v) {
         this.version = v;
+        this.parsed = null;
     }
 
     /**
@@ -159,27 +158,19 @@ public class PackageEvr implements Comparable {
         // to null epochs (the RHN::DB::Package version does not treat null
         // epochs the same as epoch == 0, but sorts them as Integer.MIN_VALUE)
         PackageEvr other = (PackageEvr) o;
-        int result = epochAsInteger().compareTo(other.epochAsInteger());
-        if (result != 0) {
-            return result;
-        }
-        if (getVersion() == null || other.getVersion() == null) {
-            throw new IllegalStateException(
-                    "To compare PackageEvr, both must have non-null versions");
-        }
-        result = VERCMP.compare(getVersion(), other.getVersion());
-        if (result != 0) {
-            return result;
-        }
-        // The perl code doesn't check for null releases, so we won't either
-        // In the long run, a check might be in order, though
-        return VERCMP.compare(getRelease(), other.getRelease());
+        return getParsedEvr().compareTo(other.getParsedEvr());
     }
 
-    private Integer epochAsInteger() {
-        Integer result = ZERO;
-        if (getEpoch() != null) {
-            result = Integer.valueOf(getEpoch());
+    /**
+     * Returns this evr parsed for comparisons. It is parsed once, and again only if the
+     * epoch, version or release change.
+     * @return the parsed evr
+     */
+    public ParsedEvr getParsedEvr() {
+        ParsedEvr result = parsed;
+        if (result == null) {
+            result = ParsedEvr.of(getEpoch(), getVersion(), getRelease());
+            parsed = result;
         }
         return result;
     }
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.domain.rhnpackage;
+
+import com.redhat.rhn.common.util.RpmVersion;
+
+/**
+ * Epoch, version and release parsed once, comparing like {@link PackageEvr#compareTo(Object)}.
+ * Instances are immutable and can be shared between sessions and threads.
+ */
+public final class ParsedEvr implements Comparable<ParsedEvr> {
+
+    private final int epoch;
+    private final RpmVersion version;
+    private final RpmVersion release;
+
+    private ParsedEvr(int epochIn, RpmVersion versionIn, RpmVersion releaseIn) {
+        epoch = epochIn;
+        version = versionIn;
+        release = releaseIn;
+    }
+
+    /**
+     * Parses an evr.
+     * @param epoch the epoch, null is handled as 0
+     * @param version the version
+     * @param release the release
+     * @return the parsed evr
+     * @throws NumberFormatException if the epoch is not a number
+     */
+    public static ParsedEvr of(String epoch, String version, String release) {
+        return new ParsedEvr(epoch == null ? 0 : Integer.parseInt(epoch),
+                version == null ? null : RpmVersion.parse(version),
+                RpmVersion.parse(release));
+    }
+
+    /**
+     * @return the epoch
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the version, or null if unknown
+     */
+    public RpmVersion getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the release
+     */
+    public RpmVersion getRelease() {
+        return release;
+    }
+
+    /**
+     * Compares the epochs, then the versions and the releases.
+     * @param other the other evr
+     * @return a negative number, 0 or a positive number if this evr is older, equal or newer
+     * @throws IllegalStateException if the epochs are equal and any of the versions is unknown
+     */
+    @Override
+    public int compareTo(ParsedEvr other) {
+        int result = Integer.compare(epoch, other.epoch);
+        if (result != 0) {
+            return result;
+        }
+        if (version == null || other.version == null) {
+            throw new IllegalStateException(
+                    "To compare PackageEvr, both must have non-null versions");
+        }
+        result = version.compareTo(other.version);
+        if (result != 0) {
+            return result;
+        }
+        return release.compareTo(other.release);
+    }
+
+    /**
+     * @param other the other evr
+     * @return true if this evr is newer than the other one
+     */
+    public boolean isNewerThan(ParsedEvr other) {
+        return compareTo(other) > 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return (epoch != 0 ? epoch + ":" : "") + version + "-" + release;
+    }
+}
@@ -19,6 +19,7 @@ import com.redhat.rhn.common.messaging.EventDatabaseMessage;
 
 import org.hibernate.Transaction;
 
+import java.io.Serializable;
 import java.util.List;
 
 /**
@@ -27,7 +28,9 @@ import java.util.List;
  *
  * @version $Rev$
  */
-public class UpdateErrataCacheEvent implements EventDatabaseMessage {
+public class UpdateErrataCacheEvent implements EventDatabaseMessage, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private Long orgId;
     private List<Long> channelIds;
@@ -38,7 +41,7 @@ public class UpdateErrataCacheEvent implements EventDatabaseMessage {
     public static final int TYPE_CHANNEL = 2;
     public static final int TYPE_CHANNEL_ERRATA = 3;
 
-    private Transaction txn;
+    private transient Transaction txn;
 
 
     /**
@@ -14,9 +14,12 @@
  */
 package com.redhat.rhn.frontend.xmlrpc.audit;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.redhat.rhn.FaultException;
 import com.redhat.rhn.domain.user.User;
@@ -26,6 +29,7 @@ import com.redhat.rhn.frontend.xmlrpc.UnknownCVEIdentifierFaultException;
 import com.redhat.rhn.manager.audit.CVEAuditImage;
 import com.redhat.rhn.manager.audit.CVEAuditManager;
 import com.redhat.rhn.manager.audit.CVEAuditServer;
+import com.redhat.rhn.manager.audit.CVEPatchStatusStore;
 import com.redhat.rhn.manager.audit.PatchStatus;
 import com.redhat.rhn.manager.audit.UnknownCVEIdentifierException;
 
@@ -120,6 +124,117 @@ public class CVEAuditHandler extends BaseHandler {
         }
     }
 
+    /**
+     * List visible systems with their patch status regarding a number of CVE
+     * identifiers. Please note that the query code relies on data that is
+     * pre-generated by the 'cve-server-channels' taskomatic job.
+     * @param loggedInUser The current user
+     * @param cveIdentifiers the CVE numbers to search for
+     * @return a list of CVEs with the systems and their patch status
+     *
+     * @xmlrpc.doc List visible systems with their patch status regarding a number of CVE
+     * identifiers. The patch status of systems is stored and only computed again when the
+     * CVE errata, the system packages or the system channels change, so auditing many CVEs
+     * at once is faster than calling listSystemsByPatchStatus for each one of them.
+     * Please note that the query code relies on data that is pre-generated by the
+     * 'cve-server-channels' taskomatic job.
+     * @xmlrpc.param #session_key()
+     * @xmlrpc.param #array_single("string", "cveIdentifier")
+     * @xmlrpc.returntype
+     *  #array_begin()
+     *      #struct_begin("cve")
+     *          #prop("string", "cve_identifier")
+     *          #prop_array_begin("systems")
+     *              $CVEAuditServerSerializer
+     *          #prop_array_end()
+     *      #struct_end()
+     *  #array_end()
+     */
+    public List<Map<String, Object>> listSystemsByPatchStatusForCves(User loggedInUser,
+            List<String> cveIdentifiers) {
+        return listSystemsByPatchStatusForCves(loggedInUser, cveIdentifiers, null);
+    }
+
+    /**
+     * List visible systems with their patch status regarding a number of CVE
+     * identifiers. Filter the results by passing in a list of patch status
+     * labels. Please note that the query code relies on data that is
+     * pre-generated by the 'cve-server-channels' taskomatic job.
+     * @param loggedInUser The current user
+     * @param cveIdentifiers the CVE numbers to search for
+     * @param patchStatusLabels patch status labels to filter, will only return
+     *            results with those patch statuses
+     * @return a list of CVEs with the systems and their patch status
+     * @throws FaultException if any of the CVE numbers is not known
+     *
+     * @xmlrpc.doc List visible systems with their patch status regarding a number of CVE
+     * identifiers. Filter the results by passing in a list of patch status labels.
+     * The patch status of systems is stored and only computed again when the CVE errata,
+     * the system packages or the system channels change, so auditing many CVEs at once
+     * is faster than calling listSystemsByPatchStatus for each one of them.
+     * Please note that the query code relies on data that is pre-generated by the
+     * 'cve-server-channels' taskomatic job.
+     * @xmlrpc.param #session_key()
+     * @xmlrpc.param #array_single("string", "cveIdentifier")
+     * @xmlrpc.param #array_single("string", "patchStatusLabel")
+     *  #options()
+     *      #item_desc ("AFFECTED_PATCH_INAPPLICABLE",
+     *          "Affected, patch available in unassigned channel")
+     *      #item_desc ("AFFECTED_PATCH_APPLICABLE",
+     *          "Affected, patch available in assigned channel")
+     *      #item_desc ("NOT_AFFECTED", "Not affected")
+     *      #item_desc ("PATCHED", "Patched")
+     *  #options_end()
+     * @xmlrpc.returntype
+     *  #array_begin()
+     *      #struct_begin("cve")
+     *          #prop("string", "cve_identifier")
+     *          #prop_array_begin("systems")
+     *              $CVEAuditServerSerializer
+     *          #prop_array_end()
+     *      #struct_end()
+     *  #array_end()
+     */
+    public List<Map<String, Object>> listSystemsByPatchStatusForCves(User loggedInUser,
+            List<String> cveIdentifiers, List<String> patchStatusLabels) throws FaultException {
+
+        // Convert list of strings to patch status objects
+        EnumSet<PatchStatus> patchStatuses = EnumSet.noneOf(PatchStatus.class);
+        if (patchStatusLabels == null) {
+            patchStatuses = EnumSet.allOf(PatchStatus.class);
+        }
+        else {
+            for (String label : patchStatusLabels) {
+                try {
+                    patchStatuses.add(PatchStatus.valueOf(label));
+                }
+                catch (IllegalArgumentException e) {
+                    throw new MethodInvalidParamException(e);
+                }
+            }
+        }
+
+        try {
+            Map<String, List<CVEAuditServer>> systemsByCve = CVEPatchStatusStore.listSystemsByPatchStatus(
+                    loggedInUser, cveIdentifiers, patchStatuses);
+
+            List<Map<String, Object>> result = new ArrayList<>(systemsByCve.size());
+            for (Map.Entry<String, List<CVEAuditServer>> cve : systemsByCve.entrySet()) {
+                List<CVEAuditServer> systems = cve.getValue();
+                systems.sort(Comparator.comparingInt(s -> s.getPatchStatus().getRank()));
+
+                Map<String, Object> entry = new HashMap<>();
+                entry.put("cve_identifier", cve.getKey());
+                entry.put("systems", systems);
+                result.add(entry);
+            }
+            return result;
+        }
+        catch (UnknownCVEIdentifierException e) {
+            throw new UnknownCVEIdentifierFaultException();
+        }
+    }
+
     /**
      * List visible images with their patch status regarding a given CVE
      * identifier.
@@ -38,6 +38,7 @@ import com.redhat.rhn.frontend.dto.SUSEProductDto;
 import com.redhat.rhn.frontend.dto.SystemOverview;
 import com.redhat.rhn.manager.distupgrade.DistUpgradeManager;
 
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.log4j.Logger;
 
 import java.util.ArrayList;
@@ -46,11 +47,17 @@ import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -72,18 +79,21 @@ public class CVEAuditManager {
     /** The log. */
     private static Logger log = Logger.getLogger(CVEAuditManager.class);
 
-    // Internal methods caches
+    // Internal methods caches, shared by the threads populating channels
     /** The SUSE product channel cache. */
     private static Map<Long, List<Channel>> suseProductChannelCache =
-            new HashMap<>();
+            new ConcurrentHashMap<>();
 
     /** The target product cache. */
     private static Map<Long, List<SUSEProductDto>> targetProductCache =
-            new HashMap<>();
+            new ConcurrentHashMap<>();
 
     /** The source product cache. */
     private static Map<Long, List<SUSEProductDto>> sourceProductCache =
-            new HashMap<>();
+            new ConcurrentHashMap<>();
+
+    /** Number of systems whose relevant channels are computed in one Hibernate session. */
+    private static final int SERVER_BATCH_SIZE = 500;
 
     private static final String KERNEL_DEFAULT_NAME = "kernel-default";
 
@@ -433,32 +443,49 @@ public class CVEAuditManager {
     }
 
     /**
-     * Populate channels for CVE Audit
+     * Populate channels for CVE Audit, computing them again for all systems and images
+     * in the current session.
      */
     public static void populateCVEChannels() {
-        // Empty the table first
-        deleteRelevantChannels();
+        populateCVEChannels(false, 1);
+    }
+
+    /**
+     * Populate channels for CVE Audit.
+     *
+     * The relevant channels of systems are computed by a number of threads, each one using its
+     * own Hibernate sessions, and then replaced in the current transaction: CVE audits keep
+     * using the previous channels until it is committed. Images are always computed again.
+     *
+     * @param incremental if true, only compute the systems whose channels, installed products
+     * or architecture changed since their channels were last computed. All systems are computed
+     * again when channels, products or migration paths changed.
+     * @param threads the number of threads, 1 to compute systems in the current session
+     * @return the number of systems whose relevant channels were computed
+     */
+    public static int populateCVEChannels(boolean incremental, int threads) {
+        if (!incremental) {
+            deleteRelevantChannels();
+            ModeFactory.getWriteMode("cve_audit_queries", "delete_server_channel_states")
+                    .executeUpdate(new HashMap<String, Long>());
+        }
 
         // Empty caches
         suseProductChannelCache.clear();
         sourceProductCache.clear();
         targetProductCache.clear();
 
-        // Get a list of *all* servers
-        List<Server> servers = ServerFactory.list(false, false);
+        Map<Long, String> inputsHashes = findChangedServerChannelInputs();
         if (log.isDebugEnabled()) {
-            log.debug("Number of servers found: " + servers.size());
+            log.debug("Number of servers to compute: " + inputsHashes.size());
         }
 
         CachingSUSEProductFactory productFactory = new CachingSUSEProductFactory();
 
-        Map<Server, List<RankedChannel>> relevantServerChannels = servers.stream()
-            .collect(Collectors.toMap(
-                Function.identity(),
-                server -> populateCVEChannels(new ServerAuditTarget(server, productFactory))
-            ));
+        Map<Long, List<RankedChannel>> relevantServerChannels = computeRelevantServerChannels(
+                new ArrayList<>(inputsHashes.keySet()), productFactory, threads);
 
-        insertRelevantServerChannels(relevantServerChannels);
+        replaceRelevantServerChannels(relevantServerChannels, inputsHashes);
 
         Map<ImageInfo, List<RankedChannel>> relevantImageChannels =
                 ImageInfoFactory.list().stream().collect(Collectors.toMap(
@@ -466,8 +493,139 @@ public class CVEAuditManager {
                     imageInfo -> populateCVEChannels(new ImageAuditTarget(imageInfo, productFactory))
                 ));
 
+        if (incremental) {
+            ModeFactory.getWriteMode("cve_audit_queries", "delete_relevant_image_channels")
+                    .executeUpdate(new HashMap<String, Long>());
+        }
         insertRelevantImageChannels(relevantImageChannels);
 
+        return relevantServerChannels.size();
+    }
+
+    /**
+     * Returns the systems whose relevant channels have to be computed, the ones without
+     * relevant channels and the ones whose inputs changed since they were computed.
+     *
+     * @return the hashes of the current inputs, by system id
+     */
+    private static Map<Long, String> findChangedServerChannelInputs() {
+        SelectMode m = ModeFactory.getMode("cve_audit_queries", "global_channel_inputs_hash");
+        DataResult<Map<String, Object>> global = m.execute(new HashMap<String, Object>());
+        Map<String, Object> params = new HashMap<>();
+        params.put("global_hash", global.get(0).get("inputs_hash"));
+
+        m = ModeFactory.getMode("cve_audit_queries", "changed_server_channel_inputs");
+        DataResult<Map<String, Object>> rows = m.execute(params);
+        Map<Long, String> result = new HashMap<>();
+        for (Map<String, Object> row : rows) {
+            result.put((Long) row.get("server_id"), (String) row.get("inputs_hash"));
+        }
+        return result;
+    }
+
+    /**
+     * Computes the relevant channels of systems, in batches run by a number of threads.
+     *
+     * @param serverIds the system ids
+     * @param productFactory the product factory, shared by the threads
+     * @param threads the number of threads, 1 to compute in the current session
+     * @return the relevant channels by system id, of the systems still existing
+     */
+    private static Map<Long, List<RankedChannel>> computeRelevantServerChannels(List<Long> serverIds,
+            CachingSUSEProductFactory productFactory, int threads) {
+        if (threads <= 1 || serverIds.size() <= SERVER_BATCH_SIZE) {
+            return computeRelevantServerChannels(serverIds, productFactory);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new BasicThreadFactory.Builder()
+                .namingPattern("cve-channels-%d").daemon(true).build());
+        try {
+            List<Future<Map<Long, List<RankedChannel>>>> batches = new ArrayList<>();
+            for (int i = 0; i < serverIds.size(); i += SERVER_BATCH_SIZE) {
+                List<Long> batch = serverIds.subList(i, Math.min(i + SERVER_BATCH_SIZE, serverIds.size()));
+                batches.add(executor.submit(() -> {
+                    try {
+                        return computeRelevantServerChannels(batch, productFactory);
+                    }
+                    finally {
+                        HibernateFactory.closeSession();
+                    }
+                }));
+            }
+
+            Map<Long, List<RankedChannel>> result = new HashMap<>();
+            for (Future<Map<Long, List<RankedChannel>>> batch : batches) {
+                result.putAll(batch.get());
+            }
+            return result;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while computing relevant channels", e);
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException("Unable to compute relevant channels", e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Map<Long, List<RankedChannel>> computeRelevantServerChannels(List<Long> serverIds,
+            CachingSUSEProductFactory productFactory) {
+        Map<Long, List<RankedChannel>> result = new HashMap<>();
+        for (int i = 0; i < serverIds.size(); i += SERVER_BATCH_SIZE) {
+            List<Server> servers = ServerFactory.lookupByIds(
+                    serverIds.subList(i, Math.min(i + SERVER_BATCH_SIZE, serverIds.size())));
+            for (Server server : servers) {
+                result.put(server.getId(),
+                        populateCVEChannels(new ServerAuditTarget(server, productFactory)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the relevant channels of systems in the suseCVEServerChannel table, stores
+     * the inputs they were computed from and queues the systems for a patch status refresh.
+     *
+     * @param rankedChannels the ranked channels by system id
+     * @param inputsHashes the hashes of the inputs by system id, including deleted systems
+     */
+    private static void replaceRelevantServerChannels(Map<Long, List<RankedChannel>> rankedChannels,
+            Map<Long, String> inputsHashes) {
+        List<Long> serverIds = new ArrayList<>(inputsHashes.keySet());
+        ModeFactory.getWriteMode("cve_audit_queries", "delete_relevant_server_channels_for_servers")
+                .executeUpdate(new HashMap<String, Long>(), serverIds);
+        ModeFactory.getWriteMode("cve_audit_queries", "delete_server_channel_states_for_servers")
+                .executeUpdate(new HashMap<String, Long>(), serverIds);
+
+        List<Map<String, Object>> channelParams = new ArrayList<>();
+        List<Map<String, Object>> stateParams = new ArrayList<>(rankedChannels.size());
+        for (Map.Entry<Long, List<RankedChannel>> entry : rankedChannels.entrySet()) {
+            for (RankedChannel chan : entry.getValue()) {
+                Map<String, Object> parameters = new HashMap<>(3);
+                parameters.put("sid", entry.getKey());
+                parameters.put("cid", chan.getChannelId());
+                parameters.put("rank", chan.getRank());
+                channelParams.add(parameters);
+            }
+            Map<String, Object> parameters = new HashMap<>(2);
+            parameters.put("sid", entry.getKey());
+            parameters.put("inputs_hash", inputsHashes.get(entry.getKey()));
+            stateParams.add(parameters);
+        }
+        if (!channelParams.isEmpty()) {
+            ModeFactory.getWriteMode("cve_audit_queries", "insert_relevant_server_channel")
+                    .executeUpdates(channelParams);
+        }
+        if (!stateParams.isEmpty()) {
+            ModeFactory.getWriteMode("cve_audit_queries", "insert_server_channel_state")
+                    .executeUpdates(stateParams);
+        }
+
+        // the stored patch status of these systems depends on their relevant channels
+        CVEPatchStatusStore.queueServers(rankedChannels.keySet());
     }
 
     /**
@@ -764,6 +922,71 @@ public class CVEAuditManager {
         }
     }
 
+    private static CVEPatchStatus toCVEPatchStatus(Map<String, Object> row, String idKey, String nameKey) {
+        return new CVEPatchStatus(
+                (long) row.get(idKey),
+                (String) row.get(nameKey),
+                Optional.ofNullable((Long)row.get("errata_id")),
+                (String) row.get("errata_advisory"),
+                Optional.ofNullable((Long)row.get("package_id")),
+                Optional.ofNullable((String)row.get("package_name")),
+                Optional.ofNullable((String)row.get("package_epoch")),
+                Optional.ofNullable((String)row.get("package_version")),
+                Optional.ofNullable((String)row.get("package_release")),
+                getBooleanValue(row, "package_installed"),
+                Optional.ofNullable((Long)row.get("channel_id")),
+                (String) row.get("channel_name"),
+                (String) row.get("channel_label"),
+                getBooleanValue(row, "channel_assigned"),
+                Optional.ofNullable((Long)row.get("channel_rank"))
+        );
+    }
+
+    /**
+     * Runs the query computing the patch status of systems regarding a number of CVEs.
+     *
+     * @param cveIds the CVE ids
+     * @param serverIds the ids of the systems to compute, or null for all of them
+     * @param user the user whose visible systems are computed, or null for all of them
+     * @return the rows of the systems affected by or patched for the CVEs, with a cve_id column
+     */
+    static DataResult<Map<String, Object>> computePatchStatus(List<Long> cveIds, List<Long> serverIds,
+            User user) {
+        SelectMode m = ModeFactory.getMode("cve_audit_queries", "compute_patch_status");
+        Map<String, Object> params = new HashMap<>();
+        params.put("server_ids", serverIds == null ? null :
+                serverIds.stream().map(String::valueOf).collect(Collectors.joining(",", "{", "}")));
+        params.put("user_id", user == null ? null : user.getId());
+        return m.execute(params, cveIds);
+    }
+
+    /**
+     * Computes the patch status of systems regarding a number of CVEs, out of the rows of
+     * {@link #computePatchStatus(List, List, User)}. Systems not affected by a CVE have no rows and are
+     * not returned.
+     *
+     * @param rows the query rows, with a cve_id column
+     * @return the affected and patched systems by CVE id
+     */
+    static Map<Long, List<CVEAuditSystemBuilder>> computePatchStatusByCve(List<Map<String, Object>> rows) {
+        Map<Long, List<CVEPatchStatus>> resultsByCve = rows.stream().collect(Collectors.groupingBy(
+                row -> (Long) row.get("cve_id"), LinkedHashMap::new,
+                Collectors.mapping(row -> toCVEPatchStatus(row, "system_id", "system_name"), Collectors.toList())));
+
+        Map<Long, List<CVEAuditSystemBuilder>> result = new LinkedHashMap<>();
+        EnumSet<PatchStatus> affectedOrPatched = EnumSet.complementOf(EnumSet.of(PatchStatus.NOT_AFFECTED));
+        for (Map.Entry<Long, List<CVEPatchStatus>> entry : resultsByCve.entrySet()) {
+            try {
+                result.put(entry.getKey(), listSystemsByPatchStatus(entry.getValue(), affectedOrPatched));
+            }
+            catch (UnknownCVEIdentifierException e) {
+                // not thrown when computing from query rows
+                throw new IllegalStateException(e);
+            }
+        }
+        return result;
+    }
+
     private static Stream<CVEPatchStatus> listImagesByPatchStatus(User user,
         String cveIdentifier) {
         SelectMode m = ModeFactory.getMode("cve_audit_queries",
@@ -775,55 +998,38 @@ public class CVEAuditManager {
         DataResult<Map<String, Object>> results = m.execute(params);
 
         return StreamSupport.stream(results.spliterator(), false)
-                .map(row -> new CVEPatchStatus(
-                        (long) row.get("image_info_id"),
-                        (String) row.get("image_name"),
-                        Optional.ofNullable((Long)row.get("errata_id")),
-                        (String) row.get("errata_advisory"),
-                        Optional.ofNullable((Long)row.get("package_id")),
-                        Optional.ofNullable((String)row.get("package_name")),
-                        Optional.ofNullable((String)row.get("package_epoch")),
-                        Optional.ofNullable((String)row.get("package_version")),
-                        Optional.ofNullable((String)row.get("package_release")),
-                        getBooleanValue(row, "package_installed"),
-                        Optional.ofNullable((Long)row.get("channel_id")),
-                        (String) row.get("channel_name"),
-                        (String) row.get("channel_label"),
-                        getBooleanValue(row, "channel_assigned"),
-                        Optional.ofNullable((Long)row.get("channel_rank"))
-                ));
+                .map(row -> toCVEPatchStatus(row, "image_info_id", "image_name"));
 
     }
 
     private static Stream<CVEPatchStatus> listSystemsByPatchStatus(User user,
         String cveIdentifier) {
-        SelectMode m = ModeFactory.getMode("cve_audit_queries",
-                "list_systems_by_patch_status");
-
+        SelectMode m = ModeFactory.getMode("cve_audit_queries", "find_cve_id");
         Map<String, Object> params = new HashMap<>();
         params.put("cve_identifier", cveIdentifier);
-        params.put("user_id", user.getId());
-        DataResult<Map<String, Object>> results = m.execute(params);
-
-        return StreamSupport.stream(results.spliterator(), false)
-                .map(row -> new CVEPatchStatus(
-                    (long) row.get("system_id"),
-                    (String) row.get("system_name"),
-                    Optional.ofNullable((Long)row.get("errata_id")),
-                    (String) row.get("errata_advisory"),
-                    Optional.ofNullable((Long)row.get("package_id")),
-                    Optional.ofNullable((String)row.get("package_name")),
-                    Optional.ofNullable((String)row.get("package_epoch")),
-                    Optional.ofNullable((String)row.get("package_version")),
-                    Optional.ofNullable((String)row.get("package_release")),
-                    getBooleanValue(row, "package_installed"),
-                    Optional.ofNullable((Long)row.get("channel_id")),
-                    (String) row.get("channel_name"),
-                    (String) row.get("channel_label"),
-                    getBooleanValue(row, "channel_assigned"),
-                    Optional.ofNullable((Long)row.get("channel_rank"))
-                ));
+        DataResult<Map<String, Object>> cves = m.execute(params);
+        List<Long> cveIds = cves.stream()
+                .map(row -> (Long) row.get("id"))
+                .collect(Collectors.toList());
+        if (cveIds.isEmpty()) {
+            return Stream.empty();
+        }
+        List<Map<String, Object>> results = new ArrayList<>(computePatchStatus(cveIds, null, user));
 
+        // the visible systems without rows are not affected
+        Set<Long> affectedOrPatched = results.stream()
+                .map(row -> (Long) row.get("system_id"))
+                .collect(Collectors.toSet());
+        params = new HashMap<>();
+        params.put("user_id", user.getId());
+        DataResult<Map<String, Object>> visible = ModeFactory.getMode("cve_audit_queries", "list_visible_servers")
+                .execute(params);
+        visible.stream()
+                .filter(row -> !affectedOrPatched.contains(row.get("system_id")))
+                .forEach(results::add);
+
+        return results.stream()
+                .map(row -> toCVEPatchStatus(row, "system_id", "system_name"));
     }
 
 
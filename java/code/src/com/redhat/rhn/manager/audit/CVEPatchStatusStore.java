@@ -0,0 +1,410 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.manager.audit;
+
+import com.redhat.rhn.common.db.datasource.DataResult;
+import com.redhat.rhn.common.db.datasource.ModeFactory;
+import com.redhat.rhn.common.db.datasource.SelectMode;
+import com.redhat.rhn.domain.user.User;
+import com.redhat.rhn.taskomatic.TaskomaticApi;
+import com.redhat.rhn.taskomatic.TaskomaticApiException;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Stores the patch status of systems regarding CVEs, so that auditing many CVEs does not
+ * compute the status of every system again for each one of them.
+ *
+ * The status of a CVE is stored together with a hash of its errata, of the channels containing
+ * them and of their packages. It is computed again for all systems when that hash changes, and
+ * for single systems when they are queued because their packages or their relevant channels
+ * changed. Systems not affected by a CVE are not stored.
+ *
+ * Audits only read: CVEs never stored or whose hash changed, and queued systems, are computed
+ * for the audit without being stored. The cve-patch-status-refresh taskomatic task refreshes the stored
+ * rows, and is scheduled right away when an audit finds CVEs to store.
+ */
+public class CVEPatchStatusStore {
+
+    private static Logger log = Logger.getLogger(CVEPatchStatusStore.class);
+    private static TaskomaticApi taskomaticApi = new TaskomaticApi();
+
+    private static final int BATCH_SIZE = 500;
+
+    private CVEPatchStatusStore() {
+    }
+
+    /**
+     * Set the {@link TaskomaticApi} instance to use. Only needed for unit tests.
+     * @param taskomaticApiIn the {@link TaskomaticApi}
+     */
+    public static void setTaskomaticApi(TaskomaticApi taskomaticApiIn) {
+        taskomaticApi = taskomaticApiIn;
+    }
+
+    /**
+     * Queues systems whose packages or relevant channels changed, so that their stored patch
+     * status is computed again.
+     *
+     * @param serverIds the system ids
+     */
+    public static void queueServers(Collection<Long> serverIds) {
+        List<Long> ids = new ArrayList<>(serverIds);
+        for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+            ModeFactory.getWriteMode("cve_audit_queries", "queue_patch_status_servers")
+                    .executeUpdate(new HashMap<String, Object>(),
+                            ids.subList(i, Math.min(i + BATCH_SIZE, ids.size())));
+        }
+    }
+
+    /**
+     * List visible systems with their patch status regarding a number of CVE identifiers.
+     *
+     * @param user the calling user
+     * @param cveIdentifiers the CVE identifiers to lookup
+     * @param patchStatuses the patch statuses
+     * @return the system records with patch status, by CVE identifier in the given order
+     * @throws UnknownCVEIdentifierException if any of the CVE numbers is not known
+     */
+    public static Map<String, List<CVEAuditServer>> listSystemsByPatchStatus(User user,
+            List<String> cveIdentifiers, EnumSet<PatchStatus> patchStatuses)
+            throws UnknownCVEIdentifierException {
+        Map<String, Long> cveIds = new LinkedHashMap<>();
+        for (String cveIdentifier : cveIdentifiers) {
+            cveIds.put(cveIdentifier, findCveId(cveIdentifier));
+        }
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(cveIds.values()));
+        if (ids.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+
+        Map<Long, Map<Long, CVEAuditSystemBuilder>> systemsByCve = new HashMap<>();
+        for (Long cveId : ids) {
+            systemsByCve.put(cveId, new LinkedHashMap<>());
+        }
+        Set<Long> changedCveIds = findChangedCves(ids).keySet();
+        List<Long> storedCveIds = ids.stream()
+                .filter(id -> !changedCveIds.contains(id))
+                .collect(Collectors.toList());
+        if (!storedCveIds.isEmpty()) {
+            readPatchStatus(user, storedCveIds, systemsByCve);
+            // queued systems changed since their status was stored
+            List<Long> queued = listQueuedServers();
+            if (!queued.isEmpty()) {
+                for (Long cveId : storedCveIds) {
+                    systemsByCve.get(cveId).keySet().removeAll(queued);
+                }
+                addPatchStatus(CVEAuditManager.computePatchStatus(storedCveIds, queued, user), systemsByCve);
+            }
+        }
+        if (!changedCveIds.isEmpty()) {
+            List<Long> changed = new ArrayList<>(changedCveIds);
+            addPatchStatus(CVEAuditManager.computePatchStatus(changed, null, user), systemsByCve);
+            scheduleRefresh(changed);
+        }
+        if (patchStatuses.contains(PatchStatus.NOT_AFFECTED)) {
+            addNotAffectedSystems(user, systemsByCve);
+        }
+
+        Map<String, List<CVEAuditServer>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> cve : cveIds.entrySet()) {
+            result.put(cve.getKey(), systemsByCve.get(cve.getValue()).values().stream()
+                    .filter(system -> patchStatuses.contains(system.getPatchStatus()))
+                    .map(system -> new CVEAuditServer(
+                            system.getId(),
+                            system.getSystemName(),
+                            system.getPatchStatus(),
+                            system.getChannels(),
+                            system.getErratas()
+                    )).collect(Collectors.toList()));
+        }
+        return result;
+    }
+
+    private static Long findCveId(String cveIdentifier) throws UnknownCVEIdentifierException {
+        SelectMode m = ModeFactory.getMode("cve_audit_queries", "find_cve_id");
+        Map<String, Object> params = new HashMap<>();
+        params.put("cve_identifier", cveIdentifier);
+        DataResult<Map<String, Object>> results = m.execute(params);
+        if (results.isEmpty()) {
+            throw new UnknownCVEIdentifierException();
+        }
+        return (Long) results.get(0).get("id");
+    }
+
+    private static List<Long> listQueuedServers() {
+        SelectMode m = ModeFactory.getMode("cve_audit_queries", "list_queued_patch_status_servers");
+        DataResult<Map<String, Object>> rows = m.execute(new HashMap<String, Object>());
+        return rows.stream()
+                .map(row -> (Long) row.get("server_id"))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Asks taskomatic to store CVEs computed by an audit. The next scheduled refresh stores them
+     * too, if taskomatic cannot be reached.
+     */
+    private static void scheduleRefresh(List<Long> cveIds) {
+        try {
+            taskomaticApi.scheduleCVEPatchStatusRefresh(cveIds);
+        }
+        catch (TaskomaticApiException e) {
+            log.warn("Could not schedule the refresh of the CVE patch status: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the ids of the CVEs whose patch status is stored
+     */
+    public static List<Long> listStoredCves() {
+        SelectMode m = ModeFactory.getMode("cve_audit_queries", "list_patch_status_cves");
+        DataResult<Map<String, Object>> rows = m.execute(new HashMap<String, Object>());
+        return rows.stream()
+                .map(row -> (Long) row.get("cve_id"))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Computes again the stored patch status of a batch of queued systems, in the current
+     * transaction. Systems dequeued by a concurrent refresh are skipped. Meant to run in short
+     * transactions, so that queuing systems is not blocked for long.
+     *
+     * @param batchSize the maximum number of systems to dequeue
+     * @return the number of dequeued systems
+     */
+    public static int refreshQueuedServers(int batchSize) {
+        SelectMode m = ModeFactory.getMode("cve_audit_queries", "dequeue_patch_status_servers");
+        Map<String, Object> params = new HashMap<>();
+        params.put("batch_size", batchSize);
+        DataResult<Map<String, Object>> queued = m.execute(params);
+        List<Long> serverIds = queued.stream()
+                .map(row -> (Long) row.get("server_id"))
+                .collect(Collectors.toList());
+        if (serverIds.isEmpty()) {
+            return 0;
+        }
+        // only lock when there is work, so that empty runs do not wait for a CVE refresh
+        lock();
+
+        long start = System.currentTimeMillis();
+        List<Long> storedCveIds = listStoredCves();
+        if (!storedCveIds.isEmpty()) {
+            replacePatchStatus("delete_patch_status_for_servers", serverIds,
+                    batch -> CVEAuditManager.computePatchStatus(storedCveIds, batch, null));
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Refreshed the patch status of " + serverIds.size() + " systems in " +
+                    (System.currentTimeMillis() - start) + " ms");
+        }
+        return serverIds.size();
+    }
+
+    /**
+     * Computes again the stored patch status of the given CVEs if their inputs changed or they
+     * were never stored, in the current transaction.
+     *
+     * @param cveIds the CVE ids
+     * @return the number of computed CVEs
+     */
+    public static int refreshCves(List<Long> cveIds) {
+        if (cveIds.isEmpty() || findChangedCves(cveIds).isEmpty()) {
+            return 0;
+        }
+        lock();
+        // another refresh may have stored them while waiting for the lock
+        Map<Long, String> changedCves = findChangedCves(cveIds);
+
+        long start = System.currentTimeMillis();
+        replacePatchStatus("delete_patch_status_for_cves", new ArrayList<>(changedCves.keySet()),
+                batch -> CVEAuditManager.computePatchStatus(batch, null, null));
+
+        List<Map<String, Object>> stateParams = new ArrayList<>(changedCves.size());
+        for (Map.Entry<Long, String> entry : changedCves.entrySet()) {
+            Map<String, Object> params = new HashMap<>(2);
+            params.put("cve_id", entry.getKey());
+            params.put("inputs_hash", entry.getValue());
+            stateParams.add(params);
+        }
+        if (!stateParams.isEmpty()) {
+            ModeFactory.getWriteMode("cve_audit_queries", "upsert_patch_status_state")
+                    .executeUpdates(stateParams);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Refreshed the patch status of " + changedCves.size() + " CVEs in " +
+                    (System.currentTimeMillis() - start) + " ms");
+        }
+        return changedCves.size();
+    }
+
+    /**
+     * Serializes the refreshes until the end of the transaction. Audits only read and are not
+     * blocked.
+     */
+    private static void lock() {
+        ModeFactory.getWriteMode("cve_audit_queries", "lock_patch_status")
+                .executeUpdate(new HashMap<String, Object>());
+    }
+
+    /**
+     * @param cveIds the CVE ids
+     * @return the hashes of the current inputs of the CVEs that changed, by CVE id
+     */
+    private static Map<Long, String> findChangedCves(List<Long> cveIds) {
+        SelectMode m = ModeFactory.getMode("cve_audit_queries", "changed_patch_status_cves");
+        DataResult<Map<String, Object>> rows = m.execute(new HashMap<String, Object>(), cveIds);
+        Map<Long, String> result = new HashMap<>();
+        for (Map<String, Object> row : rows) {
+            result.put((Long) row.get("cve_id"), (String) row.get("inputs_hash"));
+        }
+        return result;
+    }
+
+    /**
+     * Deletes and computes again the stored patch status rows matching some ids, in batches.
+     *
+     * @param deleteMode the query deleting the stored patch status
+     * @param ids the CVE or system ids
+     * @param compute computes the patch status rows of a batch of ids
+     */
+    private static void replacePatchStatus(String deleteMode, List<Long> ids,
+            Function<List<Long>, List<Map<String, Object>>> compute) {
+        for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+            List<Long> batch = ids.subList(i, Math.min(i + BATCH_SIZE, ids.size()));
+            ModeFactory.getWriteMode("cve_audit_queries", deleteMode)
+                    .executeUpdate(new HashMap<String, Object>(), batch);
+
+            List<Map<String, Object>> rows = compute.apply(batch);
+
+            List<Map<String, Object>> statusParams = new ArrayList<>();
+            List<Map<String, Object>> errataParams = new ArrayList<>();
+            List<Map<String, Object>> channelParams = new ArrayList<>();
+            for (Map.Entry<Long, List<CVEAuditSystemBuilder>> cve :
+                    CVEAuditManager.computePatchStatusByCve(rows).entrySet()) {
+                for (CVEAuditSystemBuilder system : cve.getValue()) {
+                    Map<String, Object> params = patchStatusParams(cve.getKey(), system.getId());
+                    params.put("patch_status", system.getPatchStatus().name());
+                    statusParams.add(params);
+                    for (ErrataIdAdvisoryPair errata : system.getErratas()) {
+                        params = patchStatusParams(cve.getKey(), system.getId());
+                        params.put("errata_id", errata.getId());
+                        errataParams.add(params);
+                    }
+                    for (ChannelIdNameLabelTriple channel : system.getChannels()) {
+                        params = patchStatusParams(cve.getKey(), system.getId());
+                        params.put("channel_id", channel.getId());
+                        channelParams.add(params);
+                    }
+                }
+            }
+            if (!statusParams.isEmpty()) {
+                ModeFactory.getWriteMode("cve_audit_queries", "insert_patch_status")
+                        .executeUpdates(statusParams);
+            }
+            if (!errataParams.isEmpty()) {
+                ModeFactory.getWriteMode("cve_audit_queries", "insert_patch_status_errata")
+                        .executeUpdates(errataParams);
+            }
+            if (!channelParams.isEmpty()) {
+                ModeFactory.getWriteMode("cve_audit_queries", "insert_patch_status_channel")
+                        .executeUpdates(channelParams);
+            }
+        }
+    }
+
+    private static Map<String, Object> patchStatusParams(Long cveId, Long serverId) {
+        Map<String, Object> params = new HashMap<>(3);
+        params.put("cve_id", cveId);
+        params.put("sid", serverId);
+        return params;
+    }
+
+    /**
+     * Reads the stored patch status of the systems visible to a user.
+     *
+     * @param user the user
+     * @param cveIds the CVE ids
+     * @param result the systems by system id, by CVE id, to add the systems to
+     */
+    private static void readPatchStatus(User user, List<Long> cveIds,
+            Map<Long, Map<Long, CVEAuditSystemBuilder>> result) {
+        SelectMode m = ModeFactory.getMode("cve_audit_queries", "list_patch_status_for_cves");
+        Map<String, Object> params = new HashMap<>();
+        params.put("user_id", user.getId());
+        DataResult<Map<String, Object>> rows = m.execute(params, cveIds);
+        for (Map<String, Object> row : rows) {
+            CVEAuditSystemBuilder system = result.get((Long) row.get("cve_id"))
+                    .computeIfAbsent((Long) row.get("system_id"), CVEAuditSystemBuilder::new);
+            // status and channel rows carry the system, errata rows only the errata
+            if (row.get("patch_status") != null) {
+                system.setSystemName((String) row.get("system_name"));
+                system.setPatchStatus(PatchStatus.valueOf((String) row.get("patch_status")));
+            }
+            if (row.get("channel_id") != null) {
+                system.addChannel(new ChannelIdNameLabelTriple((Long) row.get("channel_id"),
+                        (String) row.get("channel_name"), (String) row.get("channel_label")));
+            }
+            if (row.get("errata_id") != null) {
+                system.addErrata(new ErrataIdAdvisoryPair((Long) row.get("errata_id"),
+                        (String) row.get("errata_advisory")));
+            }
+        }
+    }
+
+    /**
+     * Adds systems with a patch status computed for the audit.
+     *
+     * @param rows the patch status rows
+     * @param systemsByCve the systems by system id, by CVE id, to add the systems to
+     */
+    private static void addPatchStatus(List<Map<String, Object>> rows,
+            Map<Long, Map<Long, CVEAuditSystemBuilder>> systemsByCve) {
+        for (Map.Entry<Long, List<CVEAuditSystemBuilder>> cve :
+                CVEAuditManager.computePatchStatusByCve(rows).entrySet()) {
+            for (CVEAuditSystemBuilder system : cve.getValue()) {
+                systemsByCve.get(cve.getKey()).put(system.getId(), system);
+            }
+        }
+    }
+
+    private static void addNotAffectedSystems(User user, Map<Long, Map<Long, CVEAuditSystemBuilder>> systemsByCve) {
+        SelectMode m = ModeFactory.getMode("cve_audit_queries", "list_visible_servers");
+        Map<String, Object> params = new HashMap<>();
+        params.put("user_id", user.getId());
+        DataResult<Map<String, Object>> rows = m.execute(params);
+        for (Map<Long, CVEAuditSystemBuilder> systems : systemsByCve.values()) {
+            for (Map<String, Object> row : rows) {
+                systems.computeIfAbsent((Long) row.get("system_id"), id -> {
+                    CVEAuditSystemBuilder system = new CVEAuditSystemBuilder(id);
+                    system.setSystemName((String) row.get("system_name"));
+                    system.setPatchStatus(PatchStatus.NOT_AFFECTED);
+                    return system;
+                });
+            }
+        }
+    }
+}
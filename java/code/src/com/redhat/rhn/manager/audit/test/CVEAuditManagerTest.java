@@ -39,6 +39,7 @@ import static com.redhat.rhn.testing.ImageTestUtils.createImagePackage;
 
 import java.util.*;
 
+import com.redhat.rhn.common.hibernate.HibernateFactory;
 import com.redhat.rhn.domain.channel.Channel;
 import com.redhat.rhn.domain.channel.ChannelFactory;
 import com.redhat.rhn.domain.channel.ChannelFamily;
@@ -56,6 +57,7 @@ import com.redhat.rhn.domain.user.User;
 import com.redhat.rhn.frontend.dto.SUSEProductDto;
 import com.redhat.rhn.frontend.dto.SystemOverview;
 import com.redhat.rhn.manager.audit.*;
+import com.redhat.rhn.taskomatic.TaskomaticApi;
 import com.redhat.rhn.testing.RhnBaseTestCase;
 import com.redhat.rhn.testing.TestUtils;
 import com.redhat.rhn.testing.UserTestUtils;
@@ -382,6 +384,39 @@ public class CVEAuditManagerTest extends RhnBaseTestCase {
         assertContains(relevantChannels, new ServerChannelIdPair(server.getId(), childChannelPrevSP.getId(), 100000));
     }
 
+    /**
+     * Test that only servers with changed channels are populated again:
+     * {@link CVEAuditManager#populateCVEChannels(boolean, int)}
+     * @throws Exception if anything goes wrong
+     */
+    public void testPopulateCVEServerChannelsIncremental() throws Exception {
+        User user = createTestUser();
+        Channel channel1 = createTestChannel(user);
+        Channel channel2 = createTestChannel(user);
+        Channel channel3 = createTestChannel(user);
+        Server server1 = createTestServer(user, Collections.singletonList(channel1));
+        Server server2 = createTestServer(user, Collections.singletonList(channel2));
+
+        CVEAuditManager.populateCVEChannels();
+        assertEquals(Collections.singletonList(new ServerChannelIdPair(server1.getId(), channel1.getId(), 0)),
+                getRelevantChannels(server1.getId()));
+
+        // Nothing changed
+        assertEquals(0, CVEAuditManager.populateCVEChannels(true, 1));
+
+        // Only the server with new channels is populated again
+        server1.addChannel(channel3);
+        TestUtils.saveAndFlush(server1);
+        assertEquals(1, CVEAuditManager.populateCVEChannels(true, 1));
+
+        List<ServerChannelIdPair> relevantChannels = getRelevantChannels(server1.getId());
+        assertEquals(2, relevantChannels.size());
+        assertContains(relevantChannels, new ServerChannelIdPair(server1.getId(), channel1.getId(), 0));
+        assertContains(relevantChannels, new ServerChannelIdPair(server1.getId(), channel3.getId(), 0));
+        assertEquals(Collections.singletonList(new ServerChannelIdPair(server2.getId(), channel2.getId(), 0)),
+                getRelevantChannels(server2.getId()));
+    }
+
     /**
      * {@link CVEAuditManager#findProductChannels(List, Long)}.
      * @throws Exception if anything goes wrong
@@ -547,6 +582,108 @@ public class CVEAuditManagerTest extends RhnBaseTestCase {
         assertSystemNotFound(server, results);
     }
 
+    /**
+     * Runs CVEPatchStatusStore.listSystemsByPatchStatus on two CVEs, and checks that audits
+     * compute unstored CVEs and queued servers while the refresh stores them.
+     * @throws Exception if anything goes wrong
+     */
+    public void testStoredPatchStatus() throws Exception {
+        String cveName = TestUtils.randomString().substring(0, 13);
+        Cve cve = createTestCve(cveName);
+        Set<Cve> cves = new HashSet<Cve>();
+        cves.add(cve);
+        String otherCveName = TestUtils.randomString().substring(0, 13);
+        Cve otherCve = createTestCve(otherCveName);
+        Set<Cve> otherCves = new HashSet<Cve>();
+        otherCves.add(otherCve);
+
+        // A server affected by the first CVE only
+        User user = createTestUser();
+        Errata errata = createTestErrata(user, cves);
+        Errata otherErrata = createTestErrata(user, otherCves);
+        Channel channel = createTestChannel(user, errata);
+        Set<Channel> channels = new HashSet<Channel>();
+        channels.add(channel);
+        Package unpatched = createTestPackage(user, channel, "noarch");
+        Package patched = createLaterTestPackage(user, errata, channel, unpatched);
+        createTestPackage(user, otherErrata, channel, "noarch");
+        Server server = createTestServer(user, channels);
+        createTestInstalledPackage(unpatched, server);
+        CVEAuditManager.populateCVEChannels();
+
+        List<List<Long>> refreshes = new ArrayList<List<Long>>();
+        CVEPatchStatusStore.setTaskomaticApi(new TaskomaticApi() {
+            @Override
+            public void scheduleCVEPatchStatusRefresh(List<Long> cveIds) {
+                refreshes.add(cveIds);
+            }
+        });
+        List<Long> cveIds = Arrays.asList(cve.getId(), otherCve.getId());
+
+        // Never stored: computed for the audit, the refresh is left to taskomatic
+        EnumSet<PatchStatus> filter = EnumSet.allOf(PatchStatus.class);
+        Map<String, List<CVEAuditServer>> results =
+                CVEPatchStatusStore.listSystemsByPatchStatus(user, Arrays.asList(cveName, otherCveName), filter);
+        assertEquals(Arrays.asList(cveName, otherCveName), new ArrayList<String>(results.keySet()));
+        assertSystemPatchStatus(server, PatchStatus.AFFECTED_PATCH_APPLICABLE, results.get(cveName));
+        assertSystemPatchStatus(server, PatchStatus.NOT_AFFECTED, results.get(otherCveName));
+        assertEquals(1, refreshes.size());
+        assertEquals(new HashSet<Long>(cveIds), new HashSet<Long>(refreshes.get(0)));
+        assertFalse(CVEPatchStatusStore.listStoredCves().contains(cve.getId()));
+
+        assertEquals(2, CVEPatchStatusStore.refreshCves(cveIds));
+        assertEquals(0, CVEPatchStatusStore.refreshCves(cveIds));
+        assertTrue(CVEPatchStatusStore.listStoredCves().containsAll(cveIds));
+
+        results = CVEPatchStatusStore.listSystemsByPatchStatus(user, Arrays.asList(cveName, otherCveName), filter);
+        assertEquals(1, refreshes.size());
+        assertSystemPatchStatus(server, PatchStatus.AFFECTED_PATCH_APPLICABLE, results.get(cveName));
+        assertSystemPatchStatus(server, PatchStatus.NOT_AFFECTED, results.get(otherCveName));
+        CVEAuditServer system = results.get(cveName).stream()
+                .filter(s -> s.getId() == server.getId()).findFirst().get();
+        assertEquals(1, system.getErratas().size());
+        assertEquals(errata.getId().longValue(), system.getErratas().iterator().next().getId());
+        assertEquals(1, system.getChannels().size());
+        assertEquals(channel.getId().longValue(), system.getChannels().iterator().next().getId());
+
+        // Filtering
+        results = CVEPatchStatusStore.listSystemsByPatchStatus(user, Arrays.asList(cveName, otherCveName),
+                EnumSet.of(PatchStatus.PATCHED));
+        assertSystemNotFound(server, results.get(cveName));
+        assertSystemNotFound(server, results.get(otherCveName));
+
+        // Install the patch: the stored status is used until the server is queued
+        createTestInstalledPackage(patched, server);
+        HibernateFactory.getSession().flush();
+        results = CVEPatchStatusStore.listSystemsByPatchStatus(user, Arrays.asList(cveName), filter);
+        assertSystemPatchStatus(server, PatchStatus.AFFECTED_PATCH_APPLICABLE, results.get(cveName));
+
+        // Queued: computed for the audit until taskomatic refreshes it
+        CVEPatchStatusStore.queueServers(Arrays.asList(server.getId()));
+        results = CVEPatchStatusStore.listSystemsByPatchStatus(user, Arrays.asList(cveName), filter);
+        assertSystemPatchStatus(server, PatchStatus.PATCHED, results.get(cveName));
+        assertEquals(1, refreshes.size());
+
+        assertTrue(CVEPatchStatusStore.refreshQueuedServers(500) >= 1);
+        assertEquals(0, CVEPatchStatusStore.refreshQueuedServers(500));
+        results = CVEPatchStatusStore.listSystemsByPatchStatus(user, Arrays.asList(cveName), filter);
+        assertSystemPatchStatus(server, PatchStatus.PATCHED, results.get(cveName));
+        assertEquals(PatchStatus.PATCHED, CVEAuditManager.listSystemsByPatchStatus(user, cveName, filter).stream()
+                .filter(s -> s.getId() == server.getId()).findFirst().get().getPatchStatus());
+
+        try {
+            CVEPatchStatusStore.listSystemsByPatchStatus(user,
+                    Arrays.asList(cveName, TestUtils.randomString().substring(0, 13)), filter);
+            fail("Unknown CVE identifier should raise an exception");
+        }
+        catch (UnknownCVEIdentifierException e) {
+            // expected
+        }
+        finally {
+            CVEPatchStatusStore.setTaskomaticApi(new TaskomaticApi());
+        }
+    }
+
     /**
      * Runs listSystemsByPatchStatus on a server with patch status
      * AFFECTED_PATCH_INAPPLICABLE and tests result filtering.
@@ -64,6 +64,7 @@ import com.redhat.rhn.frontend.xmlrpc.InvalidParameterException;
 import com.redhat.rhn.manager.BaseManager;
 import com.redhat.rhn.manager.action.ActionManager;
 import com.redhat.rhn.manager.action.MinionActionManager;
+import com.redhat.rhn.manager.audit.CVEPatchStatusStore;
 import com.redhat.rhn.manager.channel.ChannelManager;
 import com.redhat.rhn.manager.errata.cache.ErrataCacheManager;
 import com.redhat.rhn.manager.rhnset.RhnSetDecl;
@@ -2234,6 +2235,34 @@ public class ErrataManager extends BaseManager {
         mode.executeUpdate(params);
     }
 
+    /**
+     * Updates the errata cache of a server after some of its installed packages changed.
+     * The entries of the changed package names are updated right away, unless more names
+     * changed than <code>java.errata_cache_delta_max_packages</code>: a full errata cache
+     * update is queued then. The server is queued for a CVE patch status refresh too.
+     *
+     * @param server the server
+     * @param nameIds the ids of the names of the installed, removed or upgraded packages
+     */
+    public static void updateErrataCacheForPackageChanges(Server server, Collection<Long> nameIds) {
+        if (nameIds.isEmpty()) {
+            return;
+        }
+        if (nameIds.size() > ConfigDefaults.get().getErrataCacheDeltaMaxPackages()) {
+            insertErrataCacheTask(server);
+            return;
+        }
+        // the statements below read the installed packages from the database
+        HibernateFactory.getSession().flush();
+        int changed = ErrataCacheManager.updateNeededCacheForServerPackageNames(server.getId(),
+                new ArrayList<Long>(nameIds));
+        if (log.isDebugEnabled()) {
+            log.debug("Updated " + changed + " errata cache entries of server " + server.getId() +
+                    " for " + nameIds.size() + " changed package names");
+        }
+        CVEPatchStatusStore.queueServers(Collections.singletonList(server.getId()));
+    }
+
     /**
      * Insert an errata cache task for a given image, will be picked up by taskomatic on
      * the next run (runs every minute per default).
@@ -17,6 +17,7 @@ package com.redhat.rhn.manager.errata.cache;
 import com.redhat.rhn.common.db.datasource.CallableMode;
 import com.redhat.rhn.common.db.datasource.DataResult;
 import com.redhat.rhn.common.db.datasource.ModeFactory;
+import com.redhat.rhn.common.db.datasource.SelectMode;
 import com.redhat.rhn.common.db.datasource.WriteMode;
 import com.redhat.rhn.common.hibernate.HibernateFactory;
 import com.redhat.rhn.common.messaging.MessageQueue;
@@ -28,6 +29,7 @@ import com.redhat.rhn.frontend.events.UpdateErrataCacheEvent;
 
 import org.apache.log4j.Logger;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -40,6 +42,9 @@ import java.util.Set;
  */
 public class ErrataCacheManager extends HibernateFactory {
 
+    /** Number of servers whose needed cache is updated at once when updating a whole channel */
+    public static final int CHANNEL_SERVERS_CHUNK_SIZE = 500;
+
     private static ErrataCacheManager singleton = new ErrataCacheManager();
     private static Logger log = Logger.getLogger(ErrataCacheManager.class);
 
@@ -377,16 +382,125 @@ public class ErrataCacheManager extends HibernateFactory {
      * tables by channel. Useful if the set of errata or packages gets changed
      * with a Channel
      *
+     * The servers subscribed to the channel are processed in chunks of
+     * {@link #CHANNEL_SERVERS_CHUNK_SIZE}, see {@link #updateErrataAndPackageCacheForChannelServers}.
+     * All the chunks are part of the current transaction: callers which can commit should process
+     * the chunks themselves and commit after each one, like {@link UpdateErrataCacheCommand} does.
+     * Images using the channel are queued for update.
+     *
      * @param cid - channel to update caches for.
+     * @return the number of servers whose cache was updated
      */
-    public static void updateErrataAndPackageCacheForChannel(Long cid) {
-        // Clear em out
+    public static int updateErrataAndPackageCacheForChannel(Long cid) {
+        List<Long> sids = listChannelServers(cid);
+        int servers = 0;
+        for (int i = 0; i < sids.size(); i += CHANNEL_SERVERS_CHUNK_SIZE) {
+            servers += updateErrataAndPackageCacheForChannelServers(cid,
+                    sids.subList(i, Math.min(i + CHANNEL_SERVERS_CHUNK_SIZE, sids.size())));
+        }
+        queueChannelImages(cid);
+        return servers;
+    }
+
+    /**
+     * Lists the servers subscribed to a channel.
+     * @param cid the channel id
+     * @return the server ids, in ascending order
+     */
+    public static List<Long> listChannelServers(Long cid) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("channel_id", cid);
+        DataResult<Map<String, Object>> servers = executeSelectMode("ErrataCache_queries",
+                "channel_servers", params);
+        List<Long> sids = new ArrayList<Long>(servers.size());
+        for (Map<String, Object> server : servers) {
+            sids.add(((Number) server.get("id")).longValue());
+        }
+        return sids;
+    }
 
-        CallableMode m = ModeFactory.getCallableMode("ErrataCache_queries",
-                "update_needed_cache_for_channel");
+    /**
+     * Re-generates the entries in rhnServerNeededCache of some servers subscribed to a channel.
+     * The needed cache of the servers is computed in one pass, and only the entries which changed
+     * are deleted or inserted. The servers are locked until the end of the transaction, so the
+     * chunks should be small enough not to hold back their check-ins for long.
+     *
+     * @param cid the channel id
+     * @param sids the ids of a chunk of servers subscribed to the channel, in ascending order
+     * @return the number of servers whose cache was updated
+     */
+    public static int updateErrataAndPackageCacheForChannelServers(Long cid, List<Long> sids) {
+        if (sids.isEmpty()) {
+            return 0;
+        }
         Map<String, Object> params = new HashMap<String, Object>();
         params.put("channel_id", cid);
-        m.execute(params, new HashMap<String, Integer>());
+
+        // lock the servers in a consistent order, like rhn_server.update_needed_cache does
+        SelectMode lock = ModeFactory.getMode("ErrataCache_queries", "lock_channel_servers");
+        DataResult servers = lock.execute(params, sids);
+
+        WriteMode delete = ModeFactory.getWriteMode("ErrataCache_queries",
+                "delete_stale_needed_cache_for_channel_servers");
+        int deleted = delete.executeUpdate(params, sids);
+        WriteMode insert = ModeFactory.getWriteMode("ErrataCache_queries",
+                "insert_missing_needed_cache_for_channel_servers");
+        int inserted = insert.executeUpdate(params, sids);
+        if (log.isDebugEnabled()) {
+            log.debug("updateErrataAndPackageCacheForChannelServers : cache entries deleted: " +
+                    deleted + " inserted: " + inserted);
+        }
+        return servers.size();
+    }
+
+    /**
+     * Queues the update of the needed cache of the images using a channel.
+     * @param cid the channel id
+     */
+    public static void queueChannelImages(Long cid) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("channel_id", cid);
+        DataResult images = executeSelectMode("ErrataCache_queries",
+                "images_for_channel", params);
+        CallableMode queueImage = ModeFactory.getCallableMode("ErrataCache_queries",
+                "queue_image");
+        for (Object image : images) {
+            Map<String, Object> imageParams = new HashMap<String, Object>();
+            imageParams.put("image_id", ((Map) image).get("id"));
+            queueImage.execute(imageParams, new HashMap<String, Integer>());
+        }
+    }
+
+    /**
+     * Updates the entries in rhnServerNeededCache of a server for some package names only,
+     * for instance after packages with these names were installed, removed or upgraded.
+     * Only the entries which changed are deleted or inserted.
+     *
+     * @param sid the server id
+     * @param nameIds the ids of the package names which changed
+     * @return the number of entries deleted or inserted
+     */
+    public static int updateNeededCacheForServerPackageNames(Long sid, List<Long> nameIds) {
+        if (nameIds.isEmpty()) {
+            return 0;
+        }
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("server_id", sid);
+
+        // lock the server like rhn_server.update_needed_cache does
+        executeSelectMode("ErrataCache_queries", "lock_server", params);
+
+        WriteMode delete = ModeFactory.getWriteMode("ErrataCache_queries",
+                "delete_stale_needed_cache_for_server_package_names");
+        int deleted = delete.executeUpdate(params, nameIds);
+        WriteMode insert = ModeFactory.getWriteMode("ErrataCache_queries",
+                "insert_missing_needed_cache_for_server_package_names");
+        int inserted = insert.executeUpdate(params, nameIds);
+        if (log.isDebugEnabled()) {
+            log.debug("updateNeededCacheForServerPackageNames : cache entries deleted: " +
+                    deleted + " inserted: " + inserted);
+        }
+        return deleted + inserted;
     }
 
     /**
@@ -24,8 +24,10 @@ import com.redhat.rhn.domain.errata.ErrataFactory;
 import com.redhat.rhn.domain.org.Org;
 import com.redhat.rhn.domain.org.OrgFactory;
 import com.redhat.rhn.manager.BaseTransactionCommand;
+import com.redhat.rhn.manager.audit.CVEPatchStatusStore;
 import org.apache.log4j.Logger;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -182,7 +184,20 @@ public class UpdateErrataCacheCommand extends BaseTransactionCommand {
     public void updateErrataCacheForChannel(Long cid) {
         log.info("Updating errata cache for servers in channel [" + cid + "]");
         try {
-            ErrataCacheManager.updateErrataAndPackageCacheForChannel(cid);
+            long start = System.currentTimeMillis();
+            List<Long> sids = ErrataCacheManager.listChannelServers(cid);
+            int chunkSize = ErrataCacheManager.CHANNEL_SERVERS_CHUNK_SIZE;
+            int servers = 0;
+            for (int i = 0; i < sids.size(); i += chunkSize) {
+                servers += ErrataCacheManager.updateErrataAndPackageCacheForChannelServers(cid,
+                        sids.subList(i, Math.min(i + chunkSize, sids.size())));
+                // commit each chunk, so that the servers are not locked until the whole channel is done
+                handleTransaction();
+            }
+            ErrataCacheManager.queueChannelImages(cid);
+            long duration = Math.max(1, System.currentTimeMillis() - start);
+            log.info("Updated errata cache of " + servers + " servers in channel [" + cid +
+                    "] in " + duration + " ms (" + (servers * 1000L / duration) + " servers/s)");
         }
         catch (Exception e) {
             log.error("Problem updating cache for servers in channel", e);
@@ -201,6 +216,7 @@ public class UpdateErrataCacheCommand extends BaseTransactionCommand {
         inParams.put("server_id", serverId);
 
         m.execute(inParams, new HashMap());
+        CVEPatchStatusStore.queueServers(Collections.singletonList(serverId));
     }
 
     private void processImage(Long imageId) {
@@ -18,6 +18,9 @@ import com.redhat.rhn.common.db.datasource.DataResult;
 import com.redhat.rhn.common.db.datasource.ModeFactory;
 import com.redhat.rhn.common.db.datasource.WriteMode;
 import com.redhat.rhn.common.hibernate.HibernateFactory;
+import com.redhat.rhn.domain.channel.Channel;
+import com.redhat.rhn.domain.channel.ChannelFactory;
+import com.redhat.rhn.domain.channel.test.ChannelFactoryTest;
 import com.redhat.rhn.domain.errata.Errata;
 import com.redhat.rhn.domain.errata.test.ErrataFactoryTest;
 import com.redhat.rhn.domain.org.Org;
@@ -35,14 +38,17 @@ import com.redhat.rhn.domain.user.User;
 import com.redhat.rhn.domain.user.UserFactory;
 import com.redhat.rhn.frontend.dto.ErrataCacheDto;
 import com.redhat.rhn.manager.errata.cache.ErrataCacheManager;
+import com.redhat.rhn.manager.system.SystemManager;
 import com.redhat.rhn.testing.RhnBaseTestCase;
 import com.redhat.rhn.testing.TestUtils;
 import com.redhat.rhn.testing.UserTestUtils;
 
 import java.sql.ResultSet;
 import java.sql.Statement;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -338,4 +344,105 @@ public class ErrataCacheManagerTest extends RhnBaseTestCase {
         assertFalse(dr.isEmpty());
         assertTrue(dr.size() >= 1);
     }
+
+    public void testUpdateErrataAndPackageCacheForChannel() throws Exception {
+        Long oid = UserTestUtils.createOrg("testOrg" + this.getClass().getSimpleName());
+        Org org = OrgFactory.lookupById(oid);
+        User user = UserTestUtils.createUser("testUser", oid);
+        user.addPermanentRole(RoleFactory.ORG_ADMIN);
+        Channel channel = ChannelFactoryTest.createTestChannel(user);
+        Server server = ServerFactoryTest.createTestServer(user);
+        SystemManager.subscribeServerToChannel(user, server, channel);
+
+        // installed package, with a newer version in the channel
+        Package installed = PackageTest.createTestPackage(org);
+        Package newer = createNewerPackage(org, installed);
+        channel.addPackage(newer);
+        ChannelFactory.save(channel);
+        createInstalledPackage(server, installed);
+
+        // stale entry for a package the server does not need
+        Package stale = PackageTest.createTestPackage(org);
+        Errata errata = ErrataFactoryTest.createTestErrata(oid);
+        ErrataCacheManager.insertNeededErrataCache(server.getId(), errata.getId(), stale.getId());
+        HibernateFactory.getSession().flush();
+
+        assertEquals(1, ErrataCacheManager.updateErrataAndPackageCacheForChannel(channel.getId()));
+        DataResult<ErrataCacheDto> needed = ErrataCacheManager.packagesNeedingUpdates(server.getId());
+        assertEquals(1, needed.size());
+        assertEquals(newer.getId(), needed.get(0).getPackageId());
+        assertNull(needed.get(0).getErrataId());
+
+        // only changes are applied, running it again keeps the same entries
+        assertEquals(1, ErrataCacheManager.updateErrataAndPackageCacheForChannel(channel.getId()));
+        needed = ErrataCacheManager.packagesNeedingUpdates(server.getId());
+        assertEquals(1, needed.size());
+        assertEquals(newer.getId(), needed.get(0).getPackageId());
+
+        // servers outside of the chunk are left untouched
+        ErrataCacheManager.insertNeededErrataCache(server.getId(), errata.getId(), stale.getId());
+        assertEquals(List.of(server.getId()), ErrataCacheManager.listChannelServers(channel.getId()));
+        assertEquals(0, ErrataCacheManager.updateErrataAndPackageCacheForChannelServers(channel.getId(),
+                List.of(server.getId() + 1)));
+        assertEquals(2, ErrataCacheManager.packagesNeedingUpdates(server.getId()).size());
+        assertEquals(1, ErrataCacheManager.updateErrataAndPackageCacheForChannelServers(channel.getId(),
+                List.of(server.getId())));
+        assertEquals(1, ErrataCacheManager.packagesNeedingUpdates(server.getId()).size());
+    }
+
+    public void testUpdateNeededCacheForServerPackageNames() throws Exception {
+        Long oid = UserTestUtils.createOrg("testOrg" + this.getClass().getSimpleName());
+        Org org = OrgFactory.lookupById(oid);
+        User user = UserTestUtils.createUser("testUser", oid);
+        user.addPermanentRole(RoleFactory.ORG_ADMIN);
+        Channel channel = ChannelFactoryTest.createTestChannel(user);
+        Server server = ServerFactoryTest.createTestServer(user);
+        SystemManager.subscribeServerToChannel(user, server, channel);
+
+        // two installed packages, with newer versions in the channel
+        Package first = PackageTest.createTestPackage(org);
+        Package firstUpdate = createNewerPackage(org, first);
+        Package second = PackageTest.createTestPackage(org);
+        Package secondUpdate = createNewerPackage(org, second);
+        channel.addPackage(firstUpdate);
+        channel.addPackage(secondUpdate);
+        ChannelFactory.save(channel);
+        InstalledPackage installedFirst = createInstalledPackage(server, first);
+        createInstalledPackage(server, second);
+        HibernateFactory.getSession().flush();
+
+        // only the given package names are updated
+        List<Long> nameIds = Collections.singletonList(first.getPackageName().getId());
+        assertEquals(1, ErrataCacheManager.updateNeededCacheForServerPackageNames(server.getId(), nameIds));
+        DataResult<ErrataCacheDto> needed = ErrataCacheManager.packagesNeedingUpdates(server.getId());
+        assertEquals(1, needed.size());
+        assertEquals(firstUpdate.getId(), needed.get(0).getPackageId());
+        assertEquals(0, ErrataCacheManager.updateNeededCacheForServerPackageNames(server.getId(), nameIds));
+
+        // the update got installed
+        HibernateFactory.getSession().delete(installedFirst);
+        createInstalledPackage(server, firstUpdate);
+        HibernateFactory.getSession().flush();
+        assertEquals(1, ErrataCacheManager.updateNeededCacheForServerPackageNames(server.getId(), nameIds));
+        assertTrue(ErrataCacheManager.packagesNeedingUpdates(server.getId()).isEmpty());
+    }
+
+    private static Package createNewerPackage(Org org, Package pkg) throws Exception {
+        PackageEvr evr = PackageEvrFactory.lookupOrCreatePackageEvr(
+                pkg.getPackageEvr().getEpoch(), pkg.getPackageEvr().getVersion(), "2");
+        Package newer = PackageTest.createTestPackage(org);
+        newer.setPackageName(pkg.getPackageName());
+        newer.setPackageEvr(evr);
+        return (Package) TestUtils.saveAndReload(newer);
+    }
+
+    private static InstalledPackage createInstalledPackage(Server server, Package pkg) {
+        InstalledPackage ip = new InstalledPackage();
+        ip.setServer(server);
+        ip.setArch(pkg.getPackageArch());
+        ip.setEvr(pkg.getPackageEvr());
+        ip.setName(pkg.getPackageName());
+        HibernateFactory.getSession().save(ip);
+        return ip;
+    }
 }
@@ -24,11 +24,13 @@ import com.redhat.rhn.frontend.dto.PackageDto;
 import com.redhat.rhn.taskomatic.task.TaskConstants;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  *
@@ -55,6 +57,44 @@ public class TaskManager {
         return m.execute(params);
     }
 
+    /**
+     * Stream the elaborated packages of a channel, fetching and elaborating them in batches.
+     * The stream must be closed.
+     * @param channel channel info
+     * @return the stream of packages
+     */
+    public static Stream<PackageDto> getChannelPackageDtoStream(Channel channel) {
+        SelectMode m = ModeFactory.getMode(TaskConstants.MODE_NAME,
+                TaskConstants.TASK_QUERY_REPOMD_GENERATOR_CHANNEL_PACKAGES);
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("channel_id", channel.getId());
+        return m.stream(params, Collections.emptyMap());
+    }
+
+    /**
+     * Stream the packages of a channel with only the attributes needed to reuse their stored repodata
+     * fragments. Fragments older than their package are not returned. The stream must be closed.
+     * @param channel channel info
+     * @return the stream of packages
+     */
+    public static Stream<PackageDto> getChannelPackageFragmentStream(Channel channel) {
+        SelectMode m = ModeFactory.getMode(TaskConstants.MODE_NAME,
+                TaskConstants.TASK_QUERY_REPOMD_GENERATOR_CHANNEL_PACKAGE_FRAGMENTS);
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("channel_id", channel.getId());
+        return m.stream(params, Collections.emptyMap());
+    }
+
+    /**
+     * Load all the attributes needed to generate the repodata of the given packages.
+     * @param packages the packages to elaborate, with their id set
+     */
+    public static void elaborateChannelPackageDtos(List<PackageDto> packages) {
+        SelectMode m = ModeFactory.getMode(TaskConstants.MODE_NAME,
+                TaskConstants.TASK_QUERY_REPOMD_GENERATOR_CHANNEL_PACKAGES);
+        m.elaborate(packages, Collections.emptyMap());
+    }
+
     /**
      *  Get the channel package list for a channel
      * @param channel channel info
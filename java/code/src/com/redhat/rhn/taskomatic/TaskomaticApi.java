@@ -66,6 +66,7 @@ public class TaskomaticApi {
             MINION_ACTION_JOB_PREFIX + "download-";
     public static final String MINION_ACTIONCHAIN_BUNCH_LABEL = "minion-action-chain-executor-bunch";
     public static final String MINION_ACTIONCHAIN_JOB_PREFIX = "minion-action-chain-executor-";
+    public static final String CVE_PATCH_STATUS_BUNCH_LABEL = "cve-patch-status-bunch";
     private static final Logger LOG = Logger.getLogger(TaskomaticApi.class);
 
 
@@ -704,6 +705,18 @@ public class TaskomaticApi {
         }
     }
 
+    /**
+     * Schedule a refresh of the stored CVE patch status.
+     *
+     * @param cveIds ids of CVEs to store even if they were never stored before
+     * @throws TaskomaticApiException if there was an error
+     */
+    public void scheduleCVEPatchStatusRefresh(List<Long> cveIds) throws TaskomaticApiException {
+        Map<String, String> params = new HashMap<>();
+        params.put("cve_ids", cveIds.stream().map(String::valueOf).collect(Collectors.joining(",")));
+        invoke("tasko.scheduleSingleSatBunchRun", CVE_PATCH_STATUS_BUNCH_LABEL, params);
+    }
+
     /**
      * Check if the Taskomatic java process has JMX enabled.
      * @return true is JMX enabled
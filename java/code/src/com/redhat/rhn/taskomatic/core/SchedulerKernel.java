@@ -116,6 +116,9 @@ public class SchedulerKernel {
 
             PrometheusExporter.INSTANCE.startHttpServer();
             PrometheusExporter.INSTANCE.registerScheduler(SchedulerKernel.scheduler, "taskomatic");
+            PrometheusExporter.INSTANCE.registerQueryMetrics();
+            PrometheusExporter.INSTANCE.registerRepodataMetrics();
+            PrometheusExporter.INSTANCE.registerTaskQueueMetrics();
         }
         catch (SchedulerException e) {
             e.printStackTrace();
@@ -143,6 +146,7 @@ public class SchedulerKernel {
         }
         MessageQueue.startMessaging();
         MessageQueue.configureDefaultActions(SYSTEM_QUERY);
+        MessageQueue.startJournal("taskomatic");
         try {
             SchedulerKernel.scheduler.start();
             initializeAllSatSchedules();
@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.taskomatic.task;
+
+import com.redhat.rhn.common.hibernate.HibernateFactory;
+import com.redhat.rhn.manager.audit.CVEPatchStatusStore;
+
+import org.apache.commons.lang3.StringUtils;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Refreshes the stored CVE patch status.
+ *
+ * Queued systems are computed again in short committed transactions, so that queuing systems
+ * is not blocked for long. Stored CVEs whose errata, channels or packages changed, and the CVEs
+ * passed in the cve_ids parameter by audits, are computed again for all systems.
+ */
+public class CVEPatchStatusRefresh extends RhnJavaJob {
+
+    private static final int SERVER_BATCH_SIZE = 500;
+    private static final int CVE_BATCH_SIZE = 20;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute(JobExecutionContext context) throws JobExecutionException {
+        int servers = 0;
+        int dequeued;
+        do {
+            dequeued = CVEPatchStatusStore.refreshQueuedServers(SERVER_BATCH_SIZE);
+            HibernateFactory.commitTransaction();
+            servers += dequeued;
+        } while (dequeued == SERVER_BATCH_SIZE);
+
+        Set<Long> cveIds = new LinkedHashSet<>(CVEPatchStatusStore.listStoredCves());
+        String requested = (String) context.getJobDetail().getJobDataMap().get("cve_ids");
+        if (StringUtils.isNotBlank(requested)) {
+            for (String cveId : requested.split(",")) {
+                cveIds.add(Long.valueOf(cveId.trim()));
+            }
+        }
+        List<Long> ids = new ArrayList<>(cveIds);
+        int cves = 0;
+        for (int i = 0; i < ids.size(); i += CVE_BATCH_SIZE) {
+            cves += CVEPatchStatusStore.refreshCves(ids.subList(i, Math.min(i + CVE_BATCH_SIZE, ids.size())));
+            HibernateFactory.commitTransaction();
+        }
+        log.info("Refreshed the CVE patch status of " + servers + " queued systems and " + cves + " CVEs");
+    }
+}
@@ -18,6 +18,7 @@ import java.util.Date;
 
 import org.quartz.JobExecutionContext;
 
+import com.redhat.rhn.common.conf.ConfigDefaults;
 import com.redhat.rhn.manager.audit.CVEAuditManager;
 
 /**
@@ -40,10 +41,12 @@ public class CVEServerChannels extends RhnJavaJob {
 
         // Measure time and calculate the total duration
         Date start = new Date();
-        CVEAuditManager.populateCVEChannels();
+        int servers = CVEAuditManager.populateCVEChannels(true,
+                ConfigDefaults.get().getCveAuditChannelsThreads());
 
         if (log.isDebugEnabled()) {
             long duration = new Date().getTime() - start.getTime();
+            log.debug("Computed relevant channels of " + servers + " systems");
             log.debug("Total duration was: " + duration + " ms");
         }
     }
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.taskomatic.task;
+
+import com.redhat.rhn.common.conf.ConfigDefaults;
+import com.redhat.rhn.common.db.datasource.ModeFactory;
+import com.redhat.rhn.common.db.datasource.WriteMode;
+
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queues a full errata cache update for a slice of the servers.
+ *
+ * Package changes only update the errata cache entries of the changed package names. Running every
+ * hour, this task queues the servers in rotation so that the whole cache of each server is recomputed
+ * once every java.errata_cache_full_update_days days, fixing any entry the partial updates missed.
+ */
+public class ErrataCacheFullUpdate extends RhnJavaJob {
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute(JobExecutionContext context) throws JobExecutionException {
+        int days = ConfigDefaults.get().getErrataCacheFullUpdateDays();
+        if (days <= 0) {
+            log.debug("Full errata cache update is disabled");
+            return;
+        }
+        long slices = TimeUnit.DAYS.toHours(days);
+        long slice = TimeUnit.MILLISECONDS.toHours(System.currentTimeMillis()) % slices;
+
+        WriteMode m = ModeFactory.getWriteMode(TaskConstants.MODE_NAME,
+                TaskConstants.TASK_QUERY_QUEUE_ERRATA_CACHE_FULL_UPDATE);
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("slices", slices);
+        params.put("slice", slice);
+        int queued = m.executeUpdate(params);
+        log.info("Queued a full errata cache update for " + queued + " servers (slice " + slice +
+                " of " + slices + ")");
+    }
+}
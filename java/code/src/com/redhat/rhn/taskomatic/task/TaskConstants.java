@@ -130,6 +130,9 @@ public class TaskConstants {
     public static final String TASK_QUERY_REPOMD_GENERATOR_CHANNEL_PACKAGES_BATCH =
         "repomdgenerator_channel_package_batch";
 
+    public static final String TASK_QUERY_REPOMD_GENERATOR_CHANNEL_PACKAGE_FRAGMENTS =
+        "repomdgenerator_channel_package_fragments";
+
     public static final String TASK_QUERY_REPOMD_GENERATOR_CAPABILITY_FILES =
         "repomdgenerator_capability_files";
 
@@ -213,5 +216,8 @@ public class TaskConstants {
     public static final String TASK_QUERY_CHANNEL_PACKAGE_EXTRATAGS =
             "repomdgenerator_channel_package_extratags";
 
+    public static final String TASK_QUERY_QUEUE_ERRATA_CACHE_FULL_UPDATE =
+            "queue_errata_cache_full_update";
+
     private TaskConstants() { }
 }
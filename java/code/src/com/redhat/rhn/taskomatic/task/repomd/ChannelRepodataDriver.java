@@ -26,10 +26,10 @@ import com.redhat.rhn.taskomatic.task.threaded.QueueWorker;
 import org.apache.log4j.Logger;
 
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -39,6 +39,8 @@ import java.util.Map;
 public class ChannelRepodataDriver implements QueueDriver {
 
     private Logger logger = null;
+    private final ChannelRepodataScheduler scheduler = new ChannelRepodataScheduler(
+            TimeUnit.MINUTES.toMillis(ConfigDefaults.get().getTaskoChannelRepodataMaxWait()));
 
     /**
      * {@inheritDoc}
@@ -70,6 +72,8 @@ public class ChannelRepodataDriver implements QueueDriver {
     }
 
     /**
+     * Returns the channels to generate, in the order of {@link ChannelRepodataScheduler}, except the
+     * channels already scheduled
      * @return Returns candidates
      */
     public List getCandidates() {
@@ -78,11 +82,9 @@ public class ChannelRepodataDriver implements QueueDriver {
 
         Map<String, Object> params = new HashMap<String, Object>();
         List<Object> retval = new LinkedList<Object>();
-        List results = select.execute(params);
+        List<Map<String, Object>> results = select.execute(params);
         if (results != null) {
-            for (Iterator iter = results.iterator(); iter.hasNext();) {
-                retval.add(iter.next());
-            }
+            retval.addAll(scheduler.schedule(results, System.currentTimeMillis()));
         }
         return retval;
     }
@@ -114,6 +116,14 @@ public class ChannelRepodataDriver implements QueueDriver {
      * @return Returns channel repodata worker object
      */
     public QueueWorker makeWorker(Object workItem) {
-        return new ChannelRepodataWorker((Map) workItem, getLogger());
+        return new ChannelRepodataWorker((Map) workItem, getLogger(), scheduler);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void dropped(Object workItem) {
+        scheduler.release((Map<String, Object>) workItem);
     }
 }
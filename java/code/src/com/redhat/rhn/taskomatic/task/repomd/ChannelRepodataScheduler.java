@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.taskomatic.task.repomd;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Orders the channels waiting for repodata generation, so that a few big channels do not hold back small ones.
+ *
+ * Channels are ordered by:
+ * <ol>
+ * <li>interactive channels first, i.e. content lifecycle management targets someone waits for</li>
+ * <li>channels waiting for longer than the maximum wait, oldest first, so that big channels are not starved</li>
+ * <li>estimated cost, the last generation time of the channel or its number of packages times the average
+ * generation time per package</li>
+ * <li>time of the first request</li>
+ * </ol>
+ *
+ * Channels already scheduled and not finished yet are not scheduled again.
+ */
+public class ChannelRepodataScheduler {
+
+    /** Key of the time the channel was scheduled in work items */
+    public static final String SCHEDULED_AT = "scheduled_at";
+
+    private static final String CHANNEL_LABEL = "channel_label";
+    private static final String MIN_NEXT_ACTION = "min_next_action";
+    private static final String PACKAGE_COUNT = "package_count";
+    private static final String INTERACTIVE = "interactive";
+
+    /* weight of the last generation in the average time per package */
+    private static final double RATE_WEIGHT = 0.2;
+
+    private final long maxWaitMillis;
+    private final Map<String, Long> scheduled = new ConcurrentHashMap<String, Long>();
+    private final Map<String, Long> lastDurations = new ConcurrentHashMap<String, Long>();
+    private volatile double millisPerPackage = 1.0;
+
+    /**
+     * Constructor
+     * @param maxWaitMillisIn time after which waiting channels are scheduled first, regardless of their cost
+     */
+    public ChannelRepodataScheduler(long maxWaitMillisIn) {
+        maxWaitMillis = maxWaitMillisIn;
+    }
+
+    /**
+     * Orders the candidates for repodata generation, and marks them as scheduled.
+     * @param candidates the rows of the repomd_driver_query, one per channel
+     * @param now the current time, in milliseconds
+     * @return the candidates not already scheduled, in generation order
+     */
+    public List<Map<String, Object>> schedule(List<Map<String, Object>> candidates, long now) {
+        List<Map<String, Object>> result = new ArrayList<Map<String, Object>>(candidates.size());
+        // the costs change when generations finish in the workers, take them once so that the order
+        // stays consistent while sorting
+        Map<String, Long> costs = new HashMap<String, Long>();
+        for (Map<String, Object> candidate : candidates) {
+            if (!scheduled.containsKey(label(candidate))) {
+                result.add(candidate);
+                costs.put(label(candidate), estimateCost(candidate));
+            }
+        }
+        result.sort(Comparator
+                .comparing((Map<String, Object> c) -> !isInteractive(c))
+                .thenComparing(c -> now - requestedAt(c, now) <= maxWaitMillis)
+                .thenComparingLong(c -> now - requestedAt(c, now) > maxWaitMillis ?
+                        requestedAt(c, now) : costs.get(label(c)))
+                .thenComparingLong(c -> requestedAt(c, now)));
+        for (Map<String, Object> candidate : result) {
+            scheduled.put(label(candidate), now);
+            candidate.put(SCHEDULED_AT, now);
+        }
+        return result;
+    }
+
+    /**
+     * Records the end of the generation of a channel, which can be scheduled again.
+     * @param channelLabel the channel label
+     * @param packageCount the number of packages of the channel
+     * @param durationMillis the generation time, in milliseconds
+     * @param generated true if repodata was generated, false if the channel was skipped or generation failed
+     */
+    public void finished(String channelLabel, long packageCount, long durationMillis, boolean generated) {
+        scheduled.remove(channelLabel);
+        if (generated) {
+            lastDurations.put(channelLabel, durationMillis);
+            if (packageCount > 0) {
+                millisPerPackage = (1 - RATE_WEIGHT) * millisPerPackage +
+                        RATE_WEIGHT * durationMillis / packageCount;
+            }
+        }
+    }
+
+    /**
+     * Releases a scheduled candidate which will not be generated, so that it can be scheduled again.
+     * @param candidate the candidate
+     */
+    public void release(Map<String, Object> candidate) {
+        scheduled.remove(label(candidate));
+    }
+
+    /**
+     * Returns the estimated generation time of a candidate.
+     * @param candidate the candidate
+     * @return the estimated time, in milliseconds
+     */
+    public long estimateCost(Map<String, Object> candidate) {
+        Long last = lastDurations.get(label(candidate));
+        if (last != null) {
+            return last;
+        }
+        return (long) (packageCount(candidate) * millisPerPackage);
+    }
+
+    /**
+     * @param candidate a candidate
+     * @return the number of packages of the channel
+     */
+    public static long packageCount(Map<String, Object> candidate) {
+        Object count = candidate.get(PACKAGE_COUNT);
+        return count instanceof Number ? ((Number) count).longValue() : 0;
+    }
+
+    private static String label(Map<String, Object> candidate) {
+        return (String) candidate.get(CHANNEL_LABEL);
+    }
+
+    private static boolean isInteractive(Map<String, Object> candidate) {
+        Object interactive = candidate.get(INTERACTIVE);
+        return interactive instanceof Number && ((Number) interactive).intValue() != 0;
+    }
+
+    private static long requestedAt(Map<String, Object> candidate, long now) {
+        Object requested = candidate.get(MIN_NEXT_ACTION);
+        return requested instanceof Date ? ((Date) requested).getTime() : now;
+    }
+}
@@ -28,6 +28,8 @@ import com.redhat.rhn.domain.contentmgmt.SoftwareEnvironmentTarget;
 import com.redhat.rhn.taskomatic.task.TaskConstants;
 import com.redhat.rhn.taskomatic.task.threaded.QueueWorker;
 import com.redhat.rhn.taskomatic.task.threaded.TaskQueue;
+import com.suse.manager.metrics.RepodataMetrics;
+
 import org.apache.log4j.Logger;
 
 import java.util.Date;
@@ -46,6 +48,10 @@ import static com.redhat.rhn.domain.contentmgmt.EnvironmentTarget.Status.GENERAT
  */
 public class ChannelRepodataWorker implements QueueWorker {
 
+    private static final String GENERATED = "generated";
+    private static final String SKIPPED = "skipped";
+    private static final String FAILED_RESULT = "failed";
+
     private RepositoryWriter repoWriter;
     private TaskQueue parentQueue;
     private Logger logger;
@@ -53,13 +59,22 @@ public class ChannelRepodataWorker implements QueueWorker {
 
     private List queueEntries;
 
+    private ChannelRepodataScheduler scheduler;
+    private long packageCount;
+    private long scheduledAt;
+
     /**
      *
      * @param workItem work item map
      * @param parentLogger repomd logger
+     * @param schedulerIn scheduler to notify when the channel is done
      */
-    public ChannelRepodataWorker(Map workItem, Logger parentLogger) {
+    public ChannelRepodataWorker(Map workItem, Logger parentLogger, ChannelRepodataScheduler schedulerIn) {
         logger = parentLogger;
+        scheduler = schedulerIn;
+        packageCount = ChannelRepodataScheduler.packageCount(workItem);
+        Object scheduledAtIn = workItem.get(ChannelRepodataScheduler.SCHEDULED_AT);
+        scheduledAt = scheduledAtIn instanceof Long ? (Long) scheduledAtIn : System.currentTimeMillis();
         String prefixPath = Config.get().getString(ConfigDefaults.REPOMD_PATH_PREFIX,
                 "rhn/repodata");
         String mountPoint =
@@ -93,11 +108,13 @@ public class ChannelRepodataWorker implements QueueWorker {
      * runner method to process the parentQueue
      */
     public void run() {
-        // if a channel has a EnvironmentTarget associated, we update it too
-        Optional<SoftwareEnvironmentTarget> envTarget = ContentProjectFactory
-                .lookupEnvironmentTargetByChannelLabel(channelLabelToProcess);
+        Optional<SoftwareEnvironmentTarget> envTarget = Optional.empty();
+        long startedAt = System.currentTimeMillis();
+        String result = SKIPPED;
         try {
             parentQueue.workerStarting();
+            // if a channel has a EnvironmentTarget associated, we update it too
+            envTarget = ContentProjectFactory.lookupEnvironmentTargetByChannelLabel(channelLabelToProcess);
             if (!isChannelLabelAlreadyInProcess()) {
                 markInProgress(true);
                 populateQueueEntryDetails();
@@ -111,6 +128,7 @@ public class ChannelRepodataWorker implements QueueWorker {
                         if (queueContainsBypass("bypass_filters") ||
                                 channelToProcess.isChannelRepodataRequired()) {
                             repoWriter.writeRepomdFiles(channelToProcess);
+                            result = GENERATED;
                         }
                     }
                     else {
@@ -136,6 +154,7 @@ public class ChannelRepodataWorker implements QueueWorker {
         catch (Exception e) {
             logger.error(e);
             e.printStackTrace();
+            result = FAILED_RESULT;
             parentQueue.getQueueRun().failed();
             // unmark channel to be worked on
             markInProgress(false);
@@ -143,11 +162,28 @@ public class ChannelRepodataWorker implements QueueWorker {
             parentQueue.changeRun(null);
         }
         finally {
+            recordDuration(startedAt, result);
             parentQueue.workerDone();
             HibernateFactory.closeSession();
         }
     }
 
+    /**
+     * Records the time the channel waited in the queue and was processed
+     * @param startedAt the time processing started
+     * @param result the processing result
+     */
+    private void recordDuration(long startedAt, String result) {
+        long duration = System.currentTimeMillis() - startedAt;
+        long wait = Math.max(0, startedAt - scheduledAt);
+        scheduler.finished(channelLabelToProcess, packageCount, duration, GENERATED.equals(result));
+        RepodataMetrics.generationFinished(channelLabelToProcess, wait, duration, result);
+        if (!SKIPPED.equals(result)) {
+            logger.info("Channel " + channelLabelToProcess + " " + result + " in " + duration + " ms, after " +
+                    wait + " ms in the queue");
+        }
+    }
+
     // helper method for setting state of environment target
     private void setEnvironmentTargetStatus(Optional<SoftwareEnvironmentTarget> environmentTarget, Status built) {
         environmentTarget
@@ -16,12 +16,16 @@ package com.redhat.rhn.taskomatic.task.repomd;
 
 import com.redhat.rhn.common.util.StringUtil;
 
+import org.apache.commons.io.IOUtils;
+
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -31,6 +35,8 @@ import java.util.zip.GZIPOutputStream;
  */
 public class CompressingDigestOutputWriter extends OutputStream {
 
+    private static final String ZSTD = "/usr/bin/zstd";
+
     private DigestOutputStream uncompressedDigestStream;
     private DigestOutputStream compressedDigestStream;
     private OutputStream compressedStream;
@@ -45,9 +51,35 @@ public class CompressingDigestOutputWriter extends OutputStream {
      */
     public CompressingDigestOutputWriter(OutputStream stream, String checksumAlgo)
                                         throws NoSuchAlgorithmException, IOException {
+        this(stream, checksumAlgo, RepomdCompression.GZIP, null, 1);
+    }
+
+    /**
+     * Compresses with the given format. Gzip is compressed in parallel with the given executor if it has
+     * more than one thread, zstd by the zstd command with the same number of threads.
+     * @param stream The stream to compress
+     * @param checksumAlgo checksum algorithm
+     * @param compression compression format
+     * @param executor executor compressing blocks of data, or null to compress in the calling thread
+     * @param threads number of compression threads
+     * @throws NoSuchAlgorithmException nosuchalgorithmexception
+     * @throws IOException ioexception
+     */
+    public CompressingDigestOutputWriter(OutputStream stream, String checksumAlgo, RepomdCompression compression,
+            ExecutorService executor, int threads) throws NoSuchAlgorithmException, IOException {
             compressedDigestStream = new DigestOutputStream(stream,
                     MessageDigest.getInstance(checksumAlgo));
-            compressedStream = new GZIPOutputStream(compressedDigestStream);
+            if (compression == RepomdCompression.ZSTD) {
+                compressedStream = new ExternalCompressorOutputStream(compressedDigestStream,
+                        Arrays.asList(ZSTD, "-q", "-c", "-T" + threads));
+            }
+            else if (executor != null && threads > 1) {
+                compressedStream = new ParallelGzipOutputStream(
+                        new BufferedOutputStream(compressedDigestStream), executor, threads);
+            }
+            else {
+                compressedStream = new GZIPOutputStream(compressedDigestStream);
+            }
             uncompressedDigestStream = new DigestOutputStream(compressedStream,
                     MessageDigest.getInstance(checksumAlgo));
             bufferedStream = new BufferedOutputStream(uncompressedDigestStream);
@@ -71,6 +103,18 @@ public class CompressingDigestOutputWriter extends OutputStream {
         bufferedStream.write(b);
     }
 
+    /**
+     * write part of a byte array
+     * @param b bytes
+     * @param off offset of the first byte to write
+     * @param len number of bytes to write
+     * @throws IOException ioexception
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        bufferedStream.write(b, off, len);
+    }
+
     /**
      * flush stream
      * @throws IOException ioexception
@@ -87,6 +131,19 @@ public class CompressingDigestOutputWriter extends OutputStream {
         bufferedStream.close();
     }
 
+    /**
+     * Discards the stream after a failure: the compression command, if any, is killed and the
+     * underlying stream is closed without completing the compressed data.
+     */
+    public void abort() {
+        if (compressedStream instanceof ExternalCompressorOutputStream) {
+            ((ExternalCompressorOutputStream) compressedStream).abort();
+        }
+        else {
+            IOUtils.closeQuietly(compressedStream);
+        }
+    }
+
     /**
      *
      * @return Returns the HexString of the Uncompressed digest stream
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.taskomatic.task.repomd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Output stream compressing its input with an external command, like zstd, reading data on its standard input
+ * and writing the compressed data on its standard output. The compressed data is copied to the underlying
+ * stream by a separate thread while the input is written.
+ */
+public class ExternalCompressorOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final Process process;
+    private final OutputStream processInput;
+    private final Thread copier;
+    private volatile IOException copyException;
+    private boolean closed;
+
+    /**
+     * Starts the compression command.
+     * @param outIn the stream to write the compressed data to
+     * @param command the command and its arguments
+     * @throws IOException if the command cannot be started
+     */
+    public ExternalCompressorOutputStream(OutputStream outIn, List<String> command) throws IOException {
+        out = outIn;
+        process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        processInput = process.getOutputStream();
+        copier = new Thread(this::copyOutput, "repodata-" + command.get(0));
+        copier.setDaemon(true);
+        copier.start();
+    }
+
+    private void copyOutput() {
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = process.getInputStream()) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        catch (IOException e) {
+            copyException = e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int b) throws IOException {
+        processInput.write(b);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        processInput.write(b, off, len);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws IOException {
+        processInput.flush();
+    }
+
+    /**
+     * Waits for the command to compress all the data and closes the underlying stream.
+     * @throws IOException if the command fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            processInput.close();
+            copier.join();
+            int exitCode = process.waitFor();
+            if (copyException != null) {
+                throw copyException;
+            }
+            if (exitCode != 0) {
+                throw new IOException("Compression command exited with code " + exitCode);
+            }
+        }
+        catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Kills the command without waiting for it to compress the data written so far and closes the
+     * underlying stream, whose content is then incomplete. Errors are ignored, as the caller is
+     * already failing.
+     */
+    public void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        process.destroyForcibly();
+        try {
+            processInput.close();
+        }
+        catch (IOException e) {
+            // the command is gone, nothing to flush
+        }
+        try {
+            copier.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            out.close();
+        }
+        catch (IOException e) {
+            // the partial output is discarded anyway
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.taskomatic.task.repomd;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Compression formats of the repodata xml files.
+ */
+public enum RepomdCompression {
+
+    GZIP("gzip", ".gz"),
+    ZSTD("zstd", ".zst");
+
+    private static Logger log = Logger.getLogger(RepomdCompression.class);
+
+    private final String label;
+    private final String extension;
+
+    RepomdCompression(String labelIn, String extensionIn) {
+        label = labelIn;
+        extension = extensionIn;
+    }
+
+    /**
+     * @return the label of the format in the configuration
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @return the file name extension of the format, including the dot
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Returns the format with the given label, gzip if the label is unknown.
+     * @param labelIn the label
+     * @return the compression format
+     */
+    public static RepomdCompression fromLabel(String labelIn) {
+        for (RepomdCompression compression : values()) {
+            if (compression.label.equalsIgnoreCase(labelIn)) {
+                return compression;
+            }
+        }
+        log.warn("Unknown repodata compression " + labelIn + ", using gzip");
+        return GZIP;
+    }
+}
@@ -38,6 +38,7 @@ public class RepomdIndexWriter {
     private RepomdIndexData group;
     private RepomdIndexData modules;
     private RepomdIndexData products;
+    private RepomdCompression compression = RepomdCompression.GZIP;
 
     /**
      *
@@ -84,6 +85,14 @@ public class RepomdIndexWriter {
         }
     }
 
+    /**
+     * Sets the compression format of the xml files, gzip by default
+     * @param compressionIn the compression format
+     */
+    public void setCompression(RepomdCompression compressionIn) {
+        this.compression = compressionIn;
+    }
+
     /**
      * writes the repomd index
      */
@@ -127,7 +136,7 @@ public class RepomdIndexWriter {
         SimpleAttributesImpl attr = new SimpleAttributesImpl();
         attr.addAttribute("type", type);
 
-        String location = type + ".xml.gz";
+        String location = type + ".xml" + compression.getExtension();
         // special case for comps file
         if (type.equals("group")) {
             location = "comps.xml";
@@ -16,7 +16,6 @@ package com.redhat.rhn.taskomatic.task.repomd;
 
 import com.redhat.rhn.common.conf.Config;
 import com.redhat.rhn.common.conf.ConfigDefaults;
-import com.redhat.rhn.common.db.datasource.DataResult;
 import com.redhat.rhn.common.hibernate.HibernateFactory;
 import com.redhat.rhn.common.localization.LocalizationService;
 import com.redhat.rhn.common.util.StringUtil;
@@ -29,6 +28,8 @@ import com.redhat.rhn.manager.rhnpackage.PackageManager;
 import com.redhat.rhn.manager.satellite.SystemCommandExecutor;
 import com.redhat.rhn.manager.task.TaskManager;
 
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
@@ -44,7 +45,14 @@ import java.security.DigestInputStream;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  *
@@ -53,21 +61,29 @@ import java.util.Date;
  */
 public class RpmRepositoryWriter extends RepositoryWriter {
 
-    private static final String PRIMARY_FILE = "primary.xml.gz.new";
-    private static final String FILELISTS_FILE = "filelists.xml.gz.new";
-    private static final String OTHER_FILE = "other.xml.gz.new";
+    /* compressed files, written with the compression extension and the NEW suffix */
+    private static final String PRIMARY_FILE = "primary.xml";
+    private static final String FILELISTS_FILE = "filelists.xml";
+    private static final String OTHER_FILE = "other.xml";
+    private static final String UPDATEINFO_FILE = "updateinfo.xml";
+    private static final String SUSEDATA_FILE = "susedata.xml";
+    private static final String NEW = ".new";
     private static final String REPOMD_FILE = "repomd.xml.new";
-    private static final String UPDATEINFO_FILE = "updateinfo.xml.gz.new";
     private static final String PRODUCTS_FILE = "products.xml";
-    private static final String SUSEDATA_FILE = "susedata.xml.gz.new";
     private static final String NOREPO_FILE = "noyumrepo.txt";
     private static final String SOLV_FILE = "solv.new";
     private static final String REPO2SOLV = "/usr/bin/repo2solv.sh";
 
+    /* number of packages whose outdated fragments are loaded at once in incremental mode */
+    private static final int REGENERATE_BATCH_SIZE = 1000;
+
     private static final String GROUP = "groups";
     private static final String MODULES = "modules";
 
+    private static ExecutorService compressionExecutor;
+
     private String checksumtype;
+    private RepomdCompression compression = RepomdCompression.GZIP;
 
     /**
      * Constructor takes in pathprefix and mountpoint
@@ -123,6 +139,7 @@ public class RpmRepositoryWriter extends RepositoryWriter {
         }
         // Get compatible checksumType
         this.checksumtype = channel.getChecksumTypeLabel();
+        this.compression = RepomdCompression.fromLabel(ConfigDefaults.get().getTaskoRepodataCompression());
         if (checksumtype == null) {
             generateBadRepo(channel, prefix);
             return;
@@ -150,96 +167,113 @@ public class RpmRepositoryWriter extends RepositoryWriter {
                 channel.getPackageCount() + " packages, " +
                 channel.getErrataCount() + " errata");
 
-        CompressingDigestOutputWriter primaryFile;
-        CompressingDigestOutputWriter filelistsFile;
-        CompressingDigestOutputWriter otherFile;
-        CompressingDigestOutputWriter susedataFile;
+        CompressingDigestOutputWriter primaryFile = null;
+        CompressingDigestOutputWriter filelistsFile = null;
+        CompressingDigestOutputWriter otherFile = null;
+        CompressingDigestOutputWriter susedataFile = null;
+        boolean written = false;
+        Date start = new Date();
 
         try {
-            primaryFile = new CompressingDigestOutputWriter(
-                    new FileOutputStream(prefix + PRIMARY_FILE),
-                    checksumAlgo);
-            filelistsFile = new CompressingDigestOutputWriter(
-                    new FileOutputStream(prefix + FILELISTS_FILE),
-                    checksumAlgo);
-            otherFile = new CompressingDigestOutputWriter(
-                    new FileOutputStream(prefix + OTHER_FILE), checksumAlgo);
-            susedataFile = new CompressingDigestOutputWriter(
-                    new FileOutputStream(prefix + SUSEDATA_FILE), checksumAlgo);
-        }
-        catch (IOException e) {
-            throw new RepomdRuntimeException(e);
-        }
-        catch (NoSuchAlgorithmException e) {
-            throw new RepomdRuntimeException(e);
-        }
-
-        BufferedWriter primaryBufferedWriter = new BufferedWriter(
-                new OutputStreamWriter(primaryFile));
-        BufferedWriter filelistsBufferedWriter = new BufferedWriter(
-                new OutputStreamWriter(filelistsFile));
-        BufferedWriter otherBufferedWriter = new BufferedWriter(
-                new OutputStreamWriter(otherFile));
-        BufferedWriter susedataBufferedWriter = new BufferedWriter(
-                new OutputStreamWriter(susedataFile));
-        PrimaryXmlWriter primary = new PrimaryXmlWriter(
-                primaryBufferedWriter);
-        FilelistsXmlWriter filelists = new FilelistsXmlWriter(
-                filelistsBufferedWriter);
-        OtherXmlWriter other = new OtherXmlWriter(otherBufferedWriter);
-        SuseDataXmlWriter susedata = new SuseDataXmlWriter(
-                susedataBufferedWriter);
-        Date start = new Date();
+            try {
+                primaryFile = newCompressingWriter(prefix + PRIMARY_FILE, checksumAlgo);
+                filelistsFile = newCompressingWriter(prefix + FILELISTS_FILE, checksumAlgo);
+                otherFile = newCompressingWriter(prefix + OTHER_FILE, checksumAlgo);
+                susedataFile = newCompressingWriter(prefix + SUSEDATA_FILE, checksumAlgo);
+            }
+            catch (IOException | NoSuchAlgorithmException e) {
+                throw new RepomdRuntimeException(e);
+            }
 
-        primary.begin(channel);
-        filelists.begin(channel);
-        other.begin(channel);
-        susedata.begin(channel);
-
-        // batch the elaboration so we don't have to hold many thousands of
-        // packages in memory at once
-        final int batchSize = 1000;
-
-        for (long i = 0; i < channel.getPackageCount(); i += batchSize) {
-            DataResult<PackageDto> packageBatch = TaskManager.getChannelPackageDtos(channel, i, batchSize);
-            packageBatch.elaborate();
-            for (PackageDto pkgDto : packageBatch) {
-                // this is a sanity check
-                // package may have been deleted before packageBatch.elaborate()
-                if (pkgDto.getChecksum() == null) {
-                    // channel content changed, we cannot guarantee correct repodata
-                    throw new RepomdRuntimeException("Package with id " + pkgDto.getId() +
-                            " removed from server, interrupting repo generation for " +
-                            channel.getLabel());
-                }
-                primary.addPackage(pkgDto);
-                filelists.addPackage(pkgDto);
-                other.addPackage(pkgDto);
-                susedata.addPackage(pkgDto);
-                try {
-                    primaryFile.flush();
-                    filelistsFile.flush();
-                    otherFile.flush();
-                    susedataFile.flush();
-                }
-                catch (IOException e) {
-                    throw new RepomdRuntimeException(e);
+            BufferedWriter primaryBufferedWriter = new BufferedWriter(
+                    new OutputStreamWriter(primaryFile));
+            BufferedWriter filelistsBufferedWriter = new BufferedWriter(
+                    new OutputStreamWriter(filelistsFile));
+            BufferedWriter otherBufferedWriter = new BufferedWriter(
+                    new OutputStreamWriter(otherFile));
+            BufferedWriter susedataBufferedWriter = new BufferedWriter(
+                    new OutputStreamWriter(susedataFile));
+            PrimaryXmlWriter primary = new PrimaryXmlWriter(
+                    primaryBufferedWriter);
+            FilelistsXmlWriter filelists = new FilelistsXmlWriter(
+                    filelistsBufferedWriter);
+            OtherXmlWriter other = new OtherXmlWriter(otherBufferedWriter);
+            SuseDataXmlWriter susedata = new SuseDataXmlWriter(
+                    susedataBufferedWriter);
+
+            primary.begin(channel);
+            filelists.begin(channel);
+            other.begin(channel);
+            susedata.begin(channel);
+
+            // stream the packages so we don't have to hold many thousands of
+            // packages in memory at once. In incremental mode only the stored
+            // XML fragments are loaded, and the full details are loaded only for
+            // packages whose fragments are missing or outdated.
+            boolean incremental = ConfigDefaults.get().isTaskomaticIncrementalRepodata();
+            final int logInterval = 1000;
+            long count = 0;
+            long regenerated = 0;
+
+            try (Stream<PackageDto> packages = incremental ?
+                    TaskManager.getChannelPackageFragmentStream(channel) :
+                    TaskManager.getChannelPackageDtoStream(channel)) {
+                Iterator<PackageDto> packageIterator = packages.iterator();
+                List<PackageDto> batch = new ArrayList<PackageDto>(REGENERATE_BATCH_SIZE);
+                while (packageIterator.hasNext()) {
+                    batch.clear();
+                    while (packageIterator.hasNext() && batch.size() < REGENERATE_BATCH_SIZE) {
+                        batch.add(packageIterator.next());
+                    }
+                    if (incremental) {
+                        regenerated += elaborateOutdatedPackages(batch);
+                    }
+                    for (PackageDto pkgDto : batch) {
+                        // this is a sanity check
+                        // package may have been deleted before it was elaborated
+                        if (pkgDto.getChecksum() == null) {
+                            // channel content changed, we cannot guarantee correct repodata
+                            throw new RepomdRuntimeException("Package with id " + pkgDto.getId() +
+                                    " removed from server, interrupting repo generation for " +
+                                    channel.getLabel());
+                        }
+                        primary.addPackage(pkgDto);
+                        filelists.addPackage(pkgDto);
+                        other.addPackage(pkgDto);
+                        susedata.addPackage(pkgDto);
+                        if (++count % logInterval == 0) {
+                            log.info("Processed " + count + " packages");
+                        }
+                    }
                 }
             }
-            log.info("Processed " + (i + packageBatch.getEnd()) + " packages");
-        }
-        primary.end();
-        filelists.end();
-        other.end();
-        susedata.end();
-        try {
-            primaryBufferedWriter.close();
-            filelistsBufferedWriter.close();
-            otherBufferedWriter.close();
-            susedataBufferedWriter.close();
-        }
-        catch (IOException e) {
-            throw new RepomdRuntimeException(e);
+            if (incremental) {
+                log.info("Regenerated the fragments of " + regenerated + " packages");
+            }
+            log.info("Processed " + count + " packages");
+            primary.end();
+            filelists.end();
+            other.end();
+            susedata.end();
+            try {
+                primaryBufferedWriter.close();
+                filelistsBufferedWriter.close();
+                otherBufferedWriter.close();
+                susedataBufferedWriter.close();
+            }
+            catch (IOException e) {
+                throw new RepomdRuntimeException(e);
+            }
+            written = true;
+        }
+        finally {
+            // do not leave compression processes and partial files behind when the generation is interrupted
+            if (!written) {
+                abortCompressingWriter(primaryFile, prefix + PRIMARY_FILE);
+                abortCompressingWriter(filelistsFile, prefix + FILELISTS_FILE);
+                abortCompressingWriter(otherFile, prefix + OTHER_FILE);
+                abortCompressingWriter(susedataFile, prefix + SUSEDATA_FILE);
+            }
         }
 
         RepomdIndexData primaryData = new RepomdIndexData(primaryFile
@@ -298,6 +332,7 @@ public class RpmRepositoryWriter extends RepositoryWriter {
         RepomdIndexWriter index = new RepomdIndexWriter(indexFile, primaryData,
                 filelistsData, otherData, susedataData, updateinfoData,
                 groupsData, modulesData, productsData);
+        index.setCompression(compression);
 
         index.writeRepomdIndex();
 
@@ -325,6 +360,68 @@ public class RpmRepositoryWriter extends RepositoryWriter {
         renameSolv(prefix, channel.getLastModified().getTime());
     }
 
+    /**
+     * Creates a writer compressing with the configured format, in parallel if more than one compression thread
+     * is configured.
+     * @param path the file to write, without compression extension
+     * @param checksumAlgo the checksum algorithm
+     * @return the writer
+     */
+    private CompressingDigestOutputWriter newCompressingWriter(String path, String checksumAlgo)
+            throws IOException, NoSuchAlgorithmException {
+        int threads = ConfigDefaults.get().getTaskoRepodataCompressionThreads();
+        return new CompressingDigestOutputWriter(new FileOutputStream(path + compression.getExtension() + NEW),
+                checksumAlgo, compression, threads > 1 ? getCompressionExecutor(threads) : null, threads);
+    }
+
+    /**
+     * Discards a compressed file whose generation failed: the compression is stopped and the partial
+     * file is removed, so that neither survives the failed run.
+     * @param writer the writer, or null if it was not created
+     * @param path the file written, without compression extension
+     */
+    private void abortCompressingWriter(CompressingDigestOutputWriter writer, String path) {
+        if (writer == null) {
+            return;
+        }
+        writer.abort();
+        File partial = new File(path + compression.getExtension() + NEW);
+        if (partial.exists() && !partial.delete()) {
+            log.warn("Unable to delete partial repodata file " + partial);
+        }
+    }
+
+    /**
+     * Returns the executor compressing repodata files, shared by all the workers so that they
+     * use at most the configured number of threads together.
+     * @param threads the number of threads
+     * @return the executor
+     */
+    private static synchronized ExecutorService getCompressionExecutor(int threads) {
+        if (compressionExecutor == null) {
+            compressionExecutor = Executors.newFixedThreadPool(threads, new BasicThreadFactory.Builder()
+                    .namingPattern("repodata-compression-%d").daemon(true).build());
+        }
+        return compressionExecutor;
+    }
+
+    /**
+     * Loads the full details of the packages missing one of their stored XML fragments, so that
+     * these fragments get generated again.
+     * @param packages packages with their stored fragments
+     * @return the number of packages loaded
+     */
+    private int elaborateOutdatedPackages(List<PackageDto> packages) {
+        List<PackageDto> outdated = packages.stream()
+                .filter(p -> p.getPrimaryBlob() == null || p.getFilelistBlob() == null ||
+                        p.getOtherBlob() == null)
+                .collect(Collectors.toList());
+        if (!outdated.isEmpty()) {
+            TaskManager.elaborateChannelPackageDtos(outdated);
+        }
+        return outdated.size();
+    }
+
     private void generateSolv(Channel channel) {
         String repodir  = mountPoint + File.separator + pathPrefix +
                           File.separator + channel.getLabel() + File.separator;
@@ -474,8 +571,7 @@ public class RpmRepositoryWriter extends RepositoryWriter {
 
         CompressingDigestOutputWriter updateinfoFile;
         try {
-            updateinfoFile = new CompressingDigestOutputWriter(
-                    new FileOutputStream(prefix + UPDATEINFO_FILE), checksumtypeIn);
+            updateinfoFile = newCompressingWriter(prefix + UPDATEINFO_FILE, checksumtypeIn);
         }
         catch (FileNotFoundException e) {
             throw new RepomdRuntimeException(e);
@@ -486,16 +582,25 @@ public class RpmRepositoryWriter extends RepositoryWriter {
         catch (IOException e) {
             throw new RepomdRuntimeException(e);
         }
-        BufferedWriter updateinfoBufferedWriter = new BufferedWriter(
-                new OutputStreamWriter(updateinfoFile));
-        UpdateInfoWriter updateinfo = new UpdateInfoWriter(
-                updateinfoBufferedWriter);
-        updateinfo.getUpdateInfo(channel);
+        boolean written = false;
         try {
-            updateinfoBufferedWriter.close();
+            BufferedWriter updateinfoBufferedWriter = new BufferedWriter(
+                    new OutputStreamWriter(updateinfoFile));
+            UpdateInfoWriter updateinfo = new UpdateInfoWriter(
+                    updateinfoBufferedWriter);
+            updateinfo.getUpdateInfo(channel);
+            try {
+                updateinfoBufferedWriter.close();
+            }
+            catch (IOException e) {
+                throw new RepomdRuntimeException(e);
+            }
+            written = true;
         }
-        catch (IOException e) {
-            throw new RepomdRuntimeException(e);
+        finally {
+            if (!written) {
+                abortCompressingWriter(updateinfoFile, prefix + UPDATEINFO_FILE);
+            }
         }
 
         RepomdIndexData updateinfoData = new RepomdIndexData(updateinfoFile
@@ -555,40 +660,20 @@ public class RpmRepositoryWriter extends RepositoryWriter {
      */
     private void renameFiles(String prefix, Long lastModified,
             Boolean doUpdateinfo, Boolean hasProducts) {
-        File primary = new File(prefix + PRIMARY_FILE);
-        File filelists = new File(prefix + FILELISTS_FILE);
-        File other = new File(prefix + OTHER_FILE);
-        File susedata = new File(prefix + SUSEDATA_FILE);
         File repomd = new File(prefix + REPOMD_FILE);
 
-        File updateinfo = null;
-        if (doUpdateinfo) {
-            updateinfo = new File(prefix + UPDATEINFO_FILE);
-            updateinfo.setLastModified(lastModified);
-        }
         File products = null;
         if (hasProducts) {
             products = new File(prefix + PRODUCTS_FILE);
             products.setLastModified(lastModified);
         }
-
-        primary.setLastModified(lastModified);
-        filelists.setLastModified(lastModified);
-        other.setLastModified(lastModified);
-        susedata.setLastModified(lastModified);
         repomd.setLastModified(lastModified);
 
-        File renamedupdateinfo = new File(prefix + "updateinfo.xml.gz");
         if (doUpdateinfo) {
-            updateinfo.renameTo(renamedupdateinfo);
+            renameCompressedFile(prefix + UPDATEINFO_FILE, lastModified);
         }
         else {
-            try {
-                Files.deleteIfExists(renamedupdateinfo.toPath());
-            }
-            catch (IOException e) {
-                throw new RepomdRuntimeException(e);
-            }
+            deleteCompressedFiles(prefix + UPDATEINFO_FILE, null);
         }
         if (hasProducts) {
             products.renameTo(new File(prefix + "products.xml"));
@@ -600,13 +685,38 @@ public class RpmRepositoryWriter extends RepositoryWriter {
             }
         }
 
-        primary.renameTo(new File(prefix + "primary.xml.gz"));
-        filelists.renameTo(new File(prefix + "filelists.xml.gz"));
-        other.renameTo(new File(prefix + "other.xml.gz"));
-        susedata.renameTo(new File(prefix + "susedata.xml.gz"));
+        renameCompressedFile(prefix + PRIMARY_FILE, lastModified);
+        renameCompressedFile(prefix + FILELISTS_FILE, lastModified);
+        renameCompressedFile(prefix + OTHER_FILE, lastModified);
+        renameCompressedFile(prefix + SUSEDATA_FILE, lastModified);
         repomd.renameTo(new File(prefix + "repomd.xml"));
     }
 
+    /**
+     * Renames a new compressed file, and deletes the files previously generated with another compression
+     * @param path path of the file, without compression extension
+     * @param lastModified file last_modified
+     */
+    private void renameCompressedFile(String path, Long lastModified) {
+        File file = new File(path + compression.getExtension() + NEW);
+        file.setLastModified(lastModified);
+        file.renameTo(new File(path + compression.getExtension()));
+        deleteCompressedFiles(path, compression);
+    }
+
+    private void deleteCompressedFiles(String path, RepomdCompression keep) {
+        for (RepomdCompression c : RepomdCompression.values()) {
+            if (c != keep) {
+                try {
+                    Files.deleteIfExists(new File(path + c.getExtension()).toPath());
+                }
+                catch (IOException e) {
+                    throw new RepomdRuntimeException(e);
+                }
+            }
+        }
+    }
+
     private void renameSolv(String prefix, Long lastModified) {
         File solv = new File(prefix + SOLV_FILE);
 
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.taskomatic.task.repomd.test;
+
+import com.redhat.rhn.taskomatic.task.repomd.ChannelRepodataScheduler;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ChannelRepodataScheduler}.
+ */
+public class ChannelRepodataSchedulerTest extends TestCase {
+
+    private static final long NOW = 100_000_000L;
+    private static final long MAX_WAIT = 3_600_000L;
+
+    public void testOrder() {
+        ChannelRepodataScheduler scheduler = new ChannelRepodataScheduler(MAX_WAIT);
+        List<Map<String, Object>> candidates = new ArrayList<>();
+        candidates.add(candidate("sles-pool", 60000, 0, NOW - 1000));
+        candidates.add(candidate("clm-small", 50, 0, NOW - 500));
+        candidates.add(candidate("clm-target", 20000, 1, NOW - 100));
+        candidates.add(candidate("old-big", 40000, 0, NOW - MAX_WAIT - 1));
+        candidates.add(candidate("tiny", 5, 0, NOW - 200));
+
+        assertEquals(List.of("clm-target", "old-big", "tiny", "clm-small", "sles-pool"),
+                labels(scheduler.schedule(candidates, NOW)));
+    }
+
+    public void testDeduplication() {
+        ChannelRepodataScheduler scheduler = new ChannelRepodataScheduler(MAX_WAIT);
+        List<Map<String, Object>> first = scheduler.schedule(List.of(candidate("a", 1, 0, NOW)), NOW);
+        assertEquals(NOW, first.get(0).get(ChannelRepodataScheduler.SCHEDULED_AT));
+
+        List<Map<String, Object>> candidates = List.of(candidate("a", 1, 0, NOW), candidate("b", 1, 0, NOW));
+        assertEquals(List.of("b"), labels(scheduler.schedule(candidates, NOW)));
+
+        scheduler.finished("a", 1, 10, true);
+        assertEquals(List.of("a"), labels(scheduler.schedule(candidates, NOW)));
+    }
+
+    public void testRelease() {
+        ChannelRepodataScheduler scheduler = new ChannelRepodataScheduler(MAX_WAIT);
+        List<Map<String, Object>> scheduled = scheduler.schedule(List.of(candidate("a", 1, 0, NOW)), NOW);
+        assertTrue(scheduler.schedule(List.of(candidate("a", 1, 0, NOW)), NOW).isEmpty());
+
+        // a candidate dropped before its worker ran can be scheduled again
+        scheduler.release(scheduled.get(0));
+        assertEquals(List.of("a"), labels(scheduler.schedule(List.of(candidate("a", 1, 0, NOW)), NOW)));
+    }
+
+    public void testEstimatedCost() {
+        ChannelRepodataScheduler scheduler = new ChannelRepodataScheduler(MAX_WAIT);
+        Map<String, Object> slow = candidate("slow", 10, 0, NOW);
+        Map<String, Object> big = candidate("big", 1000, 0, NOW);
+        assertEquals(10, scheduler.estimateCost(slow));
+        assertEquals(1000, scheduler.estimateCost(big));
+
+        // a small channel known to be slow goes after a bigger one known to be fast
+        scheduler.schedule(List.of(slow, big), NOW);
+        scheduler.finished("slow", 10, 5000, true);
+        scheduler.finished("big", 1000, 200, true);
+        assertEquals(5000, scheduler.estimateCost(slow));
+        assertEquals(200, scheduler.estimateCost(big));
+        assertEquals(List.of("big", "slow"),
+                labels(scheduler.schedule(List.of(candidate("slow", 10, 0, NOW), candidate("big", 1000, 0, NOW)),
+                        NOW)));
+
+        // unknown channels are estimated from the time per package of past generations
+        assertTrue(scheduler.estimateCost(candidate("new", 10, 0, NOW)) > 10);
+
+        // failed generations are not used as estimates
+        scheduler.finished("slow", 10, 1, false);
+        assertEquals(5000, scheduler.estimateCost(slow));
+    }
+
+    public void testScheduleWhileGenerationsFinish() throws Exception {
+        ChannelRepodataScheduler scheduler = new ChannelRepodataScheduler(MAX_WAIT);
+        List<Map<String, Object>> candidates = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            candidates.add(candidate("channel-" + i, i % 97, 0, NOW - i % 13));
+        }
+
+        // workers finishing generations change the estimated costs while the candidates are sorted
+        AtomicBoolean done = new AtomicBoolean();
+        Thread worker = new Thread(() -> {
+            Random random = new Random(1);
+            while (!done.get()) {
+                scheduler.finished("channel-" + random.nextInt(5000), 1 + random.nextInt(100),
+                        random.nextInt(100000), true);
+            }
+        });
+        worker.start();
+        try {
+            for (int i = 0; i < 50; i++) {
+                List<Map<String, Object>> scheduled = scheduler.schedule(candidates, NOW);
+                assertEquals(candidates.size(), scheduled.size());
+                scheduled.forEach(scheduler::release);
+            }
+        }
+        finally {
+            done.set(true);
+            worker.join();
+        }
+    }
+
+    private static Map<String, Object> candidate(String label, long packages, int interactive, long requested) {
+        Map<String, Object> candidate = new HashMap<>();
+        candidate.put("channel_label", label);
+        candidate.put("package_count", packages);
+        candidate.put("interactive", interactive);
+        candidate.put("min_next_action", new Timestamp(requested));
+        return candidate;
+    }
+
+    private static List<String> labels(List<Map<String, Object>> candidates) {
+        return candidates.stream().map(c -> (String) c.get("channel_label")).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.taskomatic.task.repomd.test;
+
+import com.redhat.rhn.taskomatic.task.repomd.ExternalCompressorOutputStream;
+import com.redhat.rhn.taskomatic.task.repomd.RepomdCompression;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ExternalCompressorOutputStream}, using gzip as zstd may not be installed.
+ */
+public class ExternalCompressorOutputStreamTest extends TestCase {
+
+    public void testCompress() throws Exception {
+        StringBuilder xml = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            xml.append("<package pkgid=\"").append(i).append("\" name=\"pkg\" arch=\"noarch\"/>\n");
+        }
+        byte[] data = xml.toString().getBytes("UTF-8");
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new ExternalCompressorOutputStream(compressed, Arrays.asList("gzip", "-c"))) {
+            out.write(data);
+        }
+
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+            assertTrue(Arrays.equals(data, IOUtils.toByteArray(in)));
+        }
+    }
+
+    public void testFailure() throws Exception {
+        OutputStream out = new ExternalCompressorOutputStream(new ByteArrayOutputStream(),
+                Collections.singletonList("false"));
+        try {
+            out.close();
+            fail("failing command should throw an exception");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testAbort() throws Exception {
+        boolean[] outClosed = new boolean[1];
+        OutputStream target = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                outClosed[0] = true;
+            }
+        };
+        // a command ignoring its input would keep close() waiting, abort() must not wait for it
+        ExternalCompressorOutputStream out = new ExternalCompressorOutputStream(target,
+                Arrays.asList("sleep", "60"));
+        long start = System.currentTimeMillis();
+        out.abort();
+        assertTrue(System.currentTimeMillis() - start < 30000);
+        assertTrue(outClosed[0]);
+        // closing after an abort does nothing
+        out.close();
+    }
+
+    public void testCompressionLabels() {
+        assertEquals(RepomdCompression.ZSTD, RepomdCompression.fromLabel("zstd"));
+        assertEquals(RepomdCompression.GZIP, RepomdCompression.fromLabel("GZIP"));
+        assertEquals(RepomdCompression.GZIP, RepomdCompression.fromLabel("bzip2"));
+        assertEquals(".zst", RepomdCompression.ZSTD.getExtension());
+    }
+}
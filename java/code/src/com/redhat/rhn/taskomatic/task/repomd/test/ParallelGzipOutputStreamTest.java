@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.taskomatic.task.repomd.test;
+
+import com.redhat.rhn.common.util.StringUtil;
+import com.redhat.rhn.taskomatic.task.repomd.CompressingDigestOutputWriter;
+import com.redhat.rhn.taskomatic.task.repomd.ParallelGzipOutputStream;
+import com.redhat.rhn.taskomatic.task.repomd.RepomdCompression;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ParallelGzipOutputStream}.
+ */
+public class ParallelGzipOutputStreamTest extends TestCase {
+
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testMultipleBlocks() throws Exception {
+        // compressible data repeating across block boundaries, with some noise
+        byte[] data = new byte[ParallelGzipOutputStream.BLOCK_SIZE * 7 + 123];
+        byte[] pattern = "<package type=\"rpm\"><name>pkg</name></package>\n".getBytes("UTF-8");
+        Random random = new Random(42);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i % 97 == 0 ? (byte) random.nextInt() : pattern[i % pattern.length];
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new ParallelGzipOutputStream(compressed, executor, 3)) {
+            out.write(data, 0, 1000);
+            out.flush();
+            for (int i = 1000; i < 5000; i++) {
+                out.write(data[i]);
+            }
+            out.write(Arrays.copyOfRange(data, 5000, data.length));
+        }
+
+        assertTrue(compressed.size() < data.length / 4);
+        assertTrue(Arrays.equals(data, gunzip(compressed.toByteArray())));
+    }
+
+    public void testEmpty() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(compressed, executor, 3).close();
+        assertEquals(0, gunzip(compressed.toByteArray()).length);
+    }
+
+    public void testChecksums() throws Exception {
+        byte[] data = new byte[ParallelGzipOutputStream.BLOCK_SIZE * 2 + 1];
+        new Random(7).nextBytes(data);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        CompressingDigestOutputWriter writer = new CompressingDigestOutputWriter(compressed, "SHA-256",
+                RepomdCompression.GZIP, executor, 3);
+        writer.write(data);
+        writer.close();
+
+        assertTrue(Arrays.equals(data, gunzip(compressed.toByteArray())));
+        assertEquals(sha256(data), writer.getUncompressedChecksum());
+        assertEquals(sha256(compressed.toByteArray()), writer.getCompressedChecksum());
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        return StringUtil.getHexString(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+}
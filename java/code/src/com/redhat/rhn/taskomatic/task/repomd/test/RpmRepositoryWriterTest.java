@@ -38,6 +38,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 
 public class RpmRepositoryWriterTest extends BaseTestCaseWithUser {
@@ -160,6 +163,45 @@ public class RpmRepositoryWriterTest extends BaseTestCaseWithUser {
         }
     }
 
+    public void testIncrementalRepomdFiles() throws Exception {
+        RpmRepositoryWriter writer = new RpmRepositoryWriter("rhn/repodata", mountPointDir.toAbsolutePath().toString());
+
+        Channel channel = ChannelFactoryTest.createTestChannel(user);
+        channel.setChecksumType(ChannelFactory.findChecksumTypeByLabel("sha256"));
+        PackageManagerTest.addPackageToChannel("pkginc1", channel);
+        PackageManagerTest.addPackageToChannel("pkginc2", channel);
+
+        HibernateFactory.getSession().flush();
+        HibernateFactory.getSession().clear();
+
+        writer.writeRepomdFiles(channel);
+        Path primaryXmlGz = mountPointDir.resolve("rhn").resolve("repodata").resolve(channel.getLabel())
+                .resolve("primary.xml.gz");
+        String primaryXml = readGzip(primaryXmlGz);
+
+        // the fragments were stored and are reused as is
+        try (Stream<PackageDto> packages = TaskManager.getChannelPackageFragmentStream(channel)) {
+            List<PackageDto> pkgs = packages.collect(Collectors.toList());
+            assertEquals(2, pkgs.size());
+            for (PackageDto pkg : pkgs) {
+                assertNotNull(pkg.getChecksum());
+                assertTrue(primaryXml.contains(pkg.getPrimaryXml()));
+                assertFalse(pkg.getFilelistXml().isEmpty());
+                assertFalse(pkg.getOtherXml().isEmpty());
+            }
+        }
+
+        channel = ChannelFactory.lookupById(channel.getId());
+        writer.writeRepomdFiles(channel);
+        assertEquals(primaryXml, readGzip(primaryXmlGz));
+    }
+
+    private String readGzip(Path path) throws IOException {
+        try (InputStream gzipStream = new GZIPInputStream(Files.newInputStream(path))) {
+            return TestUtils.readAll(gzipStream);
+        }
+    }
+
     private String cleanupRepomd(String str) {
         String ret = str.trim().replaceFirst("<checksum type=\"sha256\">.*</checksum>", "<checksum type=\"sha256\">xxx</checksum>");
         ret = ret.replaceFirst("<open-checksum type=\"sha256\">.*</open-checksum>", "<open-checksum type=\"sha256\">xxx</open-checksum>");
@@ -63,6 +63,14 @@ public interface QueueDriver {
      */
     boolean canContinue();
 
+    /**
+     * Called for the work items returned by getCandidates() which will not be run, because the queue
+     * stopped early or their worker could not be created or queued
+     * @param workItem the dropped work item
+     */
+    default void dropped(Object workItem) {
+    }
+
     /**
      * Actions that has to be executed, when queue is created
      */
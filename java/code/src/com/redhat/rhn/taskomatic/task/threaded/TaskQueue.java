@@ -14,30 +14,59 @@
  */
 package com.redhat.rhn.taskomatic.task.threaded;
 
+import com.redhat.rhn.common.conf.Config;
 import com.redhat.rhn.common.hibernate.HibernateFactory;
 import com.redhat.rhn.taskomatic.domain.TaskoRun;
 
-import java.util.List;
+import com.suse.manager.metrics.PrometheusExporter;
+import com.suse.manager.metrics.TaskQueueMetrics;
 
-import EDU.oswego.cs.dl.util.concurrent.Channel;
-import EDU.oswego.cs.dl.util.concurrent.LinkedQueue;
-import EDU.oswego.cs.dl.util.concurrent.PooledExecutor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Generic threaded queue suitable for use wherever Taskomatic
  * tasks need to process a number of work items in parallel.
+ *
+ * Work items are run by a thread pool sized by the driver, and kept for the
+ * whole life of the queue. Idle threads take the next item from the shared
+ * queue, so a long item does not hold back the others. At most
+ * taskomatic.QUEUE_queue_capacity items are pending at once, adding more items
+ * waits for some to complete.
  * @version $Rev$
  */
 public class TaskQueue {
 
+    private static final int DEFAULT_CAPACITY = 10000;
+    private static final long KEEP_ALIVE_MILLIS = 5000;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final String queueName;
     private QueueDriver queueDriver;
-    private PooledExecutor executor = null;
-    private int executingWorkers = 0;
-    private int queueSize = 0;
-    private byte[] emptyQueueWait = new byte[0];
-    private boolean taskQueueDone = true;
+    private ThreadPoolExecutor executor = null;
+    private Semaphore capacity;
+    private final AtomicInteger executingWorkers = new AtomicInteger();
+    private final AtomicInteger queueSize = new AtomicInteger();
+    private final ReentrantLock emptyQueueLock = new ReentrantLock();
+    private final Condition emptyQueue = emptyQueueLock.newCondition();
+    private volatile boolean taskQueueDone = true;
     private TaskoRun queueRun = null;
 
+    /**
+     * Constructor
+     * @param queueNameIn the queue name, used in metrics
+     */
+    public TaskQueue(String queueNameIn) {
+        queueName = queueNameIn;
+    }
+
     /**
      * Store the QueueDriver instance used when run() is called
      * @param driver to be used as the current QueueDriver
@@ -58,28 +87,30 @@ public class TaskQueue {
      * Callback all workers should call when starting
      * to process work
      */
-    public synchronized void workerStarting() {
-        executingWorkers++;
+    public void workerStarting() {
+        executingWorkers.incrementAndGet();
     }
 
     /**
      * Callback all workers should call when
      * finished with their work item
      */
-    public synchronized void workerDone() {
-        executingWorkers--;
-        queueSize--;
-        if (executingWorkers < 0) {
-            executingWorkers = 0;
-        }
-        if (queueSize < 0) {
-            queueSize = 0;
-        }
-        if (executingWorkers == 0) {
-            synchronized (emptyQueueWait) {
-                emptyQueueWait.notifyAll();
-            }
+    public void workerDone() {
+        executingWorkers.updateAndGet(i -> Math.max(0, i - 1));
+        queueSize.updateAndGet(i -> Math.max(0, i - 1));
+        signalIfEmpty();
+    }
+
+    private void signalIfEmpty() {
+        if (executingWorkers.get() == 0 && queueSize.get() == 0) {
             taskQueueDone = true;
+            emptyQueueLock.lock();
+            try {
+                emptyQueue.signalAll();
+            }
+            finally {
+                emptyQueueLock.unlock();
+            }
         }
     }
 
@@ -90,7 +121,7 @@ public class TaskQueue {
      * @return number of currently executing workers
      */
     public int getExecutingWorkerCount() {
-        return executingWorkers;
+        return executingWorkers.get();
     }
 
     /**
@@ -98,7 +129,7 @@ public class TaskQueue {
      * @return number of workers pending
      */
     public int getQueueSize() {
-        return queueSize;
+        return queueSize.get();
     }
 
     /**
@@ -106,32 +137,46 @@ public class TaskQueue {
      * case there is no new candidates and workers are all done.
      */
     public void run() {
-        shutdownExecutor();
-        Channel workers = new LinkedQueue();
+        setupExecutor();
         List candidates = queueDriver.getCandidates();
-        queueSize += candidates.size();
-        if (queueSize > 0) {
-            queueDriver.getLogger().info("In the queue: " + queueSize);
+        queueSize.addAndGet(candidates.size());
+        if (queueSize.get() > 0) {
+            queueDriver.getLogger().info("In the queue: " + queueSize.get());
         }
         while (candidates.size() > 0 && queueDriver.canContinue()) {
-            Object candidate = candidates.remove(0);
-            QueueWorker worker = queueDriver.makeWorker(candidate);
-            worker.setParentQueue(this);
+            Object candidate = candidates.get(0);
+            boolean acquired = false;
             try {
+                QueueWorker worker = queueDriver.makeWorker(candidate);
+                worker.setParentQueue(this);
                 queueDriver.getLogger().debug("Putting worker");
-                workers.put(worker);
-                queueDriver.getLogger().debug("Put worker");
+                capacity.acquire();
+                acquired = true;
                 unsetTaskQueueDone();
+                executor.execute(new TimedWorker(worker, candidate));
+                candidates.remove(0);
+                queueDriver.getLogger().debug("Put worker");
             }
             catch (InterruptedException e) {
                 queueDriver.getLogger().error(e);
+                drop(candidates);
                 HibernateFactory.commitTransaction();
                 HibernateFactory.closeSession();
                 HibernateFactory.getSession();
                 return;
             }
+            catch (RuntimeException e) {
+                // the worker could not be created or the executor is shut down
+                if (acquired) {
+                    capacity.release();
+                }
+                drop(candidates);
+                signalIfEmpty();
+                throw e;
+            }
         }
-        setupQueue(workers);
+        // candidates left when the driver stopped the run are not pending
+        drop(candidates);
         if (isTaskQueueDone()) {
             // everything done
             queueDriver.getLogger().debug("Finishing run " + queueRun.getId());
@@ -148,40 +193,99 @@ public class TaskQueue {
      * @throws InterruptedException the wait is interrupted
      */
     public void waitForEmptyQueue() throws InterruptedException {
-        synchronized (emptyQueueWait) {
-            emptyQueueWait.wait();
+        emptyQueueLock.lock();
+        try {
+            while (!isTaskQueueDone()) {
+                emptyQueue.await();
+            }
+        }
+        finally {
+            emptyQueueLock.unlock();
         }
     }
 
     void shutdown() {
-        executor.shutdownNow();
-        while (!executor.isTerminatedAfterShutdown()) {
-            try {
-                Thread.sleep(100);
+        if (executor == null) {
+            return;
+        }
+        List<Object> notStarted = new ArrayList<Object>();
+        for (Runnable runnable : executor.shutdownNow()) {
+            if (runnable instanceof TimedWorker) {
+                notStarted.add(((TimedWorker) runnable).workItem);
             }
-            catch (InterruptedException e) {
-                queueDriver.getLogger().error(e);
-                return;
+        }
+        drop(notStarted);
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                queueDriver.getLogger().warn("Workers still running after " + SHUTDOWN_TIMEOUT_SECONDS +
+                        " seconds");
             }
         }
+        catch (InterruptedException e) {
+            queueDriver.getLogger().error(e);
+            Thread.currentThread().interrupt();
+        }
     }
 
-    private void shutdownExecutor() {
-        if (executor != null) {
-            executor.shutdownAfterProcessingCurrentlyQueuedTasks();
-            executor = null;
+    /**
+     * Removes work items which will not be run from the queue, and tells the driver about them
+     * @param workItems the dropped work items
+     */
+    private void drop(List workItems) {
+        queueSize.addAndGet(-workItems.size());
+        for (Object workItem : workItems) {
+            queueDriver.dropped(workItem);
         }
     }
 
-    private void setupQueue(Channel workers) {
+    private synchronized void setupExecutor() {
         int maxPoolSize = queueDriver.getMaxWorkers();
-        executor = new PooledExecutor(workers);
-        executor.waitWhenBlocked();
-        executor.setThreadFactory(new TaskThreadFactory());
-        executor.setKeepAliveTime(5000);
-        executor.setMinimumPoolSize(1);
-        executor.setMaximumPoolSize(maxPoolSize);
-        executor.createThreads(maxPoolSize);
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(maxPoolSize, maxPoolSize, KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new TaskThreadFactory());
+            executor.allowCoreThreadTimeOut(true);
+            capacity = new Semaphore(Config.get().getInt("taskomatic." + queueName + "_queue_capacity",
+                    DEFAULT_CAPACITY));
+            PrometheusExporter.INSTANCE.registerThreadPool(executor, "taskomatic_" + queueName);
+        }
+        else if (executor.getMaximumPoolSize() != maxPoolSize) {
+            if (maxPoolSize > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(maxPoolSize);
+                executor.setCorePoolSize(maxPoolSize);
+            }
+            else {
+                executor.setCorePoolSize(maxPoolSize);
+                executor.setMaximumPoolSize(maxPoolSize);
+            }
+        }
+    }
+
+    /**
+     * Runs a worker, recording the time it waited for a thread and its processing time, and releasing its
+     * place in the queue when done
+     */
+    private class TimedWorker implements Runnable {
+
+        private final QueueWorker worker;
+        private final Object workItem;
+        private final long queuedAt = System.nanoTime();
+
+        TimedWorker(QueueWorker workerIn, Object workItemIn) {
+            worker = workerIn;
+            workItem = workItemIn;
+        }
+
+        @Override
+        public void run() {
+            long startedAt = System.nanoTime();
+            try {
+                worker.run();
+            }
+            finally {
+                capacity.release();
+                TaskQueueMetrics.itemProcessed(queueName, startedAt - queuedAt, System.nanoTime() - startedAt);
+            }
+        }
     }
 
     /**
@@ -215,11 +319,11 @@ public class TaskQueue {
         return queueRun;
     }
 
-    private synchronized boolean isTaskQueueDone() {
+    private boolean isTaskQueueDone() {
         return taskQueueDone;
     }
 
-    private synchronized void unsetTaskQueueDone() {
+    private void unsetTaskQueueDone() {
         taskQueueDone = false;
     }
 }
@@ -14,7 +14,7 @@
  */
 package com.redhat.rhn.taskomatic.task.threaded;
 
-import EDU.oswego.cs.dl.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * ThreadFactory impl for Taskomatic
@@ -25,6 +25,7 @@ public class TaskThreadFactory implements ThreadFactory {
     /**
      * {@inheritDoc}
      */
+    @Override
     public Thread newThread(Runnable task) {
         Thread retval = new Thread(task);
         retval.setDaemon(true);
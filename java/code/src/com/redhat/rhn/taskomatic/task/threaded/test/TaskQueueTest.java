@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.redhat.rhn.taskomatic.task.threaded.test;
+
+import com.redhat.rhn.taskomatic.task.threaded.QueueDriver;
+import com.redhat.rhn.taskomatic.task.threaded.QueueWorker;
+import com.redhat.rhn.taskomatic.task.threaded.TaskQueue;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link TaskQueue}.
+ */
+public class TaskQueueTest extends TestCase {
+
+    private static final int MAX_WORKERS = 3;
+    private static final int ITEMS = 20;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final AtomicInteger processed = new AtomicInteger();
+
+    public void testRun() throws Exception {
+        TaskQueue queue = new TaskQueue("test_queue");
+        queue.setQueueDriver(new TestDriver());
+
+        // workers wait until all of them are queued, so that the run is not finished
+        queue.run();
+        assertEquals(ITEMS, queue.getQueueSize());
+
+        release.countDown();
+        queue.waitForEmptyQueue();
+
+        assertEquals(ITEMS, processed.get());
+        assertEquals(0, queue.getQueueSize());
+        assertEquals(0, queue.getExecutingWorkerCount());
+        assertTrue(maxRunning.get() <= MAX_WORKERS);
+    }
+
+    public void testDroppedCandidates() throws Exception {
+        TestDriver driver = new TestDriver();
+        driver.failingItem = 5;
+        TaskQueue queue = new TaskQueue("test_queue_dropped");
+        queue.setQueueDriver(driver);
+
+        try {
+            queue.run();
+            fail("worker creation should have failed");
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+        // the failing item and the ones after it are handed back to the driver
+        assertEquals(ITEMS - 5, driver.dropped.size());
+        assertEquals(5, driver.dropped.get(0));
+        assertEquals(5, queue.getQueueSize());
+
+        release.countDown();
+        queue.waitForEmptyQueue();
+        assertEquals(5, processed.get());
+        assertEquals(0, queue.getQueueSize());
+    }
+
+    private class TestDriver implements QueueDriver {
+
+        private Logger logger = Logger.getLogger(TaskQueueTest.class);
+        private int failingItem = -1;
+        private final List<Object> dropped = new ArrayList<>();
+
+        @Override
+        public void setLogger(Logger loggerIn) {
+            logger = loggerIn;
+        }
+
+        @Override
+        public Logger getLogger() {
+            return logger;
+        }
+
+        @Override
+        public List getCandidates() {
+            List<Integer> candidates = new ArrayList<>();
+            for (int i = 0; i < ITEMS; i++) {
+                candidates.add(i);
+            }
+            return candidates;
+        }
+
+        @Override
+        public int getMaxWorkers() {
+            return MAX_WORKERS;
+        }
+
+        @Override
+        public QueueWorker makeWorker(Object workItem) {
+            if (workItem.equals(failingItem)) {
+                throw new IllegalStateException("worker " + workItem + " failed");
+            }
+            return new TestWorker();
+        }
+
+        @Override
+        public void dropped(Object workItem) {
+            dropped.add(workItem);
+        }
+
+        @Override
+        public boolean canContinue() {
+            return true;
+        }
+
+        @Override
+        public void initialize() {
+        }
+    }
+
+    private class TestWorker implements QueueWorker {
+
+        private TaskQueue parentQueue;
+
+        @Override
+        public void setParentQueue(TaskQueue queue) {
+            parentQueue = queue;
+        }
+
+        @Override
+        public void run() {
+            parentQueue.workerStarting();
+            try {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                release.await();
+                Thread.sleep(5);
+                processed.incrementAndGet();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                running.decrementAndGet();
+                parentQueue.workerDone();
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ import com.redhat.rhn.common.messaging.MessageQueue;
 import com.redhat.rhn.manager.satellite.StartupTasksCommand;
 import com.redhat.rhn.manager.satellite.UpgradeCommand;
 
+import com.suse.manager.metrics.PrometheusExporter;
 import com.suse.manager.reactor.SaltReactor;
 
 import com.suse.manager.webui.services.iface.SystemQuery;
@@ -100,6 +101,7 @@ public class RhnServletListener implements ServletContextListener {
 
     private void startHibernate() {
         HibernateFactory.createSessionFactory();
+        PrometheusExporter.INSTANCE.registerQueryMetrics();
         hibernateStarted = true;
     }
 
@@ -124,6 +126,9 @@ public class RhnServletListener implements ServletContextListener {
         startHibernate();
         logStart("Hibernate");
 
+        // replay messages left pending by a previous run, now that actions can use Hibernate
+        MessageQueue.startJournal("tomcat");
+
         // the following is not safe to run in the testsuite
         // and will be excluded from test runs
         if (sce != null) {
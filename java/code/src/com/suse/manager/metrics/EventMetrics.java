@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.suse.manager.metrics;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Metrics of the actions handling MessageQueue messages, labelled by action class, and of Salt events, labelled
+ * by tag pattern: time spent waiting to be handled, time spent handling, failures and number being handled.
+ *
+ * Metrics are always collected, but only exported once registered by {@link PrometheusExporter}.
+ */
+public final class EventMetrics {
+
+    private static final double[] WAIT_BUCKETS = {0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30, 60, 300, 900};
+    private static final double[] DURATION_BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+
+    private static final Histogram ACTION_WAIT = Histogram.build()
+            .name("message_queue_action_wait_seconds")
+            .help("Time messages waited in the message queue before being handled by an action")
+            .labelNames("action")
+            .buckets(WAIT_BUCKETS)
+            .create();
+    private static final Histogram ACTION_DURATION = Histogram.build()
+            .name("message_queue_action_duration_seconds")
+            .help("Time spent by actions handling messages")
+            .labelNames("action")
+            .buckets(DURATION_BUCKETS)
+            .create();
+    private static final Counter ACTION_FAILURES = Counter.build()
+            .name("message_queue_action_failures_total")
+            .help("Number of messages actions failed to handle")
+            .labelNames("action")
+            .create();
+    private static final Gauge ACTION_IN_FLIGHT = Gauge.build()
+            .name("message_queue_action_in_flight")
+            .help("Number of messages being handled by actions")
+            .labelNames("action")
+            .create();
+
+    private static final Histogram SALT_EVENT_WAIT = Histogram.build()
+            .name("salt_event_wait_seconds")
+            .help("Time Salt events waited since they were fired before being handled")
+            .labelNames("tag")
+            .buckets(WAIT_BUCKETS)
+            .create();
+    private static final Histogram SALT_EVENT_DURATION = Histogram.build()
+            .name("salt_event_duration_seconds")
+            .help("Time spent handling Salt events")
+            .labelNames("tag")
+            .buckets(DURATION_BUCKETS)
+            .create();
+    private static final Counter SALT_EVENT_FAILURES = Counter.build()
+            .name("salt_event_failures_total")
+            .help("Number of Salt events that failed to be handled")
+            .labelNames("tag")
+            .create();
+    private static final Gauge SALT_EVENT_IN_FLIGHT = Gauge.build()
+            .name("salt_event_in_flight")
+            .help("Number of Salt events being handled")
+            .labelNames("tag")
+            .create();
+
+    // tags contain job and minion ids, only keep their type to bound the number of labels
+    private static final Pattern JOB_RETURN_TAG = Pattern.compile("^salt/job/[^/]+/ret/[^/]+$");
+    private static final Pattern MINION_START_TAG = Pattern.compile("^salt/minion/[^/]+/start$");
+    private static final Pattern BATCH_START_TAG = Pattern.compile("^salt/batch/[^/]+/start$");
+    private static final Pattern BEACON_TAG = Pattern.compile("^salt/beacon/[^/]+/([^/]+).*$");
+    private static final Pattern ENGINE_TAG = Pattern.compile("^salt/engines/([^/]+).*$");
+
+    private EventMetrics() {
+    }
+
+    /**
+     * Registers all metrics to the default Prometheus registry.
+     */
+    static void register() {
+        register(CollectorRegistry.defaultRegistry);
+    }
+
+    /**
+     * Registers all metrics to a Prometheus registry.
+     * @param registry the registry
+     */
+    public static void register(CollectorRegistry registry) {
+        ACTION_WAIT.register(registry);
+        ACTION_DURATION.register(registry);
+        ACTION_FAILURES.register(registry);
+        ACTION_IN_FLIGHT.register(registry);
+        SALT_EVENT_WAIT.register(registry);
+        SALT_EVENT_DURATION.register(registry);
+        SALT_EVENT_FAILURES.register(registry);
+        SALT_EVENT_IN_FLIGHT.register(registry);
+    }
+
+    /**
+     * Records that an action started handling a message.
+     * @param action the action class name
+     * @param waitNanos the time the message waited in the queue, in nanoseconds, negative if not known
+     * @return the start time, to be passed to {@link #actionFinished(String, long, boolean)}
+     */
+    public static long actionStarted(String action, long waitNanos) {
+        if (waitNanos >= 0) {
+            ACTION_WAIT.labels(action).observe(toSeconds(waitNanos));
+        }
+        ACTION_IN_FLIGHT.labels(action).inc();
+        return System.nanoTime();
+    }
+
+    /**
+     * Records that an action finished handling a message.
+     * @param action the action class name
+     * @param startNanos the start time as returned by {@link #actionStarted(String, long)}
+     * @param failed true if the action failed
+     */
+    public static void actionFinished(String action, long startNanos, boolean failed) {
+        ACTION_IN_FLIGHT.labels(action).dec();
+        ACTION_DURATION.labels(action).observe(toSeconds(System.nanoTime() - startNanos));
+        if (failed) {
+            ACTION_FAILURES.labels(action).inc();
+        }
+    }
+
+    /**
+     * Records that a Salt event started being handled.
+     * @param tag the event tag
+     * @param stamp the _stamp field of the event data, the UTC time it was fired, null if not known
+     * @return the start time, to be passed to {@link #saltEventFinished(String, long, boolean)}
+     */
+    public static long saltEventStarted(String tag, Object stamp) {
+        String label = tagPattern(tag);
+        if (stamp != null) {
+            try {
+                LocalDateTime fired = LocalDateTime.parse(stamp.toString());
+                Duration wait = Duration.between(fired, LocalDateTime.now(ZoneOffset.UTC));
+                SALT_EVENT_WAIT.labels(label).observe(Math.max(0, toSeconds(wait.toNanos())));
+            }
+            catch (DateTimeParseException | ArithmeticException e) {
+                // not a Salt timestamp, do not observe
+            }
+        }
+        SALT_EVENT_IN_FLIGHT.labels(label).inc();
+        return System.nanoTime();
+    }
+
+    /**
+     * Records that a Salt event finished being handled.
+     * @param tag the event tag
+     * @param startNanos the start time as returned by {@link #saltEventStarted(String, Object)}
+     * @param failed true if handling failed
+     */
+    public static void saltEventFinished(String tag, long startNanos, boolean failed) {
+        String label = tagPattern(tag);
+        SALT_EVENT_IN_FLIGHT.labels(label).dec();
+        SALT_EVENT_DURATION.labels(label).observe(toSeconds(System.nanoTime() - startNanos));
+        if (failed) {
+            SALT_EVENT_FAILURES.labels(label).inc();
+        }
+    }
+
+    /**
+     * Returns the pattern of a Salt event tag, with job and minion ids replaced by *.
+     * @param tag the tag
+     * @return the pattern
+     */
+    public static String tagPattern(String tag) {
+        if (tag == null) {
+            return "other";
+        }
+        if (JOB_RETURN_TAG.matcher(tag).matches()) {
+            return "salt/job/*/ret/*";
+        }
+        if (MINION_START_TAG.matcher(tag).matches()) {
+            return "salt/minion/*/start";
+        }
+        if (BATCH_START_TAG.matcher(tag).matches()) {
+            return "salt/batch/*/start";
+        }
+        Matcher beacon = BEACON_TAG.matcher(tag);
+        if (beacon.matches()) {
+            return "salt/beacon/*/" + beacon.group(1);
+        }
+        Matcher engine = ENGINE_TAG.matcher(tag);
+        if (engine.matches()) {
+            return "salt/engines/" + engine.group(1);
+        }
+        return tag.startsWith("suse/") ? tag : "other";
+    }
+
+    private static double toSeconds(long nanos) {
+        return (double) nanos / TimeUnit.SECONDS.toNanos(1);
+    }
+}
@@ -15,11 +15,13 @@
 package com.suse.manager.metrics;
 
 import com.redhat.rhn.common.conf.ConfigDefaults;
+import com.suse.manager.reactor.SaltEventQueue;
 import io.prometheus.client.exporter.HTTPServer;
 import org.apache.log4j.Logger;
 import org.quartz.Scheduler;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.ThreadPoolExecutor;
 
 /**
@@ -36,6 +38,13 @@ public enum PrometheusExporter {
     // Listening port for non-Servlet based applications
     private static final int PORT = 9800;
 
+    // Salt event queues are recreated on reconnection, so their collector is registered only once
+    private SaltEventQueueCollector saltEventQueueCollector;
+    private boolean eventMetricsRegistered = false;
+    private boolean queryMetricsRegistered = false;
+    private boolean repodataMetricsRegistered = false;
+    private boolean taskQueueMetricsRegistered = false;
+
     /**
      * Starts an HTTP server serving metrics. To be used outside of J2EE applications.
      */
@@ -61,6 +70,60 @@ public enum PrometheusExporter {
         }
     }
 
+    /**
+     * Registers the Salt event queues for monitoring, replacing any previously registered ones.
+     * @param queues the queues
+     */
+    public synchronized void registerSaltEventQueues(List<SaltEventQueue> queues) {
+        if (ENABLED) {
+            if (saltEventQueueCollector == null) {
+                saltEventQueueCollector = new SaltEventQueueCollector();
+                saltEventQueueCollector.register();
+            }
+            saltEventQueueCollector.setQueues(queues);
+        }
+    }
+
+    /**
+     * Registers the metrics of message actions and Salt events, see {@link EventMetrics}.
+     */
+    public synchronized void registerEventMetrics() {
+        if (ENABLED && !eventMetricsRegistered) {
+            EventMetrics.register();
+            eventMetricsRegistered = true;
+        }
+    }
+
+    /**
+     * Registers the metrics of datasource queries, see {@link QueryMetrics}.
+     */
+    public synchronized void registerQueryMetrics() {
+        if (ENABLED && !queryMetricsRegistered) {
+            QueryMetrics.register();
+            queryMetricsRegistered = true;
+        }
+    }
+
+    /**
+     * Registers the metrics of channel repodata generation, see {@link RepodataMetrics}.
+     */
+    public synchronized void registerRepodataMetrics() {
+        if (ENABLED && !repodataMetricsRegistered) {
+            RepodataMetrics.register();
+            repodataMetricsRegistered = true;
+        }
+    }
+
+    /**
+     * Registers the metrics of taskomatic queue work items, see {@link TaskQueueMetrics}.
+     */
+    public synchronized void registerTaskQueueMetrics() {
+        if (ENABLED && !taskQueueMetricsRegistered) {
+            TaskQueueMetrics.register();
+            taskQueueMetricsRegistered = true;
+        }
+    }
+
     /**
      * Registers a Scheduler for monitoring.
      * @param scheduler a scheduler
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.suse.manager.metrics;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics of the datasource queries defined in the *_queries.xml files, labelled by file, mode and statement
+ * (the driving query or an elaborator): execution time, rows returned, elaborator round trips and the number of
+ * statements IN clauses were split into.
+ *
+ * Metrics are always collected, but only exported once registered by {@link PrometheusExporter}.
+ */
+public final class QueryMetrics {
+
+    /**
+     * Label of queries created outside of ModeFactory.
+     */
+    public static final String UNKNOWN = "unknown";
+
+    private static final double[] DURATION_BUCKETS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5,
+            10, 30, 60};
+
+    private static final Histogram QUERY_DURATION = Histogram.build()
+            .name("datasource_query_duration_seconds")
+            .help("Time spent executing datasource queries and reading their results")
+            .labelNames("file", "mode", "statement")
+            .buckets(DURATION_BUCKETS)
+            .create();
+    private static final Counter QUERY_ROWS = Counter.build()
+            .name("datasource_query_rows_total")
+            .help("Number of rows returned by datasource queries")
+            .labelNames("file", "mode", "statement")
+            .create();
+    private static final Counter ELABORATOR_ROUND_TRIPS = Counter.build()
+            .name("datasource_elaborator_round_trips_total")
+            .help("Number of statements executed by datasource elaborators")
+            .labelNames("file", "mode", "statement")
+            .create();
+    private static final Counter IN_CLAUSE_CHUNKS = Counter.build()
+            .name("datasource_in_clause_chunks_total")
+            .help("Number of statements datasource queries with an IN clause were split into")
+            .labelNames("file", "mode", "statement")
+            .create();
+
+    private QueryMetrics() {
+    }
+
+    /**
+     * Registers all metrics to the default Prometheus registry.
+     */
+    static void register() {
+        register(CollectorRegistry.defaultRegistry);
+    }
+
+    /**
+     * Registers all metrics to a Prometheus registry.
+     * @param registry the registry
+     */
+    public static void register(CollectorRegistry registry) {
+        QUERY_DURATION.register(registry);
+        QUERY_ROWS.register(registry);
+        ELABORATOR_ROUND_TRIPS.register(registry);
+        IN_CLAUSE_CHUNKS.register(registry);
+    }
+
+    /**
+     * Records the execution of a statement.
+     * @param file the query file
+     * @param mode the mode name
+     * @param statement the statement, "query" or the elaborator name
+     * @param nanos the execution time, in nanoseconds
+     * @param elaborator true if the statement elaborated results of a driving query
+     */
+    public static void queryExecuted(String file, String mode, String statement, long nanos, boolean elaborator) {
+        QUERY_DURATION.labels(file, mode, statement).observe((double) nanos / TimeUnit.SECONDS.toNanos(1));
+        if (elaborator) {
+            ELABORATOR_ROUND_TRIPS.labels(file, mode, statement).inc();
+        }
+    }
+
+    /**
+     * Records the rows read from the results of a statement.
+     * @param file the query file
+     * @param mode the mode name
+     * @param statement the statement, "query" or the elaborator name
+     * @param rows the number of rows
+     */
+    public static void rowsReturned(String file, String mode, String statement, int rows) {
+        QUERY_ROWS.labels(file, mode, statement).inc(rows);
+    }
+
+    /**
+     * Records the number of statements an IN clause was split into.
+     * @param file the query file
+     * @param mode the mode name
+     * @param statement the statement, "query" or the elaborator name
+     * @param chunks the number of statements
+     */
+    public static void inClauseChunks(String file, String mode, String statement, int chunks) {
+        IN_CLAUSE_CHUNKS.labels(file, mode, statement).inc(chunks);
+    }
+}
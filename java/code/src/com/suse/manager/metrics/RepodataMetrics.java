@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.suse.manager.metrics;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics of the channel repodata generation, labelled by channel: time spent waiting in the queue and
+ * generating repodata for the last generation, and number of generations.
+ *
+ * Metrics are always collected, but only exported once registered by {@link PrometheusExporter}.
+ */
+public final class RepodataMetrics {
+
+    private static final Gauge QUEUE_WAIT = Gauge.build()
+            .name("channel_repodata_queue_wait_seconds")
+            .help("Time the last repodata generation of the channel waited in the queue")
+            .labelNames("channel")
+            .create();
+    private static final Gauge DURATION = Gauge.build()
+            .name("channel_repodata_duration_seconds")
+            .help("Duration of the last repodata generation of the channel")
+            .labelNames("channel")
+            .create();
+    private static final Counter GENERATIONS = Counter.build()
+            .name("channel_repodata_generations_total")
+            .help("Number of repodata generations of the channel, by result")
+            .labelNames("channel", "result")
+            .create();
+
+    private RepodataMetrics() {
+    }
+
+    /**
+     * Registers all metrics to the default Prometheus registry.
+     */
+    static void register() {
+        QUEUE_WAIT.register();
+        DURATION.register();
+        GENERATIONS.register();
+    }
+
+    /**
+     * Records a repodata generation.
+     * @param channelLabel the channel label
+     * @param waitMillis the time spent in the queue, in milliseconds
+     * @param durationMillis the generation time, in milliseconds
+     * @param result the result: generated, skipped or failed
+     */
+    public static void generationFinished(String channelLabel, long waitMillis, long durationMillis,
+            String result) {
+        double millisPerSecond = TimeUnit.SECONDS.toMillis(1);
+        QUEUE_WAIT.labels(channelLabel).set(waitMillis / millisPerSecond);
+        DURATION.labels(channelLabel).set(durationMillis / millisPerSecond);
+        GENERATIONS.labels(channelLabel, result).inc();
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.suse.manager.metrics;
+
+import com.suse.manager.reactor.SaltEventQueue;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collector for the queues processing Salt events, labelled by queue index.
+ */
+public class SaltEventQueueCollector extends Collector {
+
+    private static final String PREFIX = "salt_event_queue";
+    private static final List<String> LABELS = Collections.singletonList("queue");
+
+    private volatile List<SaltEventQueue> queues = Collections.emptyList();
+
+    /**
+     * Sets the queues to collect metrics from.
+     * @param queuesIn the queues
+     */
+    public void setQueues(List<SaltEventQueue> queuesIn) {
+        this.queues = queuesIn;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        GaugeMetricFamily lag = new GaugeMetricFamily(PREFIX + "_lag",
+                PREFIX + " - Estimated number of events waiting to be processed", LABELS);
+        GaugeMetricFamily active = new GaugeMetricFamily(PREFIX + "_active_jobs",
+                PREFIX + " - Number of jobs queued or running", LABELS);
+        GaugeMetricFamily deferred = new GaugeMetricFamily(PREFIX + "_deferred_jobs",
+                PREFIX + " - Number of jobs waiting for credits", LABELS);
+        GaugeMetricFamily capacity = new GaugeMetricFamily(PREFIX + "_capacity",
+                PREFIX + " - Maximum number of jobs queued or running", LABELS);
+        CounterMetricFamily completed = new CounterMetricFamily(PREFIX + "_completed_jobs",
+                PREFIX + " - Number of jobs ever completed", LABELS);
+
+        for (SaltEventQueue queue : queues) {
+            List<String> labelValues = Collections.singletonList(String.valueOf(queue.getIndex()));
+            lag.addMetric(labelValues, queue.getLag());
+            active.addMetric(labelValues, queue.getActiveJobs());
+            deferred.addMetric(labelValues, queue.getDeferredJobs());
+            capacity.addMetric(labelValues, queue.getCapacity());
+            completed.addMetric(labelValues, queue.getCompletedJobs());
+        }
+
+        List<MetricFamilySamples> out = new ArrayList<>();
+        out.add(lag);
+        out.add(active);
+        out.add(deferred);
+        out.add(capacity);
+        out.add(completed);
+        return out;
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.suse.manager.metrics;
+
+import io.prometheus.client.Histogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics of the work items of taskomatic queues, labelled by queue: time spent waiting for a worker thread
+ * and processing time. Queue depth and worker utilization are exported by the {@link ThreadPoolCollector}
+ * of each queue.
+ *
+ * Metrics are always collected, but only exported once registered by {@link PrometheusExporter}.
+ */
+public final class TaskQueueMetrics {
+
+    private static final double[] DURATION_BUCKETS = {0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30, 60, 300, 900, 3600};
+
+    private static final Histogram WAIT = Histogram.build()
+            .name("taskomatic_queue_item_wait_seconds")
+            .help("Time taskomatic queue work items waited for a worker thread")
+            .labelNames("queue")
+            .buckets(DURATION_BUCKETS)
+            .create();
+    private static final Histogram DURATION = Histogram.build()
+            .name("taskomatic_queue_item_duration_seconds")
+            .help("Processing time of taskomatic queue work items")
+            .labelNames("queue")
+            .buckets(DURATION_BUCKETS)
+            .create();
+
+    private TaskQueueMetrics() {
+    }
+
+    /**
+     * Registers all metrics to the default Prometheus registry.
+     */
+    static void register() {
+        WAIT.register();
+        DURATION.register();
+    }
+
+    /**
+     * Records a processed work item.
+     * @param queue the queue name
+     * @param waitNanos the time spent waiting for a thread, in nanoseconds
+     * @param durationNanos the processing time, in nanoseconds
+     */
+    public static void itemProcessed(String queue, long waitNanos, long durationNanos) {
+        double nanosPerSecond = TimeUnit.SECONDS.toNanos(1);
+        WAIT.labels(queue).observe(waitNanos / nanosPerSecond);
+        DURATION.labels(queue).observe(durationNanos / nanosPerSecond);
+    }
+}
@@ -50,6 +50,11 @@ public class ThreadPoolCollector extends Collector {
                 "Number of tasks ever submitted", this.pool.getTaskCount(), this.poolId));
         out.add(CustomCollectorUtils.counterFor("thread_pool_completed_task_count",
                 "Number of tasks ever completed", this.pool.getCompletedTaskCount(), this.poolId));
+        out.add(CustomCollectorUtils.gaugeFor("thread_pool_queue_size",
+                "Number of tasks waiting for a thread", this.pool.getQueue().size(), this.poolId));
+        out.add(CustomCollectorUtils.gaugeFor("thread_pool_utilization",
+                "Ratio of active threads to the maximum number of threads",
+                (double) this.pool.getActiveCount() / this.pool.getMaximumPoolSize(), this.poolId));
 
         return out;
     }
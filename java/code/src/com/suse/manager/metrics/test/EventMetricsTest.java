@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.suse.manager.metrics.test;
+
+import com.suse.manager.metrics.EventMetrics;
+
+import io.prometheus.client.CollectorRegistry;
+import junit.framework.TestCase;
+
+/**
+ * Test for {@link EventMetrics}
+ */
+public class EventMetricsTest extends TestCase {
+
+    private static final String[] ACTION = {"action"};
+    private static final String[] TAG = {"tag"};
+
+    private CollectorRegistry registry;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        registry = new CollectorRegistry();
+        EventMetrics.register(registry);
+    }
+
+    public void testTagPattern() {
+        assertEquals("salt/job/*/ret/*", EventMetrics.tagPattern("salt/job/20200413093158123456/ret/minion1"));
+        assertEquals("salt/minion/*/start", EventMetrics.tagPattern("salt/minion/minion1.example.com/start"));
+        assertEquals("salt/batch/*/start", EventMetrics.tagPattern("salt/batch/20200413093158123456/start"));
+        assertEquals("salt/beacon/*/pkgset", EventMetrics.tagPattern("salt/beacon/minion1/pkgset/"));
+        assertEquals("salt/engines/libvirt_events",
+                EventMetrics.tagPattern("salt/engines/libvirt_events/host1/domain/lifecycle"));
+        assertEquals("suse/systemid/generate", EventMetrics.tagPattern("suse/systemid/generate"));
+        assertEquals("other", EventMetrics.tagPattern("salt/auth"));
+        assertEquals("other", EventMetrics.tagPattern(null));
+    }
+
+    public void testActionStartedAndFinished() {
+        String[] action = {"TestAction"};
+        double waitCount = sample("message_queue_action_wait_seconds_count", ACTION, action);
+        double waitSum = sample("message_queue_action_wait_seconds_sum", ACTION, action);
+        double durationCount = sample("message_queue_action_duration_seconds_count", ACTION, action);
+        double failures = sample("message_queue_action_failures_total", ACTION, action);
+        double inFlight = sample("message_queue_action_in_flight", ACTION, action);
+
+        long start = EventMetrics.actionStarted("TestAction", 1_000_000);
+        assertEquals(inFlight + 1, sample("message_queue_action_in_flight", ACTION, action));
+        EventMetrics.actionFinished("TestAction", start, true);
+        // unknown wait times are not observed
+        start = EventMetrics.actionStarted("TestAction", -1);
+        EventMetrics.actionFinished("TestAction", start, false);
+
+        assertEquals(waitCount + 1, sample("message_queue_action_wait_seconds_count", ACTION, action));
+        assertEquals(waitSum + 0.001, sample("message_queue_action_wait_seconds_sum", ACTION, action), 1e-9);
+        assertEquals(durationCount + 2, sample("message_queue_action_duration_seconds_count", ACTION, action));
+        assertEquals(failures + 1, sample("message_queue_action_failures_total", ACTION, action));
+        assertEquals(inFlight, sample("message_queue_action_in_flight", ACTION, action));
+    }
+
+    public void testSaltEventStartedAndFinished() {
+        String[] tag = {"salt/minion/*/start"};
+        double waitCount = sample("salt_event_wait_seconds_count", TAG, tag);
+        double durationCount = sample("salt_event_duration_seconds_count", TAG, tag);
+        double failures = sample("salt_event_failures_total", TAG, tag);
+        double inFlight = sample("salt_event_in_flight", TAG, tag);
+
+        long start = EventMetrics.saltEventStarted("salt/minion/minion1/start", "2020-04-13T09:31:58.123456");
+        assertEquals(inFlight + 1, sample("salt_event_in_flight", TAG, tag));
+        EventMetrics.saltEventFinished("salt/minion/minion1/start", start, false);
+
+        assertEquals(waitCount + 1, sample("salt_event_wait_seconds_count", TAG, tag));
+        assertEquals(durationCount + 1, sample("salt_event_duration_seconds_count", TAG, tag));
+        assertEquals(failures, sample("salt_event_failures_total", TAG, tag));
+        assertEquals(inFlight, sample("salt_event_in_flight", TAG, tag));
+        // the minion id is not a label
+        assertNull(registry.getSampleValue("salt_event_duration_seconds_count", TAG,
+                new String[] {"salt/minion/minion1/start"}));
+
+        // unparsable stamps are not observed, the handling is
+        start = EventMetrics.saltEventStarted("salt/minion/minion1/start", "yesterday");
+        EventMetrics.saltEventFinished("salt/minion/minion1/start", start, true);
+
+        assertEquals(waitCount + 1, sample("salt_event_wait_seconds_count", TAG, tag));
+        assertEquals(durationCount + 2, sample("salt_event_duration_seconds_count", TAG, tag));
+        assertEquals(failures + 1, sample("salt_event_failures_total", TAG, tag));
+    }
+
+    /**
+     * Returns the value of a sample, 0 if it was never recorded.
+     */
+    private double sample(String name, String[] labelNames, String[] labelValues) {
+        Double value = registry.getSampleValue(name, labelNames, labelValues);
+        return value == null ? 0 : value;
+    }
+}
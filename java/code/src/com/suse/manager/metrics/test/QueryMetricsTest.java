@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.suse.manager.metrics.test;
+
+import com.suse.manager.metrics.QueryMetrics;
+
+import io.prometheus.client.CollectorRegistry;
+import junit.framework.TestCase;
+
+/**
+ * Test for {@link QueryMetrics}
+ */
+public class QueryMetricsTest extends TestCase {
+
+    private static final String[] LABELS = {"file", "mode", "statement"};
+
+    private CollectorRegistry registry;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        registry = new CollectorRegistry();
+        QueryMetrics.register(registry);
+    }
+
+    public void testRecorded() {
+        String[] query = {"test_queries", "find_all_in_table", "query"};
+        String[] elaborator = {"test_queries", "find_all_in_table", "adv_elab"};
+        String[] inClause = {"test_queries", "select_in", "query"};
+        double queryCount = sample("datasource_query_duration_seconds_count", query);
+        double querySum = sample("datasource_query_duration_seconds_sum", query);
+        double elaboratorCount = sample("datasource_query_duration_seconds_count", elaborator);
+        double queryTrips = sample("datasource_elaborator_round_trips_total", query);
+        double elaboratorTrips = sample("datasource_elaborator_round_trips_total", elaborator);
+        double rows = sample("datasource_query_rows_total", query);
+        double chunks = sample("datasource_in_clause_chunks_total", inClause);
+
+        QueryMetrics.queryExecuted("test_queries", "find_all_in_table", "query", 1_000_000, false);
+        QueryMetrics.queryExecuted("test_queries", "find_all_in_table", "adv_elab", 1_000_000, true);
+        QueryMetrics.rowsReturned("test_queries", "find_all_in_table", "query", 10);
+        QueryMetrics.inClauseChunks("test_queries", "select_in", "query", 3);
+
+        assertEquals(queryCount + 1, sample("datasource_query_duration_seconds_count", query));
+        assertEquals(querySum + 0.001, sample("datasource_query_duration_seconds_sum", query), 1e-9);
+        assertEquals(elaboratorCount + 1, sample("datasource_query_duration_seconds_count", elaborator));
+        // only elaborators count as round trips
+        assertEquals(queryTrips, sample("datasource_elaborator_round_trips_total", query));
+        assertEquals(elaboratorTrips + 1, sample("datasource_elaborator_round_trips_total", elaborator));
+        assertEquals(rows + 10, sample("datasource_query_rows_total", query));
+        assertEquals(chunks + 3, sample("datasource_in_clause_chunks_total", inClause));
+    }
+
+    /**
+     * Returns the value of a sample, 0 if it was never recorded.
+     */
+    private double sample(String name, String[] labelValues) {
+        Double value = registry.getSampleValue(name, LABELS, labelValues);
+        return value == null ? 0 : value;
+    }
+}
@@ -17,12 +17,15 @@ package com.suse.manager.reactor;
 import com.redhat.rhn.common.messaging.EventMessage;
 import com.redhat.rhn.common.messaging.MessageAction;
 import com.redhat.rhn.common.messaging.MessageQueue;
+import com.suse.manager.metrics.EventMetrics;
 
 import com.suse.salt.netapi.datatypes.Event;
 import com.suse.salt.netapi.event.EventListener;
 import org.apache.log4j.Logger;
 
+import java.util.List;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -61,22 +64,46 @@ public class PGEventListener implements EventListener {
      */
     @Override
     public void notify(Event event) {
+        handle(event, eventToMessages.apply(event));
+    }
+
+    /**
+     * Maps an event to messages and prepares their execution, see {@link MessageAction#prepare(EventMessage)}.
+     * This can be called concurrently for different events, the returned handlers must then be run in event
+     * order instead of calling {@link #notify(Event)}.
+     *
+     * @param event the event
+     * @return the handler executing the prepared messages
+     */
+    public Runnable prepare(Event event) {
+        List<EventMessage> messages = eventToMessages.apply(event).collect(Collectors.toList());
+        messages.forEach(message -> MessageQueue.getActionsFor(message).forEach(action -> action.prepare(message)));
+        return () -> handle(event, messages.stream());
+    }
+
+    private void handle(Event event, Stream<EventMessage> messages) {
         if (LOG.isTraceEnabled()) {
             LOG.trace("Event: " + event.getTag() + " -> " + event.getData());
         }
 
-        Stream<EventMessage> messages = eventToMessages.apply(event);
         messages.forEach(message -> {
             Stream<MessageAction> actions = MessageQueue.getActionsFor(message);
 
             actions.forEach(action -> {
+                String actionName = action.getClass().getSimpleName();
+                long start = EventMetrics.actionStarted(actionName, -1);
+                boolean failed = true;
                 try {
                     action.execute(message);
+                    failed = false;
                 }
                 catch (Exception e) {
                     LOG.error("Unexpected exception while executing a MessageAction", e);
                     throw new PGEventListenerException(() -> action.getExceptionHandler().accept(e));
                 }
+                finally {
+                    EventMetrics.actionFinished(actionName, start, failed);
+                }
             });
         });
     }
@@ -24,31 +24,46 @@ import com.redhat.rhn.common.conf.ConfigDefaults;
 import com.redhat.rhn.domain.reactor.SaltEvent;
 import com.redhat.rhn.domain.reactor.SaltEventFactory;
 import com.redhat.rhn.frontend.events.TransactionHelper;
+import com.suse.manager.metrics.EventMetrics;
+import com.suse.manager.metrics.PrometheusExporter;
 
 import com.impossibl.postgres.api.jdbc.PGConnection;
 import com.impossibl.postgres.api.jdbc.PGNotificationListener;
 import com.impossibl.postgres.jdbc.PGDataSource;
+import com.suse.salt.netapi.datatypes.Event;
 import com.suse.salt.netapi.event.AbstractEventStream;
+import com.suse.salt.netapi.event.EventListener;
 import com.suse.salt.netapi.exception.SaltException;
 import com.suse.salt.netapi.parser.JsonParser;
 import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.log4j.Logger;
 
+import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.LongStream;
-import java.util.stream.Stream;
 
 /**
  * Listen for notifications from the Postgres database (suseSaltEvent) and react on those.
@@ -58,20 +73,52 @@ public class PGEventStream extends AbstractEventStream implements PGNotification
     private static final Logger LOG = Logger.getLogger(PGEventStream.class);
     private static final int MAX_EVENTS_PER_COMMIT = ConfigDefaults.get().getSaltEventsPerCommit();
     private static final int THREAD_POOL_SIZE = ConfigDefaults.get().getSaltEventThreadPoolSize();
+    private static final int SLOTS = ConfigDefaults.get().getSaltEventSlots();
+    private static final boolean ADAPTIVE_BATCH = ConfigDefaults.get().isSaltEventsAdaptiveBatch();
+    private static final int MAX_ADAPTIVE_EVENTS_PER_COMMIT = ConfigDefaults.get().getSaltEventsMaxPerCommit();
+
+    private static final int QUEUE_CAPACITY = ConfigDefaults.get().getSaltEventQueueCapacity();
+
+    // channel used to report the lag of each queue back to mgr_events.py
+    private static final String ACK_CHANNEL = "suseSaltEventAck";
+    private static final long FLOW_CONTROL_INTERVAL = 1_000;
+    private static final int WATCHDOG_INTERVAL_TICKS = 5;
+    private static final Pattern STAMP = Pattern.compile("\"_stamp\"\\s*:\\s*\"[^\"]*\"");
+
+    // slots (queues in suseSaltEvent) being processed. Shared by all instances, as a closed stream may still be
+    // running jobs, so that events of a minion are never processed by two threads at the same time
+    private static final Set<Integer> BUSY_SLOTS = ConcurrentHashMap.newKeySet();
 
     private PGConnection connection;
-    private final List<ThreadPoolExecutor> executorServices = IntStream.range(0, THREAD_POOL_SIZE + 1).mapToObj(i ->
-        new ThreadPoolExecutor(
-            1,
-            1,
-            0L,
-            TimeUnit.MILLISECONDS,
-            new LinkedBlockingQueue<Runnable>(),
-            new BasicThreadFactory.Builder()
-                .namingPattern(i == 0 ? "salt-global-event-thread-%d" : String.format("salt-event-thread-%d", i))
-                .build()
-        )
-    ).collect(Collectors.toList());
+    private volatile SaltEventShards shards = new SaltEventShards(THREAD_POOL_SIZE);
+    private volatile List<SaltEventQueue> queues = IntStream.range(0, THREAD_POOL_SIZE)
+            .mapToObj(this::newQueue)
+            .collect(Collectors.toList());
+
+    // number of notified events not yet popped, by slot
+    private final Map<Integer, AtomicLong> slotBacklogs = new ConcurrentHashMap<>();
+    // number of jobs that found their slot busy, to be scheduled again once it is released
+    private final Map<Integer, Long> missedJobs = new ConcurrentHashMap<>();
+
+    // parses event payloads ahead of the worker threads when adaptive batching is enabled
+    private final ExecutorService parserService = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new BasicThreadFactory.Builder().namingPattern("salt-event-parser-%d").daemon(true).build()
+    );
+
+    // the listener preparing its handling of events concurrently in the parser threads, null if none
+    private volatile EventPreparer eventPreparer;
+
+    // the registered listeners, in registration order, also kept by the superclass
+    private final List<EventListener> listeners = new CopyOnWriteArrayList<>();
+
+    // tags of the events listeners handle, others are dropped without parsing their data
+    private volatile Predicate<String> tagFilter = tag -> true;
+
+    // highest event id found by the previous repair scan
+    private long repairWatermark = 0;
+    private List<Long> lastAckedLags = null;
+    private long configModified = new File(Config.getDefaultConfigFilePath()).lastModified();
 
     /**
      * Default constructor, connects to Postgres and waits for events.
@@ -96,55 +143,198 @@ public class PGEventStream extends AbstractEventStream implements PGNotification
             stmt.execute("LISTEN suseSaltEvent");
             stmt.close();
 
-            startConnectionWatchdog();
+            PrometheusExporter.INSTANCE.registerSaltEventQueues(queues);
+            PrometheusExporter.INSTANCE.registerEventMetrics();
 
             LOG.debug("Listening succeeded, making sure there is no event left in queue...");
-            notification(SaltEventFactory.countSaltEvents(THREAD_POOL_SIZE + 1));
+            repairWatermark = SaltEventFactory.getMaxSaltEventId();
+            notification(SaltEventFactory.countSaltEvents(getSlotCount()));
+
+            startFlowControl();
         }
         catch (SQLException e) {
             throw new SaltException(e);
         }
     }
 
+    private SaltEventQueue newQueue(int index) {
+        return new SaltEventQueue(index, QUEUE_CAPACITY,
+                ADAPTIVE_BATCH ? MAX_ADAPTIVE_EVENTS_PER_COMMIT : MAX_EVENTS_PER_COMMIT,
+                this::runJob, this::stealJob);
+    }
+
     /**
-     * Checks every 5s that the connection is alive. If not, notifies all listeners that we are shutting down.
-     * Additionally, a cleanup of possible stale events is fired.
+     * Changes the number of threads processing events. Slots are moved to or from the added or removed threads
+     * only, and events of a minion keep being processed in order.
+     * @param shardCount the new number of threads
+     */
+    public synchronized void resize(int shardCount) {
+        SaltEventShards previous = shards;
+        if (shardCount == previous.getShardCount()) {
+            return;
+        }
+        LOG.info("Resizing Salt event thread pool from " + previous.getShardCount() + " to " + shardCount);
+        List<SaltEventQueue> previousQueues = queues;
+        SaltEventShards next = new SaltEventShards(shardCount);
+        List<SaltEventQueue> nextQueues = IntStream.range(0, shardCount)
+                .mapToObj(i -> i < previousQueues.size() ? previousQueues.get(i) : newQueue(i))
+                .collect(toList());
+
+        shards = next;
+        queues = nextQueues;
+        // jobs still queued in removed queues find no slot and end immediately
+        previousQueues.stream().skip(shardCount).forEach(SaltEventQueue::shutdown);
+        PrometheusExporter.INSTANCE.registerSaltEventQueues(nextQueues);
+
+        // schedule jobs for the waiting events of moved slots on their new queue
+        slotBacklogs.forEach((slot, backlog) -> {
+            if (backlog.get() > 0 && previous.shardOf(slot) != next.shardOf(slot)) {
+                scheduleJobs(nextQueues.get(next.shardOf(slot)), backlog.get());
+            }
+        });
+        updateBacklogs();
+    }
+
+    /**
+     * Sets the function preparing the handling of events by a listener in adaptive batching mode. It is called
+     * concurrently, in no particular order, outside of the transaction, and must not access the database: the
+     * returned handlers are then run in event order, in the transaction, instead of notifying that listener. Other
+     * listeners are notified as usual.
+     * @param listener the listener the prepared handlers stand for
+     * @param eventPreparerIn maps an event to the handler of the listener, null to notify the listener
+     */
+    public void setEventPreparer(EventListener listener, Function<Event, Runnable> eventPreparerIn) {
+        this.eventPreparer = eventPreparerIn == null ? null : new EventPreparer(listener, eventPreparerIn);
+    }
+
+    @Override
+    public void addEventListener(EventListener listener) {
+        super.addEventListener(listener);
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeEventListener(EventListener listener) {
+        super.removeEventListener(listener);
+        listeners.remove(listener);
+    }
+
+    @Override
+    protected void clearListeners(int code, String phrase) {
+        super.clearListeners(code, phrase);
+        listeners.clear();
+    }
+
+    /**
+     * Sets the filter of event tags: events whose tag does not match are dropped before parsing their data.
+     * @param tagFilterIn returns true for the tags of events listeners handle
+     */
+    public void setTagFilter(Predicate<String> tagFilterIn) {
+        this.tagFilter = tagFilterIn;
+    }
+
+    /**
+     * Returns true if the event is dropped because no listener handles its tag, reading only the tag.
+     * @param event the event
+     * @return true if dropped
+     */
+    private boolean isFiltered(SaltEvent event) {
+        Predicate<String> filter = tagFilter;
+        boolean filtered = SaltEventTags.readTag(event.getData()).map(tag -> !filter.test(tag)).orElse(false);
+        if (filtered && LOG.isTraceEnabled()) {
+            LOG.trace("Dropping event " + event.getId() + ", no listener handles it");
+        }
+        return filtered;
+    }
+
+    /**
+     * Resizes the thread pool if the configured size was changed in rhn.conf.
+     */
+    private void reloadThreadPoolSize() {
+        long modified = new File(Config.getDefaultConfigFilePath()).lastModified();
+        if (modified != configModified) {
+            configModified = modified;
+            int shardCount = new Config().getInt(ConfigDefaults.SALT_EVENT_THREAD_POOL_SIZE, THREAD_POOL_SIZE);
+            resize(Math.max(1, shardCount));
+        }
+    }
+
+    /**
+     * Every second, reports the lag of each slot to mgr_events.py if it changed. Every 5s, checks that the
+     * connection is alive - if not, notifies all listeners that we are shutting down -, schedules jobs for
+     * possible stale events and applies changes to the configured thread pool size.
      *
      * It is up to SaltReactor to create a new instance of this class and restart from scratch.
      */
-    private void startConnectionWatchdog() {
-        new Timer("salt-event-connection-watchdog").schedule(new TimerTask() {
+    private void startFlowControl() {
+        new Timer("salt-event-flow-control").schedule(new TimerTask() {
+            private long ticks = 0;
+
             @Override
             public void run() {
                 try {
-                    try (Statement s = connection.createStatement()) {
-                        s.execute("SELECT 'salt-event-connection-watchdog';");
-
-                        // if we have any rows in suseSaltEvent that do not yet have a process task queued or executing
-                        // then schedule tasks for them
-                        // this can only happen in case we lost notifications somehow
-                        List<Long> allJobs = SaltEventFactory.countSaltEvents(THREAD_POOL_SIZE + 1);
-
-                        List<Long> queuedJobs = executorServices.stream()
-                                .map(executor -> executor.getTaskCount() - executor.getCompletedTaskCount())
-                                .collect(Collectors.toList());
-
-                        List<Long> missingJobs = IntStream.range(0, allJobs.size())
-                            .mapToObj(i -> allJobs.get(i) - queuedJobs.get(i))
-                            .collect(Collectors.toList());
-
-                        if (missingJobs.stream().mapToLong(l -> l).sum() > 0) {
-                            LOG.warn("Found " + missingJobs + " events without a job. Scheduling...");
-                            notification(missingJobs);
+                    boolean watchdog = ++ticks % WATCHDOG_INTERVAL_TICKS == 0;
+                    sendAck(watchdog);
+                    if (watchdog) {
+                        try (Statement s = connection.createStatement()) {
+                            s.execute("SELECT 'salt-event-connection-watchdog';");
                         }
+                        repairStaleEvents();
+                        reloadThreadPoolSize();
                     }
                 }
                 catch (SQLException e) {
                     cancel();
                     clearListeners(0, "Postgres notification connection was lost");
                 }
+                catch (RuntimeException e) {
+                    LOG.error("Error in Salt event flow control", e);
+                }
+            }
+        }, FLOW_CONTROL_INTERVAL, FLOW_CONTROL_INTERVAL);
+    }
+
+    /**
+     * Notifies mgr_events.py of the number of events each slot still has to process, so that it can hold back
+     * COMMITs (and thus notifications) while we are lagging behind.
+     * @param force true to send the notification even if lags did not change
+     * @throws SQLException if the connection is lost
+     */
+    private void sendAck(boolean force) throws SQLException {
+        List<Long> lags = IntStream.range(0, getSlotCount())
+                .mapToObj(slot -> getSlotBacklog(slot).get())
+                .collect(toList());
+        if (force || !lags.equals(lastAckedLags)) {
+            String payload = lags.stream().map(String::valueOf).collect(Collectors.joining(","));
+            try (Statement s = connection.createStatement()) {
+                s.execute("NOTIFY " + ACK_CHANNEL + ", '" + payload + "';");
             }
-        }, 0, 5_000);
+            lastAckedLags = lags;
+        }
+    }
+
+    /**
+     * Schedules jobs for events that are still in suseSaltEvent although their queue is idle. This can only happen
+     * in case we lost notifications somehow.
+     *
+     * Only events up to the highest id seen at the previous scan are considered, as notifications for newer ones
+     * might still be on their way, and only slots of idle queues are checked, so that busy ones are never counted.
+     */
+    private void repairStaleEvents() {
+        long maxId = SaltEventFactory.getMaxSaltEventId();
+        SaltEventShards currentShards = shards;
+        int slotCount = getSlotCount();
+        List<Integer> idleSlots = queues.stream()
+                .filter(SaltEventQueue::isIdle)
+                .flatMap(queue -> currentShards.slotsOf(queue.getIndex(), slotCount).stream())
+                .collect(toList());
+        List<Long> staleEvents = SaltEventFactory.countSaltEventsUpTo(slotCount, idleSlots, repairWatermark);
+        repairWatermark = maxId;
+
+        if (staleEvents.stream().mapToLong(l -> l).sum() > 0) {
+            LOG.warn("Found " + staleEvents + " events without a job. Scheduling...");
+            notification(staleEvents);
+        }
     }
 
     @Override
@@ -157,49 +347,317 @@ public class PGEventStream extends AbstractEventStream implements PGNotification
 
     /**
      * Called every time a notification from Postgres (ultimately from mgr_engine.py) is fired.
-     * @param counts the list of the number of INSERTed events to be handled by queue. The first queue
-     *      is the one for events that aren't associated to a minion, queue 0.
+     * @param counts the list of the number of INSERTed events by slot. The first slot is the one for events that
+     *      aren't associated to a minion, slot 0.
      */
     public void notification(List<Long> counts) {
         LOG.trace("Got notification: " + counts);
-        // compute the number of jobs we need to do - each job COMMITs individually
-        // jobs = events / MAX_EVENTS_PER_COMMIT (rounded up)
-        IntStream.range(0, THREAD_POOL_SIZE + 1).forEach(queue -> {
-            long jobs = (counts.get(queue) + MAX_EVENTS_PER_COMMIT - 1) / MAX_EVENTS_PER_COMMIT;
-
-            // queue one handlingTransaction(processEvents) call per job
-            LongStream.range(0L, jobs).forEach(job -> {
-                LOG.trace("Scheduling a job for queue " + queue);
-                ThreadPoolExecutor executor = executorServices.get(queue);
-                executor.execute(() -> {
-                    List<SaltEvent> uncommittedEvents = new LinkedList<>();
+        SaltEventShards currentShards = shards;
+        List<SaltEventQueue> currentQueues = queues;
+        IntStream.range(0, counts.size()).forEach(slot -> {
+            long count = counts.get(slot);
+            if (count > 0) {
+                getSlotBacklog(slot).addAndGet(count);
+                scheduleJobs(currentQueues.get(currentShards.shardOf(slot)), count);
+            }
+        });
+        updateBacklogs();
+        currentQueues.forEach(SaltEventQueue::stealIfIdle);
+    }
+
+    /**
+     * Schedules jobs to process events in a queue.
+     * @param queue the queue
+     * @param events the number of events
+     */
+    private void scheduleJobs(SaltEventQueue queue, long events) {
+        if (ADAPTIVE_BATCH) {
+            queue.scheduleSingleJob();
+        }
+        else {
+            // compute the number of jobs we need to do - each job COMMITs individually
+            // jobs = events / MAX_EVENTS_PER_COMMIT (rounded up)
+            long jobs = (events + MAX_EVENTS_PER_COMMIT - 1) / MAX_EVENTS_PER_COMMIT;
+            LOG.trace("Scheduling " + jobs + " jobs for queue " + queue.getIndex());
+            queue.scheduleJobs(jobs);
+        }
+    }
+
+    /**
+     * Runs one job stolen from another queue.
+     * @param thief the queue whose thread runs the job
+     * @return true if a job was run
+     */
+    private boolean stealJob(SaltEventQueue thief) {
+        List<SaltEventQueue> currentQueues = queues;
+        int size = currentQueues.size();
+        return IntStream.range(1, size + 1)
+                .mapToObj(i -> currentQueues.get((thief.getIndex() + i) % size))
+                .filter(victim -> victim != thief && victim.getQueuedJobs() > 0)
+                .anyMatch(SaltEventQueue::runStolenJob);
+    }
+
+    /**
+     * Runs one handlingTransaction(processEvents) call, or processEventBatch in adaptive batching mode, on the
+     * waiting slot of a queue with the most events which is not busy.
+     * @param queue the queue
+     */
+    private void runJob(SaltEventQueue queue) {
+        if (ADAPTIVE_BATCH) {
+            queue.jobStarted();
+        }
+        SaltEventShards currentShards = shards;
+        Map<Integer, Long> waitingSlots = new LinkedHashMap<>();
+        slotBacklogs.forEach((slot, backlog) -> {
+            long events = backlog.get();
+            if (events > 0 && currentShards.shardOf(slot) == queue.getIndex()) {
+                waitingSlots.put(slot, events);
+            }
+        });
+        List<Integer> slots = waitingSlots.keySet().stream()
+                .sorted(comparing(waitingSlots::get).reversed())
+                .collect(toList());
+
+        for (int slot : slots) {
+            if (lockSlot(slot)) {
+                List<SaltEvent> uncommittedEvents = new LinkedList<>();
+                try {
                     TransactionHelper.handlingTransaction(
-                            () -> processEvents(uncommittedEvents, queue),
+                            () -> {
+                                if (ADAPTIVE_BATCH) {
+                                    processEventBatch(uncommittedEvents, slot);
+                                }
+                                else {
+                                    processEvents(uncommittedEvents, slot);
+                                }
+                            },
                             e -> handleExceptions(uncommittedEvents, e));
-                });
-            });
-        });
+                }
+                finally {
+                    unlockSlot(slot);
+                }
+                if (!uncommittedEvents.isEmpty()) {
+                    if (ADAPTIVE_BATCH && queue.getBacklog().get() > 0) {
+                        queue.scheduleSingleJob();
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks a slot as busy, so that events of the same minion are never processed in parallel. If the slot is
+     * already busy, the job is scheduled again once the slot is released.
+     * @param slot the slot
+     * @return true if the slot was free
+     */
+    private boolean lockSlot(int slot) {
+        if (BUSY_SLOTS.add(slot)) {
+            return true;
+        }
+        missedJobs.merge(slot, 1L, Long::sum);
+        // the slot might have been released before the missed job was recorded
+        return BUSY_SLOTS.add(slot);
+    }
+
+    /**
+     * Releases a slot and schedules the jobs that found it busy meanwhile.
+     * @param slot the slot
+     */
+    private void unlockSlot(int slot) {
+        BUSY_SLOTS.remove(slot);
+        Long missed = missedJobs.remove(slot);
+        if (missed != null && getSlotBacklog(slot).get() > 0) {
+            scheduleJobs(queues.get(shards.shardOf(slot)), missed * MAX_EVENTS_PER_COMMIT);
+        }
+    }
+
+    private AtomicLong getSlotBacklog(int slot) {
+        return slotBacklogs.computeIfAbsent(slot, s -> new AtomicLong());
+    }
+
+    /**
+     * Updates the number of events popped from a slot.
+     * @param slot the slot
+     * @param popped the number of popped events
+     * @param limit the maximum number of events that could be popped
+     */
+    private void consumeSlotBacklog(int slot, int popped, int limit) {
+        AtomicLong backlog = getSlotBacklog(slot);
+        if (popped < limit) {
+            // the table has no more events for this slot
+            backlog.set(0);
+        }
+        else {
+            backlog.updateAndGet(b -> Math.max(0, b - popped));
+        }
+        updateBacklogs();
+    }
+
+    /**
+     * Sets the backlog of each queue to the sum of the backlogs of its slots.
+     */
+    private void updateBacklogs() {
+        SaltEventShards currentShards = shards;
+        long[] backlogs = new long[currentShards.getShardCount()];
+        slotBacklogs.forEach((slot, backlog) -> backlogs[currentShards.shardOf(slot)] += backlog.get());
+        List<SaltEventQueue> currentQueues = queues;
+        for (int i = 0; i < backlogs.length && i < currentQueues.size(); i++) {
+            currentQueues.get(i).getBacklog().set(backlogs[i]);
+        }
+    }
+
+    /**
+     * @return the number of slots, including slot 0 for events not associated to a minion
+     */
+    private int getSlotCount() {
+        return Math.max(SLOTS + 1, slotBacklogs.keySet().stream().mapToInt(slot -> slot + 1).max().orElse(0));
+    }
+
+    /**
+     * Removes the value of the "_stamp" field Salt adds to the data of every event, so that events differing
+     * only by the time they were fired compare equal.
+     * @param data the JSON of an event, with its tag and data
+     * @return the JSON with an empty timestamp
+     */
+    public static String withoutStamp(String data) {
+        return STAMP.matcher(data).replaceAll("\"_stamp\":\"\"");
+    }
+
+    /**
+     * Pops up to as many events as there are waiting in the slot (within the configured bounds), parses and
+     * prepares them in parallel and notifies listeners in order. Consecutive events from the same minion with the
+     * same tag and data, but for the timestamp Salt adds to every event, are notified once.
+     * @param uncommittedEvents used to keep track of events being processed
+     * @param slot the slot to pop events from
+     */
+    private void processEventBatch(List<SaltEvent> uncommittedEvents, int slot) {
+        long backlog = getSlotBacklog(slot).get();
+        int limit = (int) Math.max(MAX_EVENTS_PER_COMMIT, Math.min(backlog, MAX_ADAPTIVE_EVENTS_PER_COMMIT));
+
+        List<SaltEvent> events = SaltEventFactory.popSaltEvents(limit, slot)
+                .sorted(comparing(SaltEvent::getMinionId, nullsLast(naturalOrder())).thenComparing(SaltEvent::getId))
+                .collect(toList());
+        consumeSlotBacklog(slot, events.size(), limit);
+
+        List<SaltEvent> merged = new ArrayList<>(events.size());
+        for (SaltEvent event : events) {
+            SaltEvent last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && last.getMinionId() != null && Objects.equals(last.getMinionId(), event.getMinionId()) &&
+                    withoutStamp(last.getData()).equals(withoutStamp(event.getData()))) {
+                LOG.trace("Skipping event " + event.getId() + ", duplicate of " + last.getId());
+                uncommittedEvents.add(event);
+            }
+            else if (isFiltered(event)) {
+                uncommittedEvents.add(event);
+            }
+            else {
+                merged.add(event);
+            }
+        }
+
+        EventPreparer preparer = eventPreparer;
+        List<CompletableFuture<PreparedEvent>> preparedEvents = merged.stream()
+                .map(event -> CompletableFuture.supplyAsync(
+                        () -> prepareEvent(JsonParser.EVENTS.parse(event.getData()), preparer), parserService))
+                .collect(toList());
+
+        for (int i = 0; i < merged.size(); i++) {
+            SaltEvent event = merged.get(i);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Handling event " + event.getId() + " from slot #" + slot);
+                LOG.trace(event.getData());
+            }
+            uncommittedEvents.add(event);
+            PreparedEvent preparedEvent;
+            try {
+                preparedEvent = preparedEvents.get(i).join();
+            }
+            catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+            notifyListenersMeasured(preparedEvent.event, preparedEvent.handler);
+        }
+    }
+
+    private PreparedEvent prepareEvent(Event event, EventPreparer preparer) {
+        Runnable handler = preparer != null ?
+                prepareHandler(event, listeners, preparer.listener, preparer.preparer) :
+                () -> notifyListeners(event);
+        return new PreparedEvent(event, handler);
+    }
+
+    /**
+     * Prepares the handling of an event by a listener and returns the handler notifying all listeners in order:
+     * the prepared handler stands for that listener, the others are notified. Listeners are those registered when
+     * the handler runs.
+     * @param event the event
+     * @param listeners the registered listeners
+     * @param listener the listener the preparer belongs to
+     * @param preparer maps the event to the handler of the listener
+     * @return the handler
+     */
+    public static Runnable prepareHandler(Event event, List<EventListener> listeners, EventListener listener,
+            Function<Event, Runnable> preparer) {
+        Runnable prepared = listeners.contains(listener) ? preparer.apply(event) : null;
+        return () -> {
+            for (EventListener current : listeners) {
+                if (current == listener && prepared != null) {
+                    prepared.run();
+                }
+                else {
+                    current.notify(event);
+                }
+            }
+        };
     }
 
     /**
      * Reads one or more events from suseSaltEvent and notifies listeners (typically, {@link PGEventListener}).
      * @param uncommittedEvents used to keep track of events being processed
-     * @param queue the index of the thread processing the events
+     * @param slot the slot to pop events from
      */
-    private void processEvents(List<SaltEvent> uncommittedEvents, int queue) {
-        Stream<SaltEvent> events = SaltEventFactory.popSaltEvents(MAX_EVENTS_PER_COMMIT, queue)
-                .sorted(comparing(SaltEvent::getMinionId, nullsLast(naturalOrder())).thenComparing(SaltEvent::getId));
+    private void processEvents(List<SaltEvent> uncommittedEvents, int slot) {
+        List<SaltEvent> events = SaltEventFactory.popSaltEvents(MAX_EVENTS_PER_COMMIT, slot)
+                .sorted(comparing(SaltEvent::getMinionId, nullsLast(naturalOrder())).thenComparing(SaltEvent::getId))
+                .collect(toList());
+        consumeSlotBacklog(slot, events.size(), MAX_EVENTS_PER_COMMIT);
 
         events.forEach(event -> {
             if (LOG.isTraceEnabled()) {
-                LOG.trace("Handling event " + event.getId() + " in worker #" + queue);
+                LOG.trace("Handling event " + event.getId() + " from slot #" + slot);
                 LOG.trace(event.getData());
             }
             uncommittedEvents.add(event);
-            notifyListeners(JsonParser.EVENTS.parse(event.getData()));
+            if (isFiltered(event)) {
+                return;
+            }
+            Event parsedEvent = JsonParser.EVENTS.parse(event.getData());
+            notifyListenersMeasured(parsedEvent, () -> notifyListeners(parsedEvent));
         });
     }
 
+    /**
+     * Notifies listeners of an event, recording metrics by event tag.
+     * @param event the event
+     * @param handler notifies the listeners
+     */
+    private void notifyListenersMeasured(Event event, Runnable handler) {
+        long start = EventMetrics.saltEventStarted(event.getTag(), event.getData().get("_stamp"));
+        boolean failed = true;
+        try {
+            handler.run();
+            failed = false;
+        }
+        finally {
+            EventMetrics.saltEventFinished(event.getTag(), start, failed);
+        }
+    }
+
     /**
      * Handles any {@link Exception} raised from processEvents. Has special code to handle those that are thrown by
      * {@link PGEventListener}, as they may contain an exception handler.
@@ -217,6 +675,32 @@ public class PGEventStream extends AbstractEventStream implements PGNotification
         }
     }
 
+    /**
+     * A listener with the function preparing its handling of events.
+     */
+    private static class EventPreparer {
+        private final EventListener listener;
+        private final Function<Event, Runnable> preparer;
+
+        EventPreparer(EventListener listenerIn, Function<Event, Runnable> preparerIn) {
+            listener = listenerIn;
+            preparer = preparerIn;
+        }
+    }
+
+    /**
+     * An event with the handler notifying its listeners.
+     */
+    private static class PreparedEvent {
+        private final Event event;
+        private final Runnable handler;
+
+        PreparedEvent(Event eventIn, Runnable handlerIn) {
+            event = eventIn;
+            handler = handlerIn;
+        }
+    }
+
     @Override
     public boolean isEventStreamClosed() {
         try {
@@ -229,6 +713,8 @@ public class PGEventStream extends AbstractEventStream implements PGNotification
 
     @Override
     public void close() throws IOException {
+        parserService.shutdown();
+        queues.forEach(SaltEventQueue::shutdown);
         try {
             connection.close();
             LOG.debug("connection closed gracefully");
@@ -0,0 +1,268 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.suse.manager.reactor;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * One of the queues processing events from suseSaltEvent, backed by a single thread.
+ *
+ * Scheduling jobs is credit-based: at most capacity jobs are queued or running at any time, further jobs are only
+ * counted as deferred and get scheduled as soon as running jobs complete. Events of deferred jobs stay in the
+ * database in the meantime.
+ *
+ * Once its own jobs are done, the thread steals queued jobs from other queues, if any.
+ */
+public class SaltEventQueue {
+
+    private final int index;
+    private final int capacity;
+    private final int eventsPerJob;
+    private final Consumer<SaltEventQueue> job;
+    private final Predicate<SaltEventQueue> stealer;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore credits;
+    private final AtomicLong deferredJobs = new AtomicLong();
+    private final AtomicLong completedJobs = new AtomicLong();
+    private final AtomicBoolean stealing = new AtomicBoolean();
+    private final Runnable ownJob = this::runJob;
+
+    // number of notified events not yet popped and, for adaptive batching, whether a job is waiting
+    private final AtomicLong backlog = new AtomicLong();
+    private final AtomicBoolean pendingJob = new AtomicBoolean();
+
+    /**
+     * Constructor for a queue not stealing jobs.
+     * @param indexIn the index of this queue
+     * @param capacityIn the maximum number of jobs queued or running at any time
+     * @param eventsPerJobIn the maximum number of events processed by each job
+     * @param jobIn the job processing events of this queue
+     */
+    public SaltEventQueue(int indexIn, int capacityIn, int eventsPerJobIn, Consumer<SaltEventQueue> jobIn) {
+        this(indexIn, capacityIn, eventsPerJobIn, jobIn, thief -> false);
+    }
+
+    /**
+     * Standard constructor.
+     * @param indexIn the index of this queue
+     * @param capacityIn the maximum number of jobs queued or running at any time
+     * @param eventsPerJobIn the maximum number of events processed by each job
+     * @param jobIn the job processing events of this queue
+     * @param stealerIn runs one job stolen from another queue in the calling thread, returns false if there was
+     *      none
+     */
+    public SaltEventQueue(int indexIn, int capacityIn, int eventsPerJobIn, Consumer<SaltEventQueue> jobIn,
+            Predicate<SaltEventQueue> stealerIn) {
+        this.index = indexIn;
+        this.capacity = capacityIn;
+        this.eventsPerJob = eventsPerJobIn;
+        this.job = jobIn;
+        this.stealer = stealerIn;
+        this.credits = new Semaphore(capacityIn);
+        this.executor = new ThreadPoolExecutor(
+                1,
+                1,
+                0L,
+                TimeUnit.MILLISECONDS,
+                // one more than the credits, for the stealing task
+                new ArrayBlockingQueue<Runnable>(capacityIn + 1),
+                new BasicThreadFactory.Builder()
+                    .namingPattern(String.format("salt-event-thread-%d", indexIn))
+                    .build()
+        );
+    }
+
+    /**
+     * Schedules jobs, deferring those exceeding the available credits.
+     * @param count the number of jobs
+     */
+    public void scheduleJobs(long count) {
+        deferredJobs.addAndGet(count);
+        drain();
+    }
+
+    /**
+     * Schedules a job unless one is already waiting to be executed (adaptive batching).
+     * @return true if a job was scheduled
+     */
+    public boolean scheduleSingleJob() {
+        if (pendingJob.compareAndSet(false, true)) {
+            scheduleJobs(1);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Marks the waiting job as started, so that a further one can be scheduled (adaptive batching).
+     */
+    public void jobStarted() {
+        pendingJob.set(false);
+    }
+
+    /**
+     * Turns deferred jobs into running ones as long as there are credits available.
+     */
+    private void drain() {
+        while (deferredJobs.get() > 0 && !executor.isShutdown() && credits.tryAcquire()) {
+            if (deferredJobs.getAndUpdate(d -> d > 0 ? d - 1 : 0) > 0) {
+                executor.execute(ownJob);
+            }
+            else {
+                credits.release();
+            }
+        }
+    }
+
+    private void runJob() {
+        executeJob();
+        stealJobs();
+    }
+
+    private void executeJob() {
+        try {
+            job.accept(this);
+        }
+        finally {
+            completedJobs.incrementAndGet();
+            credits.release();
+            drain();
+        }
+    }
+
+    /**
+     * Runs jobs stolen from other queues as long as this one has nothing queued.
+     */
+    private void stealJobs() {
+        while (!executor.isShutdown() && executor.getQueue().isEmpty() && stealer.test(this)) {
+            // keep stealing
+        }
+    }
+
+    /**
+     * Takes one of the jobs queued here and runs it in the calling thread. Used by other queues to steal work.
+     * @return true if a job was run
+     */
+    public boolean runStolenJob() {
+        if (executor.getQueue().remove(ownJob)) {
+            executeJob();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Makes the thread of this queue steal jobs from other queues if it has nothing to do.
+     */
+    public void stealIfIdle() {
+        if (getActiveJobs() == 0 && stealing.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        stealJobs();
+                    }
+                    finally {
+                        stealing.set(false);
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                stealing.set(false);
+            }
+        }
+    }
+
+    /**
+     * @return the index of this queue
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the maximum number of jobs queued or running at any time
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of jobs queued or running
+     */
+    public int getActiveJobs() {
+        return capacity - credits.availablePermits();
+    }
+
+    /**
+     * @return the number of jobs waiting for the thread
+     */
+    public int getQueuedJobs() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of jobs waiting for credits
+     */
+    public long getDeferredJobs() {
+        return deferredJobs.get();
+    }
+
+    /**
+     * @return the number of jobs ever completed
+     */
+    public long getCompletedJobs() {
+        return completedJobs.get();
+    }
+
+    /**
+     * @return the number of notified events not yet popped
+     */
+    public AtomicLong getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Returns true if no job is queued, running or deferred.
+     * @return true if idle
+     */
+    public boolean isIdle() {
+        return getActiveJobs() == 0 && getDeferredJobs() == 0;
+    }
+
+    /**
+     * Returns the estimated number of events waiting to be processed by this queue.
+     * @return the number of events
+     */
+    public long getLag() {
+        return Math.max(backlog.get(), (getActiveJobs() + getDeferredJobs()) * eventsPerJob);
+    }
+
+    /**
+     * Stops accepting jobs.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
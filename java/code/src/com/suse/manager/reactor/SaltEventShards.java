@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.suse.manager.reactor;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Maps the queues of suseSaltEvent (slots, filled by mgr_events.py by minion id hash) to the {@link SaltEventQueue}s
+ * processing them (shards).
+ *
+ * The mapping uses jump consistent hashing (Lamping, Veach - "A Fast, Minimal Memory, Consistent Hash Algorithm"),
+ * so that when the number of shards changes only the slots of added or removed shards move.
+ */
+public class SaltEventShards {
+
+    private final int shardCount;
+
+    /**
+     * Standard constructor.
+     * @param shardCountIn the number of shards
+     */
+    public SaltEventShards(int shardCountIn) {
+        if (shardCountIn < 1) {
+            throw new IllegalArgumentException("At least one shard is needed, got " + shardCountIn);
+        }
+        this.shardCount = shardCountIn;
+    }
+
+    /**
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Returns the shard processing a slot.
+     * @param slot the slot, 0 being the one for events not associated to a minion
+     * @return the shard index
+     */
+    public int shardOf(int slot) {
+        return jumpHash(slot, shardCount);
+    }
+
+    /**
+     * Returns the slots processed by a shard.
+     * @param shard the shard index
+     * @param slotCount the number of slots, including slot 0
+     * @return the slots, empty if the shard does not exist
+     */
+    public List<Integer> slotsOf(int shard, int slotCount) {
+        return IntStream.range(0, slotCount)
+                .filter(slot -> shardOf(slot) == shard)
+                .boxed()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Jump consistent hash: maps a key to one of buckets, moving only 1/buckets of the keys when a bucket is
+     * added.
+     * @param key the key
+     * @param buckets the number of buckets
+     * @return the bucket, between 0 and buckets - 1
+     */
+    public static int jumpHash(long key, int buckets) {
+        // slots are small consecutive numbers, spread them first
+        long k = key * 0x9E3779B97F4A7C15L;
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            k = k * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((k >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.suse.manager.reactor;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Optional;
+
+/**
+ * Reads the tag of Salt events as stored in suseSaltEvent ({"tag": ..., "data": ...}) with a streaming parser,
+ * without building the tree of their data, so that events no listener handles can be dropped cheaply.
+ */
+public final class SaltEventTags {
+
+    private SaltEventTags() {
+    }
+
+    /**
+     * Reads the tag of an event. mgr_events.py writes the tag first, in that case the data is not read at all.
+     * @param json the event as stored in suseSaltEvent
+     * @return the tag, empty if the event has none or is not valid JSON
+     */
+    public static Optional<String> readTag(String json) {
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("tag".equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+                    return Optional.of(reader.nextString());
+                }
+                reader.skipValue();
+            }
+            return Optional.empty();
+        }
+        catch (IOException | IllegalStateException | JsonParseException e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -65,6 +65,9 @@ import com.suse.salt.netapi.event.JobReturnEvent;
 import org.apache.log4j.Logger;
 
 import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 /**
@@ -75,6 +78,12 @@ public class SaltReactor {
     // Logger for this class
     private static final Logger LOG = Logger.getLogger(SaltReactor.class);
 
+    // beacon and engine events, only some of them are mapped to messages in eventToMessages
+    private static final Pattern BEACON_TAG = Pattern.compile("^salt/beacon/[^/]+/([^/]+)/.*$");
+    private static final Pattern ENGINE_TAG = Pattern.compile("^salt/engines/([^/]+)/.*$");
+    private static final Set<String> HANDLED_BEACONS = Set.of("pkgset", "virtpoller");
+    private static final Set<String> HANDLED_ENGINES = Set.of("libvirt_events");
+
     // Reference to the SaltService instance
     private final SaltApi saltApi;
     private final SystemQuery systemQuery;
@@ -162,6 +171,30 @@ public class SaltReactor {
         listener = new PGEventListener(this::eventStreamClosed, this::eventToMessages);
         eventStream = saltApi.getEventStream();
         eventStream.addEventListener(listener);
+        if (eventStream instanceof PGEventStream) {
+            // decode events, e.g. job returns, in parallel ahead of handling them in order
+            ((PGEventStream) eventStream).setEventPreparer(listener, listener::prepare);
+            ((PGEventStream) eventStream).setTagFilter(SaltReactor::isHandledTag);
+        }
+    }
+
+    /**
+     * Returns false for tags of events that are never mapped to messages, so that they can be dropped without
+     * parsing their data: beacons and engines other than the ones handled below.
+     *
+     * @param tag the event tag
+     * @return true if events with this tag might be handled
+     */
+    public static boolean isHandledTag(String tag) {
+        Matcher beacon = BEACON_TAG.matcher(tag);
+        if (beacon.matches()) {
+            return HANDLED_BEACONS.contains(beacon.group(1));
+        }
+        Matcher engine = ENGINE_TAG.matcher(tag);
+        if (engine.matches()) {
+            return HANDLED_ENGINES.contains(engine.group(1));
+        }
+        return true;
     }
 
     private Stream<EventMessage> eventToMessages(Event event) {
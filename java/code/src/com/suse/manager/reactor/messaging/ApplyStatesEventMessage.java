@@ -19,6 +19,7 @@ import com.redhat.rhn.common.messaging.EventDatabaseMessage;
 
 import org.hibernate.Transaction;
 
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -27,7 +28,9 @@ import java.util.stream.Collectors;
  * An event to signal that a set of states is dirty and needs
  * to be applied to a particular server
  */
-public class ApplyStatesEventMessage implements EventDatabaseMessage {
+public class ApplyStatesEventMessage implements EventDatabaseMessage, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     public static final String CERTIFICATE = "certs";
     public static final String PACKAGES = "packages";
@@ -46,7 +49,7 @@ public class ApplyStatesEventMessage implements EventDatabaseMessage {
     private final Long userId;
     private final List<String> stateNames;
     private final boolean forcePackageListRefresh;
-    private final Transaction txn;
+    private final transient Transaction txn;
 
     /**
      * Constructor for creating a {@link ApplyStatesEventMessage} for a given server.
@@ -113,6 +116,15 @@ public class ApplyStatesEventMessage implements EventDatabaseMessage {
         return serverId;
     }
 
+    /**
+     * Messages for the same server are handled in order.
+     * @return the server id
+     */
+    @Override
+    public Object getPartitionKey() {
+        return serverId;
+    }
+
     /**
      * Return the list of states that need to be updated.
      *
@@ -19,6 +19,8 @@ import com.redhat.rhn.common.messaging.EventDatabaseMessage;
 
 import org.hibernate.Transaction;
 
+import java.io.Serializable;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -26,11 +28,13 @@ import java.util.List;
  * action will wait until the current transaction has been committed as we are implementing
  * {@link EventDatabaseMessage}).
  */
-public class ChannelsChangedEventMessage implements EventDatabaseMessage {
+public class ChannelsChangedEventMessage implements EventDatabaseMessage, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private final long serverId;
     private final Long userId;
-    private final Transaction transaction;
+    private final transient Transaction transaction;
     private List<Long> accessTokenIds;
     private boolean scheduleApplyChannelsState;
 
@@ -98,6 +102,25 @@ public class ChannelsChangedEventMessage implements EventDatabaseMessage {
         return serverId;
     }
 
+    /**
+     * Messages for the same server are handled in order.
+     * @return the server id
+     */
+    @Override
+    public Object getPartitionKey() {
+        return serverId;
+    }
+
+    /**
+     * Messages for the same server with the same parameters are redundant.
+     * @return the coalescing key
+     */
+    @Override
+    public Object getCoalescingKey() {
+        return Arrays.asList(ChannelsChangedEventMessage.class, serverId, userId, accessTokenIds,
+                scheduleApplyChannelsState);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -16,7 +16,12 @@ package com.suse.manager.reactor.messaging;
 
 import com.redhat.rhn.common.messaging.EventMessage;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonSyntaxException;
 import com.suse.salt.netapi.event.JobReturnEvent;
+import org.apache.log4j.Logger;
+
+import java.util.Optional;
 
 /**
  * Event message to handle job return events via the MessageQueue as we get them from the
@@ -24,9 +29,14 @@ import com.suse.salt.netapi.event.JobReturnEvent;
  */
 public class JobReturnEventMessage implements EventMessage {
 
+    private static final Logger LOG = Logger.getLogger(JobReturnEventMessage.class);
+
     /* The underlying job return event as we get it from salt */
     private JobReturnEvent jobReturnEvent;
 
+    /* The job result, decoded once, possibly ahead of handling */
+    private Optional<JsonElement> jobResult;
+
     /**
      * Constructor that takes the JobReturnEvent object from salt.
      *
@@ -43,6 +53,25 @@ public class JobReturnEventMessage implements EventMessage {
         return jobReturnEvent;
     }
 
+    /**
+     * Returns the job result as a json element, decoding it on first access.
+     *
+     * @return the job result, empty if it could not be decoded
+     */
+    public synchronized Optional<JsonElement> getJobResult() {
+        if (jobResult == null) {
+            try {
+                jobResult = Optional.ofNullable(jobReturnEvent.getData().getResult(JsonElement.class));
+            }
+            catch (JsonSyntaxException e) {
+                LOG.error("JSON syntax error while decoding into a StateApplyResult:");
+                LOG.error(jobReturnEvent.getData().getResult(JsonElement.class).toString());
+                jobResult = Optional.empty();
+            }
+        }
+        return jobResult;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -61,27 +61,19 @@ import java.util.stream.Collectors;
  */
 public class JobReturnEventMessageAction implements MessageAction {
 
+    /* Logger for this class */
+    private static final Logger LOG = Logger.getLogger(JobReturnEventMessageAction.class);
+
     /**
-     * Converts an event to json
+     * Decodes the job result, so that only database updates are left to {@link #execute(EventMessage)}.
      *
-     * @param jobReturnEvent the return event
+     * @param msg the job return event message
      */
-    private static Optional<JsonElement> eventToJson(JobReturnEvent jobReturnEvent) {
-        Optional<JsonElement> jsonResult = Optional.empty();
-        try {
-            jsonResult = Optional.ofNullable(
-                jobReturnEvent.getData().getResult(JsonElement.class));
-        }
-        catch (JsonSyntaxException e) {
-            LOG.error("JSON syntax error while decoding into a StateApplyResult:");
-            LOG.error(jobReturnEvent.getData().getResult(JsonElement.class).toString());
-        }
-        return jsonResult;
+    @Override
+    public void prepare(EventMessage msg) {
+        ((JobReturnEventMessage) msg).getJobResult();
     }
 
-    /* Logger for this class */
-    private static final Logger LOG = Logger.getLogger(JobReturnEventMessageAction.class);
-
     @Override
     public void execute(EventMessage msg) {
         JobReturnEventMessage jobReturnEventMessage = (JobReturnEventMessage) msg;
@@ -101,7 +93,7 @@ public class JobReturnEventMessageAction implements MessageAction {
         }
 
         // Prepare the job result as a json element
-        Optional<JsonElement> jobResult = eventToJson(jobReturnEvent);
+        Optional<JsonElement> jobResult = jobReturnEventMessage.getJobResult();
 
         // Check first if the received event was triggered by a single action execution
         Optional<Long> actionId = jobReturnEvent.getData().getMetadata(ScheduleMetadata.class).map(
@@ -16,10 +16,14 @@ package com.suse.manager.reactor.messaging;
 
 import com.redhat.rhn.common.messaging.EventMessage;
 
+import java.io.Serializable;
+
 /**
  * Event message to handle what needs to be done during minion start.
  */
-public class MinionStartEventMessage implements EventMessage {
+public class MinionStartEventMessage implements EventMessage, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private final String minionId;
 
@@ -16,10 +16,14 @@ package com.suse.manager.reactor.messaging;
 
 import com.redhat.rhn.common.messaging.EventMessage;
 
+import java.io.Serializable;
+
 /**
  * Event message to handle regenerating SuMa specific .sls files.
  */
-public class RefreshGeneratedSaltFilesEventMessage implements EventMessage {
+public class RefreshGeneratedSaltFilesEventMessage implements EventMessage, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     @Override
     public String toText() {
@@ -31,6 +35,15 @@ public class RefreshGeneratedSaltFilesEventMessage implements EventMessage {
         return null;
     }
 
+    /**
+     * Files are always regenerated from scratch, so any pending refresh is redundant.
+     * @return the coalescing key
+     */
+    @Override
+    public Object getCoalescingKey() {
+        return RefreshGeneratedSaltFilesEventMessage.class;
+    }
+
     @Override
     public String toString() {
         return "RefreshGeneratedSaltFilesEventMessage{}";
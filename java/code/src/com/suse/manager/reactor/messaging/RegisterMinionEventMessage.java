@@ -17,14 +17,18 @@ package com.suse.manager.reactor.messaging;
 import com.redhat.rhn.common.messaging.EventMessage;
 import com.suse.manager.webui.utils.salt.MinionStartupGrains;
 
+import java.io.Serializable;
 import java.util.Optional;
 /**
  * Event for triggering creation of system records for salt minions.
  */
-public class RegisterMinionEventMessage implements EventMessage {
+public class RegisterMinionEventMessage implements EventMessage, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private String minionId;
-    private Optional<MinionStartupGrains> minionStartupGrains;
+    // not journaled, grains are queried again when replayed
+    private transient Optional<MinionStartupGrains> minionStartupGrains;
 
     /**
      * Create a new event to trigger system registration.
@@ -65,7 +69,7 @@ public class RegisterMinionEventMessage implements EventMessage {
      * @return minionStartupGrains
      */
     public Optional<MinionStartupGrains> getMinionStartupGrains() {
-        return minionStartupGrains;
+        return minionStartupGrains != null ? minionStartupGrains : Optional.empty();
     }
 
     /**
@@ -16,10 +16,14 @@ package com.suse.manager.reactor.messaging;
 
 import com.redhat.rhn.common.messaging.EventMessage;
 
+import java.io.Serializable;
+
 /**
  * Event message to handle suse/systemid/generate event.
  */
-public class SystemIdGenerateEventMessage implements EventMessage {
+public class SystemIdGenerateEventMessage implements EventMessage, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private String minionId;
 
@@ -146,6 +146,36 @@ public class JobReturnEventMessageActionTest extends JMockBaseTestCaseWithUser {
         FormulaFactory.setMetadataDirOfficial(metadataDirOfficial.toString() + File.separator);
     }
 
+    /**
+     * Test that a job return prepared ahead of execution is decoded once and processed the same.
+     *
+     * @throws Exception in case of an error
+     */
+    public void testPreparedPackagesProfileUpdate() throws Exception {
+        MinionServer minion = MinionServerFactoryTest.createTestMinionServer(user);
+        minion.setMinionId("minionsles12-suma3pg.vagrant.local");
+        SUSEProductTestUtils.createVendorSUSEProducts();
+        Action action = ActionFactoryTest.createAction(
+                user, ActionFactory.TYPE_PACKAGES_REFRESH_LIST);
+        action.addServerAction(ActionFactoryTest.createServerAction(minion, action));
+
+        Optional<JobReturnEvent> event = JobReturnEvent.parse(
+                getJobReturnEvent("packages.profileupdate.json", action.getId()));
+        JobReturnEventMessage message = new JobReturnEventMessage(event.get());
+
+        JobReturnEventMessageAction messageAction = new JobReturnEventMessageAction();
+        messageAction.prepare(message);
+        assertTrue(message.getJobResult().isPresent());
+        assertSame(message.getJobResult().get(), message.getJobResult().get());
+        messageAction.execute(message);
+
+        assertEquals(3, minion.getPackages().size());
+        assertEquals(1, minion.getInstalledProducts().size());
+        assertTrue(action.getServerActions().stream()
+                .filter(serverAction -> serverAction.getServer().equals(minion))
+                .findAny().get().getStatus().equals(ActionFactory.STATUS_COMPLETED));
+    }
+
     /**
      * Test the processing of packages.profileupdate job return event.
      *
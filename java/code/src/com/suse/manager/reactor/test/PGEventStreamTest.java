@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.suse.manager.reactor.test;
+
+import com.suse.manager.reactor.PGEventStream;
+import com.suse.salt.netapi.datatypes.Event;
+import com.suse.salt.netapi.event.EventListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for {@link PGEventStream}
+ */
+public class PGEventStreamTest extends TestCase {
+
+    public void testWithoutStamp() {
+        String first = "{\"tag\": \"salt/beacon/m1/pkgset/\", \"data\": {\"id\": \"m1\", " +
+                "\"_stamp\": \"2020-04-14T09:27:30.123456\"}}";
+        String second = "{\"tag\": \"salt/beacon/m1/pkgset/\", \"data\": {\"id\": \"m1\", " +
+                "\"_stamp\":\"2020-04-14T09:27:31.654321\"}}";
+        String otherJob = "{\"tag\": \"salt/job/2/ret/m1\", \"data\": {\"jid\": \"2\", " +
+                "\"_stamp\": \"2020-04-14T09:27:30.123456\"}}";
+        String job = "{\"tag\": \"salt/job/1/ret/m1\", \"data\": {\"jid\": \"1\", " +
+                "\"_stamp\": \"2020-04-14T09:27:30.123456\"}}";
+
+        assertEquals(PGEventStream.withoutStamp(first), PGEventStream.withoutStamp(second));
+        assertFalse(PGEventStream.withoutStamp(job).equals(PGEventStream.withoutStamp(otherJob)));
+        assertEquals("{\"data\": {}}", PGEventStream.withoutStamp("{\"data\": {}}"));
+    }
+
+    public void testPrepareHandlerNotifiesOtherListeners() {
+        List<String> calls = new ArrayList<>();
+        EventListener reactor = new RecordingListener("reactor", calls);
+        EventListener other = new RecordingListener("other", calls);
+        List<EventListener> listeners = new CopyOnWriteArrayList<>(Arrays.asList(reactor, other));
+        Event event = new Event("salt/job/1/ret/m1", Collections.emptyMap());
+
+        Runnable handler = PGEventStream.prepareHandler(event, listeners, reactor, e -> {
+            calls.add("prepare " + e.getTag());
+            return () -> calls.add("prepared " + e.getTag());
+        });
+        assertEquals(Arrays.asList("prepare salt/job/1/ret/m1"), calls);
+
+        handler.run();
+        assertEquals(Arrays.asList("prepare salt/job/1/ret/m1", "prepared salt/job/1/ret/m1",
+                "other salt/job/1/ret/m1"), calls);
+
+        // listeners are the ones registered when the handler runs
+        calls.clear();
+        handler = PGEventStream.prepareHandler(event, listeners, reactor, e -> () -> calls.add("prepared"));
+        listeners.remove(other);
+        handler.run();
+        assertEquals(Arrays.asList("prepared"), calls);
+
+        // without the listener of the preparer, nothing is prepared
+        calls.clear();
+        listeners.clear();
+        listeners.add(other);
+        handler = PGEventStream.prepareHandler(event, listeners, reactor, e -> {
+            fail("The event should not be prepared");
+            return null;
+        });
+        handler.run();
+        assertEquals(Arrays.asList("other salt/job/1/ret/m1"), calls);
+    }
+
+    /**
+     * Listener recording the events it is notified of.
+     */
+    private static class RecordingListener implements EventListener {
+
+        private final String name;
+        private final List<String> calls;
+
+        RecordingListener(String nameIn, List<String> callsIn) {
+            name = nameIn;
+            calls = callsIn;
+        }
+
+        @Override
+        public void notify(Event event) {
+            calls.add(name + " " + event.getTag());
+        }
+
+        @Override
+        public void eventStreamClosed(int code, String phrase) {
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.suse.manager.reactor.test;
+
+import com.suse.manager.reactor.SaltEventQueue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for {@link SaltEventQueue}
+ */
+public class SaltEventQueueTest extends TestCase {
+
+    public void testJobsBeyondCapacityAreDeferred() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        SaltEventQueue queue = new SaltEventQueue(1, 2, 1, q -> {
+            runs.incrementAndGet();
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        queue.scheduleJobs(5);
+        assertEquals(2, queue.getActiveJobs());
+        assertEquals(3, queue.getDeferredJobs());
+        assertEquals(5, queue.getLag());
+        assertFalse(queue.isIdle());
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (queue.getCompletedJobs() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(5, runs.get());
+        assertEquals(5, queue.getCompletedJobs());
+        assertEquals(0, queue.getDeferredJobs());
+        assertTrue(queue.isIdle());
+        queue.shutdown();
+    }
+
+    public void testSingleJobIsScheduledOnce() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        SaltEventQueue queue = new SaltEventQueue(0, 10, 50, q -> {
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        // the first job starts running, the second one waits
+        assertTrue(queue.scheduleSingleJob());
+        queue.jobStarted();
+        assertTrue(queue.scheduleSingleJob());
+        assertFalse(queue.scheduleSingleJob());
+        assertEquals(2, queue.getActiveJobs());
+
+        release.countDown();
+        queue.shutdown();
+    }
+
+    public void testIdleQueueStealsQueuedJobs() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch stolen = new CountDownLatch(2);
+        SaltEventQueue victim = new SaltEventQueue(1, 10, 1, q -> {
+            if (Thread.currentThread().getName().equals("salt-event-thread-1")) {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            else {
+                stolen.countDown();
+            }
+        });
+        SaltEventQueue thief = new SaltEventQueue(2, 10, 1, q -> { }, q -> victim.runStolenJob());
+
+        // the first job blocks the victim thread, the other two are stolen
+        victim.scheduleJobs(3);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (victim.getQueuedJobs() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        thief.stealIfIdle();
+
+        assertTrue(stolen.await(10, TimeUnit.SECONDS));
+        while (victim.getCompletedJobs() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, victim.getQueuedJobs());
+        assertEquals(2, victim.getCompletedJobs());
+        assertEquals(1, victim.getActiveJobs());
+
+        release.countDown();
+        victim.shutdown();
+        thief.shutdown();
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.suse.manager.reactor.test;
+
+import com.suse.manager.reactor.SaltEventShards;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for {@link SaltEventShards}
+ */
+public class SaltEventShardsTest extends TestCase {
+
+    private static final int SLOTS = 65;
+
+    public void testEverySlotHasOneShard() {
+        SaltEventShards shards = new SaltEventShards(8);
+        int total = 0;
+        for (int shard = 0; shard < 8; shard++) {
+            List<Integer> slots = shards.slotsOf(shard, SLOTS);
+            assertFalse("shard " + shard + " has no slot", slots.isEmpty());
+            slots.forEach(slot -> assertTrue(shards.shardOf(slot) >= 0 && shards.shardOf(slot) < 8));
+            total += slots.size();
+        }
+        assertEquals(SLOTS, total);
+        assertTrue(shards.slotsOf(8, SLOTS).isEmpty());
+    }
+
+    public void testGrowingMovesSlotsToNewShardsOnly() {
+        SaltEventShards previous = new SaltEventShards(8);
+        SaltEventShards next = new SaltEventShards(12);
+        for (int slot = 0; slot < SLOTS; slot++) {
+            int shard = next.shardOf(slot);
+            if (shard != previous.shardOf(slot)) {
+                assertTrue("slot " + slot + " moved to existing shard " + shard, shard >= 8);
+            }
+        }
+    }
+
+    public void testShrinkingMovesSlotsOfRemovedShardsOnly() {
+        SaltEventShards previous = new SaltEventShards(8);
+        SaltEventShards next = new SaltEventShards(3);
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (previous.shardOf(slot) < 3) {
+                assertEquals(previous.shardOf(slot), next.shardOf(slot));
+            }
+        }
+    }
+
+    public void testSingleShard() {
+        SaltEventShards shards = new SaltEventShards(1);
+        assertEquals(SLOTS, shards.slotsOf(0, SLOTS).size());
+    }
+
+    public void testNoShards() {
+        try {
+            new SaltEventShards(0);
+            fail("IllegalArgumentException expected");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2020 SUSE LLC
+ *
+ * This software is licensed to you under the GNU General Public License,
+ * version 2 (GPLv2). There is NO WARRANTY for this software, express or
+ * implied, including the implied warranties of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+ * along with this software; if not, see
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+ *
+ * Red Hat trademarks are not licensed under GPLv2. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package com.suse.manager.reactor.test;
+
+import com.suse.manager.reactor.SaltEventTags;
+import com.suse.manager.reactor.SaltReactor;
+
+import java.util.Optional;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link SaltEventTags} and the tag filter of {@link SaltReactor}.
+ */
+public class SaltEventTagsTest extends TestCase {
+
+    public void testTagFirst() {
+        assertEquals(Optional.of("salt/job/20200101/ret/minion"),
+                SaltEventTags.readTag("{\"tag\": \"salt/job/20200101/ret/minion\", \"data\": {\"return\": [1, 2]}}"));
+    }
+
+    public void testDataFirst() {
+        assertEquals(Optional.of("salt/minion/minion/start"),
+                SaltEventTags.readTag("{\"data\": {\"id\": \"minion\", \"tag\": \"nested\"}, " +
+                        "\"tag\": \"salt/minion/minion/start\"}"));
+    }
+
+    public void testNoTag() {
+        assertEquals(Optional.empty(), SaltEventTags.readTag("{\"data\": {}}"));
+        assertEquals(Optional.empty(), SaltEventTags.readTag("{\"tag\": null, \"data\": {}}"));
+        assertEquals(Optional.empty(), SaltEventTags.readTag("not json"));
+        assertEquals(Optional.empty(), SaltEventTags.readTag("[]"));
+    }
+
+    public void testHandledTags() {
+        assertTrue(SaltReactor.isHandledTag("salt/job/20200101/ret/minion"));
+        assertTrue(SaltReactor.isHandledTag("salt/beacon/minion/pkgset/changed"));
+        assertTrue(SaltReactor.isHandledTag("salt/beacon/minion/virtpoller/"));
+        assertTrue(SaltReactor.isHandledTag("salt/engines/libvirt_events/minion/domain/lifecycle"));
+        assertFalse(SaltReactor.isHandledTag("salt/beacon/minion/inotify//etc/motd"));
+        assertFalse(SaltReactor.isHandledTag("salt/engines/other/event"));
+    }
+}
@@ -265,14 +265,16 @@ public class SaltUtils {
                 new TypeToken<Map<String, Change<Xor<String, List<Pkg.Info>>>>>() { }
                 .getType()
             );
-            ErrataManager.insertErrataCacheTask(server);
+            Set<InstalledPackage> before = new HashSet<>(server.getPackages());
             outcome = applyChangesFromStateModule(delta, server);
+            updateErrataCache(server, before, outcome);
         }
         else if (function.equals("state.apply")) {
             Map<String, JsonElement> apply = Json.GSON.fromJson(
                 callResult, new TypeToken<Map<String, JsonElement>>() { }.getType());
-            ErrataManager.insertErrataCacheTask(server);
+            Set<InstalledPackage> before = new HashSet<>(server.getPackages());
             outcome = applyChangesFromStateApply(apply, server);
+            updateErrataCache(server, before, outcome);
         }
         else {
             outcome = PackageChangeOutcome.DONE;
@@ -281,6 +283,38 @@ public class SaltUtils {
         return outcome;
     }
 
+    /**
+     * Updates the errata cache for the packages changed by a state, or queues a full update
+     * if the changes could not be applied.
+     */
+    private static void updateErrataCache(Server server, Set<InstalledPackage> before,
+            PackageChangeOutcome outcome) {
+        if (outcome == PackageChangeOutcome.DONE) {
+            ErrataManager.updateErrataCacheForPackageChanges(server,
+                    changedPackageNameIds(before, server.getPackages()));
+        }
+        else {
+            ErrataManager.insertErrataCacheTask(server);
+        }
+    }
+
+    /**
+     * Returns the ids of the names of the packages installed, removed or upgraded between two
+     * sets of installed packages.
+     *
+     * @param before the installed packages before the change
+     * @param after the installed packages after the change
+     * @return the package name ids
+     */
+    public static Set<Long> changedPackageNameIds(Set<InstalledPackage> before,
+            Set<InstalledPackage> after) {
+        return Stream.concat(
+                before.stream().filter(p -> !after.contains(p)),
+                after.stream().filter(p -> !before.contains(p)))
+            .map(p -> p.getName().getId())
+            .collect(Collectors.toSet());
+    }
+
     /**
      * Extract salt function/module information from state apply string
      * @param value state apply string
@@ -1167,6 +1201,7 @@ public class SaltUtils {
             PkgProfileUpdateSlsResult result) {
         Instant start = Instant.now();
 
+        Set<InstalledPackage> before = new HashSet<>(server.getPackages());
         HibernateFactory.doWithoutAutoFlushing(() -> {
             updatePackages(server, result);
         });
@@ -1243,8 +1278,9 @@ public class SaltUtils {
                     " (" + duration + " seconds)");
         }
 
-        // Trigger update of errata cache for this server
-        ErrataManager.insertErrataCacheTask(server);
+        // Update the errata cache for the changed packages of this server
+        ErrataManager.updateErrataCacheForPackageChanges(server,
+                changedPackageNameIds(before, server.getPackages()));
 
         // For special nodes: enable minion blackout (= locking) via pillar
         enableMinionSystemLockForSpecialNodes(server);
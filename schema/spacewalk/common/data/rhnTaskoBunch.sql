@@ -111,4 +111,10 @@ INSERT INTO rhnTaskoBunch (id, name, description, org_bunch)
 INSERT INTO RhnTaskoBunch (id, name, description, org_bunch)
    VALUES (sequence_nextval('rhn_tasko_bunch_id_seq'), 'recurring-state-apply-bunch', 'Applies salt state to minion/group/org', null);
 
+INSERT INTO rhnTaskoBunch (id, name, description, org_bunch)
+   VALUES (sequence_nextval('rhn_tasko_bunch_id_seq'), 'errata-cache-full-update-bunch', 'Queues a full errata cache update for a slice of the systems', null);
+
+INSERT INTO rhnTaskoBunch (id, name, description, org_bunch)
+   VALUES (sequence_nextval('rhn_tasko_bunch_id_seq'), 'cve-patch-status-bunch', 'Refreshes the stored CVE patch status of systems', null);
+
 commit;
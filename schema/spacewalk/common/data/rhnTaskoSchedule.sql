@@ -151,4 +151,14 @@ INSERT INTO rhnTaskoSchedule (id, job_label, bunch_id, active_from, cron_expr)
         (SELECT id FROM rhnTaskoBunch WHERE name='notifications-cleanup-bunch'),
         current_timestamp, '0 0 0 ? * *');
 
+INSERT INTO rhnTaskoSchedule (id, job_label, bunch_id, active_from, cron_expr)
+    VALUES (sequence_nextval('rhn_tasko_schedule_id_seq'), 'errata-cache-full-update-default',
+        (SELECT id FROM rhnTaskoBunch WHERE name='errata-cache-full-update-bunch'),
+        current_timestamp, '0 30 * * * ?');
+
+INSERT INTO rhnTaskoSchedule (id, job_label, bunch_id, active_from, cron_expr)
+    VALUES (sequence_nextval('rhn_tasko_schedule_id_seq'), 'cve-patch-status-default',
+        (SELECT id FROM rhnTaskoBunch WHERE name='cve-patch-status-bunch'),
+        current_timestamp, '0 0/5 * * * ?');
+
 commit;
@@ -113,4 +113,10 @@ INSERT INTO rhnTaskoTask (id, name, class)
 INSERT INTO rhnTaskoTask (id, name, class)
    VALUES (sequence_nextval('rhn_tasko_task_id_seq'), 'recurring-state-apply', 'com.redhat.rhn.taskomatic.task.RecurringStateApplyJob');
 
+INSERT INTO rhnTaskoTask (id, name, class)
+   VALUES (sequence_nextval('rhn_tasko_task_id_seq'), 'errata-cache-full-update', 'com.redhat.rhn.taskomatic.task.ErrataCacheFullUpdate');
+
+INSERT INTO rhnTaskoTask (id, name, class)
+   VALUES (sequence_nextval('rhn_tasko_task_id_seq'), 'cve-patch-status-refresh', 'com.redhat.rhn.taskomatic.task.CVEPatchStatusRefresh');
+
 commit;
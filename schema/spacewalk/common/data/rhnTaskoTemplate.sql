@@ -245,4 +245,18 @@ INSERT INTO rhnTaskoTemplate (id, bunch_id, task_id, ordering, start_if)
                         0,
                         null);
 
+INSERT INTO rhnTaskoTemplate (id, bunch_id, task_id, ordering, start_if)
+            VALUES (sequence_nextval('rhn_tasko_template_id_seq'),
+                        (SELECT id FROM rhnTaskoBunch WHERE name='errata-cache-full-update-bunch'),
+                        (SELECT id FROM rhnTaskoTask WHERE name='errata-cache-full-update'),
+                        0,
+                        null);
+
+INSERT INTO rhnTaskoTemplate (id, bunch_id, task_id, ordering, start_if)
+            VALUES (sequence_nextval('rhn_tasko_template_id_seq'),
+                        (SELECT id FROM rhnTaskoBunch WHERE name='cve-patch-status-bunch'),
+                        (SELECT id FROM rhnTaskoTask WHERE name='cve-patch-status-refresh'),
+                        0,
+                        null);
+
 commit;
@@ -0,0 +1,33 @@
+--
+-- Copyright (c) 2020 SUSE LLC
+--
+-- This software is licensed to you under the GNU General Public License,
+-- version 2 (GPLv2). There is NO WARRANTY for this software, express or
+-- implied, including the implied warranties of MERCHANTABILITY or FITNESS
+-- FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+-- along with this software; if not, see
+-- http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+--
+-- Red Hat trademarks are not licensed under GPLv2. No permission is
+-- granted to use or replicate Red Hat trademarks that are incorporated
+-- in this software or its documentation.
+--
+
+CREATE TABLE suseCVEServerPatchStatusChannel
+(
+    cve_id       NUMERIC NOT NULL,
+    server_id    NUMERIC NOT NULL,
+    channel_id   NUMERIC NOT NULL
+                     CONSTRAINT suse_cvespsc_cid_fk
+                         REFERENCES rhnChannel (id)
+                         ON DELETE CASCADE,
+    CONSTRAINT suse_cvespsc_ps_fk FOREIGN KEY (cve_id, server_id)
+        REFERENCES suseCVEServerPatchStatus (cve_id, server_id)
+        ON DELETE CASCADE
+)
+
+;
+
+CREATE INDEX suse_cvespsc_cve_sid_idx
+    ON suseCVEServerPatchStatusChannel (cve_id, server_id)
+    ;
@@ -0,0 +1,33 @@
+--
+-- Copyright (c) 2020 SUSE LLC
+--
+-- This software is licensed to you under the GNU General Public License,
+-- version 2 (GPLv2). There is NO WARRANTY for this software, express or
+-- implied, including the implied warranties of MERCHANTABILITY or FITNESS
+-- FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+-- along with this software; if not, see
+-- http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+--
+-- Red Hat trademarks are not licensed under GPLv2. No permission is
+-- granted to use or replicate Red Hat trademarks that are incorporated
+-- in this software or its documentation.
+--
+
+CREATE TABLE suseCVEServerPatchStatusErrata
+(
+    cve_id       NUMERIC NOT NULL,
+    server_id    NUMERIC NOT NULL,
+    errata_id    NUMERIC NOT NULL
+                     CONSTRAINT suse_cvespse_eid_fk
+                         REFERENCES rhnErrata (id)
+                         ON DELETE CASCADE,
+    CONSTRAINT suse_cvespse_ps_fk FOREIGN KEY (cve_id, server_id)
+        REFERENCES suseCVEServerPatchStatus (cve_id, server_id)
+        ON DELETE CASCADE
+)
+
+;
+
+CREATE INDEX suse_cvespse_cve_sid_idx
+    ON suseCVEServerPatchStatusErrata (cve_id, server_id)
+    ;
@@ -0,0 +1,28 @@
+-- Copyright (c) 2020 SUSE LLC
+--
+-- This software is licensed to you under the GNU General Public License,
+-- version 2 (GPLv2). There is NO WARRANTY for this software, express or
+-- implied, including the implied warranties of MERCHANTABILITY or FITNESS
+-- FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+-- along with this software; if not, see
+-- http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+--
+-- Red Hat trademarks are not licensed under GPLv2. No permission is
+-- granted to use or replicate Red Hat trademarks that are incorporated
+-- in this software or its documentation.
+--
+
+CREATE TABLE IF NOT EXISTS suseCVEServerChannelState
+(
+    server_id    NUMERIC NOT NULL
+                     CONSTRAINT suse_cvescs_sid_fk
+                         REFERENCES rhnServer (id)
+                         ON DELETE CASCADE
+                     CONSTRAINT suse_cvescs_sid_pk
+                         PRIMARY KEY,
+    inputs_hash  VARCHAR(32) NOT NULL,
+    created   TIMESTAMPTZ
+                  DEFAULT (current_timestamp) NOT NULL,
+    modified  TIMESTAMPTZ
+                  DEFAULT (current_timestamp) NOT NULL
+);
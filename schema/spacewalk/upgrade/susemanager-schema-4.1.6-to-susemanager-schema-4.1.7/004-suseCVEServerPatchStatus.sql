@@ -0,0 +1,91 @@
+-- Copyright (c) 2020 SUSE LLC
+--
+-- This software is licensed to you under the GNU General Public License,
+-- version 2 (GPLv2). There is NO WARRANTY for this software, express or
+-- implied, including the implied warranties of MERCHANTABILITY or FITNESS
+-- FOR A PARTICULAR PURPOSE. You should have received a copy of GPLv2
+-- along with this software; if not, see
+-- http://www.gnu.org/licenses/old-licenses/gpl-2.0.txt.
+--
+-- Red Hat trademarks are not licensed under GPLv2. No permission is
+-- granted to use or replicate Red Hat trademarks that are incorporated
+-- in this software or its documentation.
+--
+
+CREATE TABLE IF NOT EXISTS suseCVEPatchStatusState
+(
+    cve_id       NUMERIC NOT NULL
+                     CONSTRAINT suse_cvepss_cve_fk
+                         REFERENCES rhnCVE (id)
+                         ON DELETE CASCADE
+                     CONSTRAINT suse_cvepss_cve_pk
+                         PRIMARY KEY,
+    inputs_hash  VARCHAR(32) NOT NULL,
+    created   TIMESTAMPTZ
+                  DEFAULT (current_timestamp) NOT NULL,
+    modified  TIMESTAMPTZ
+                  DEFAULT (current_timestamp) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS suseCVEServerPatchStatus
+(
+    cve_id       NUMERIC NOT NULL
+                     CONSTRAINT suse_cvesps_cve_fk
+                         REFERENCES rhnCVE (id)
+                         ON DELETE CASCADE,
+    server_id    NUMERIC NOT NULL
+                     CONSTRAINT suse_cvesps_sid_fk
+                         REFERENCES rhnServer (id)
+                         ON DELETE CASCADE,
+    patch_status VARCHAR(32) NOT NULL,
+    created   TIMESTAMPTZ
+                  DEFAULT (current_timestamp) NOT NULL,
+    CONSTRAINT suse_cvesps_cve_sid_pk PRIMARY KEY (cve_id, server_id)
+);
+
+CREATE INDEX IF NOT EXISTS suse_cvesps_sid_idx
+    ON suseCVEServerPatchStatus (server_id);
+
+CREATE TABLE IF NOT EXISTS suseCVEServerPatchStatusErrata
+(
+    cve_id       NUMERIC NOT NULL,
+    server_id    NUMERIC NOT NULL,
+    errata_id    NUMERIC NOT NULL
+                     CONSTRAINT suse_cvespse_eid_fk
+                         REFERENCES rhnErrata (id)
+                         ON DELETE CASCADE,
+    CONSTRAINT suse_cvespse_ps_fk FOREIGN KEY (cve_id, server_id)
+        REFERENCES suseCVEServerPatchStatus (cve_id, server_id)
+        ON DELETE CASCADE
+);
+
+CREATE INDEX IF NOT EXISTS suse_cvespse_cve_sid_idx
+    ON suseCVEServerPatchStatusErrata (cve_id, server_id);
+
+CREATE TABLE IF NOT EXISTS suseCVEServerPatchStatusChannel
+(
+    cve_id       NUMERIC NOT NULL,
+    server_id    NUMERIC NOT NULL,
+    channel_id   NUMERIC NOT NULL
+                     CONSTRAINT suse_cvespsc_cid_fk
+                         REFERENCES rhnChannel (id)
+                         ON DELETE CASCADE,
+    CONSTRAINT suse_cvespsc_ps_fk FOREIGN KEY (cve_id, server_id)
+        REFERENCES suseCVEServerPatchStatus (cve_id, server_id)
+        ON DELETE CASCADE
+);
+
+CREATE INDEX IF NOT EXISTS suse_cvespsc_cve_sid_idx
+    ON suseCVEServerPatchStatusChannel (cve_id, server_id);
+
+CREATE TABLE IF NOT EXISTS suseCVEPatchStatusQueue
+(
+    server_id    NUMERIC NOT NULL
+                     CONSTRAINT suse_cvepsq_sid_fk
+                         REFERENCES rhnServer (id)
+                         ON DELETE CASCADE
+                     CONSTRAINT suse_cvepsq_sid_pk
+                         PRIMARY KEY,
+    created   TIMESTAMPTZ
+                  DEFAULT (current_timestamp) NOT NULL
+);
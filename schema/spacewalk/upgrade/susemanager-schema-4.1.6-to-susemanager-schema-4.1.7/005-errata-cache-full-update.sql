@@ -0,0 +1,34 @@
+INSERT INTO rhnTaskoBunch (id, name, description, org_bunch)
+    SELECT sequence_nextval('rhn_tasko_bunch_id_seq'), 'errata-cache-full-update-bunch', 'Queues a full errata cache update for a slice of the systems', null
+    FROM dual WHERE NOT EXISTS (
+        SELECT 1 FROM rhnTaskoBunch WHERE
+        name='errata-cache-full-update-bunch'
+    );
+
+INSERT INTO rhnTaskoSchedule (id, job_label, bunch_id, active_from, cron_expr)
+    SELECT sequence_nextval('rhn_tasko_schedule_id_seq'), 'errata-cache-full-update-default',
+        (SELECT id FROM rhnTaskoBunch WHERE name='errata-cache-full-update-bunch'),
+        current_timestamp, '0 30 * * * ?'
+    FROM dual WHERE NOT EXISTS (
+        SELECT 1 FROM rhnTaskoSchedule WHERE
+        job_label='errata-cache-full-update-default'
+    );
+
+INSERT INTO rhnTaskoTask (id, name, class)
+    SELECT sequence_nextval('rhn_tasko_task_id_seq'), 'errata-cache-full-update', 'com.redhat.rhn.taskomatic.task.ErrataCacheFullUpdate'
+    FROM dual WHERE NOT EXISTS (
+        SELECT 1 FROM rhnTaskoTask WHERE
+        name='errata-cache-full-update'
+    );
+
+INSERT INTO rhnTaskoTemplate (id, bunch_id, task_id, ordering, start_if)
+    SELECT sequence_nextval('rhn_tasko_template_id_seq'),
+                        (SELECT id FROM rhnTaskoBunch WHERE name='errata-cache-full-update-bunch'),
+                        (SELECT id FROM rhnTaskoTask WHERE name='errata-cache-full-update'),
+                        0,
+                        null
+    FROM dual WHERE NOT EXISTS (
+        SELECT 1 FROM rhnTaskoTemplate WHERE
+        bunch_id=(SELECT id FROM rhnTaskoBunch WHERE name='errata-cache-full-update-bunch') AND
+        task_id=(SELECT id FROM rhnTaskoTask WHERE name='errata-cache-full-update')
+    );
@@ -0,0 +1,34 @@
+INSERT INTO rhnTaskoBunch (id, name, description, org_bunch)
+    SELECT sequence_nextval('rhn_tasko_bunch_id_seq'), 'cve-patch-status-bunch', 'Refreshes the stored CVE patch status of systems', null
+    FROM dual WHERE NOT EXISTS (
+        SELECT 1 FROM rhnTaskoBunch WHERE
+        name='cve-patch-status-bunch'
+    );
+
+INSERT INTO rhnTaskoSchedule (id, job_label, bunch_id, active_from, cron_expr)
+    SELECT sequence_nextval('rhn_tasko_schedule_id_seq'), 'cve-patch-status-default',
+        (SELECT id FROM rhnTaskoBunch WHERE name='cve-patch-status-bunch'),
+        current_timestamp, '0 0/5 * * * ?'
+    FROM dual WHERE NOT EXISTS (
+        SELECT 1 FROM rhnTaskoSchedule WHERE
+        job_label='cve-patch-status-default'
+    );
+
+INSERT INTO rhnTaskoTask (id, name, class)
+    SELECT sequence_nextval('rhn_tasko_task_id_seq'), 'cve-patch-status-refresh', 'com.redhat.rhn.taskomatic.task.CVEPatchStatusRefresh'
+    FROM dual WHERE NOT EXISTS (
+        SELECT 1 FROM rhnTaskoTask WHERE
+        name='cve-patch-status-refresh'
+    );
+
+INSERT INTO rhnTaskoTemplate (id, bunch_id, task_id, ordering, start_if)
+    SELECT sequence_nextval('rhn_tasko_template_id_seq'),
+                        (SELECT id FROM rhnTaskoBunch WHERE name='cve-patch-status-bunch'),
+                        (SELECT id FROM rhnTaskoTask WHERE name='cve-patch-status-refresh'),
+                        0,
+                        null
+    FROM dual WHERE NOT EXISTS (
+        SELECT 1 FROM rhnTaskoTemplate WHERE
+        bunch_id=(SELECT id FROM rhnTaskoBunch WHERE name='cve-patch-status-bunch') AND
+        task_id=(SELECT id FROM rhnTaskoTask WHERE name='cve-patch-status-refresh')
+    );
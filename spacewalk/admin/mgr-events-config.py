@@ -9,7 +9,9 @@ from spacewalk.common.rhnConfig import initCFG, CFG
 
 initCFG('java')
 
-thread_pool_size = CFG.salt_event_thread_pool_size
+# events are spread into salt_event_slots queues, Java threads process any of them
+thread_pool_size = int(CFG.salt_event_slots or CFG.salt_event_thread_pool_size)
+flow_control_max_lag = int(CFG.salt_event_flow_control_max_lag or 0)
 
 initCFG()
 
@@ -25,6 +27,9 @@ config = {
             },
             "events": {
                 "thread_pool_size": thread_pool_size
+            },
+            "flow_control": {
+                "max_lag": flow_control_max_lag
             }
         }
     }]
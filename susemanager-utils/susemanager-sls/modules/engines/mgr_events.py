@@ -18,6 +18,13 @@ The algorithm is an implementation of token bucket:
  - when an event arrives but no tokens are available, the event is INSERTed but
    not COMMITted yet. COMMIT will happen as soon as a token is available
 
+Optionally, COMMITs are also subject to flow control: SUSE Manager reports
+the number of events each of its queues still has to process via NOTIFY on
+the `ack_channel`. While a queue with new events lags behind by `max_lag` or
+more events, COMMITs are held back for up to `max_hold` seconds, so that
+more events are handled with fewer notifications. Flow control is disabled
+if `max_lag` is 0 or no report was received in the last `max_hold` seconds.
+
 .. versionadded:: 2018.3.0
 
 :depends: psycopg2
@@ -43,6 +50,10 @@ Full configuration example
       - mgr_events:
           commit_interval: 1
           commit_burst: 100
+          flow_control:
+              max_lag: 1000
+              max_hold: 30
+              ack_channel: suseSaltEventAck
           postgres_db:
               dbname: susemanger
               user: spacewalk
@@ -75,12 +86,14 @@ import json
 
 # Import third-party libs
 import tornado
+import tornado.ioloop
 from salt.utils.zeromq import ZMQDefaultLoop
 
 log = logging.getLogger(__name__)
 
 DEFAULT_COMMIT_INTERVAL = 1
 DEFAULT_COMMIT_BURST = 100
+DEFAULT_FLOW_CONTROL_MAX_HOLD = 30
 
 def __virtual__():
     return HAS_PSYCOPG2
@@ -94,22 +107,32 @@ class Responder:
         self.config.setdefault('postgres_db', {})
         self.config['postgres_db'].setdefault('host', 'localhost')
         self.config['postgres_db'].setdefault('notify_channel', 'suseSaltEvent')
+        self.config.setdefault('flow_control', {})
+        self.config['flow_control'].setdefault('max_lag', 0)
+        self.config['flow_control'].setdefault('max_hold', DEFAULT_FLOW_CONTROL_MAX_HOLD)
+        self.config['flow_control'].setdefault('ack_channel', 'suseSaltEventAck')
         self.counters = [0 for i in range(config['events']['thread_pool_size'] + 1)]
+        self.lags = [0 for i in range(config['events']['thread_pool_size'] + 1)]
+        self.lags_updated = 0
+        self.held_since = None
+        self.ack_connection = None
         self.tokens = config['commit_burst']
         self.event_bus = event_bus
         self._connect_to_database()
+        if self.config['flow_control']['max_lag'] > 0:
+            self._listen_to_acks()
         self.event_bus.io_loop.call_later(config['commit_interval'], self.add_token)
 
     def _connect_to_database(self):
         db_config = self.config.get('postgres_db')
         if 'port' in db_config:
-            conn_string = "dbname='{dbname}' user='{user}' host='{host}' port='{port}' password='{password}'".format(**db_config)
+            self.conn_string = "dbname='{dbname}' user='{user}' host='{host}' port='{port}' password='{password}'".format(**db_config)
         else:
-            conn_string = "dbname='{dbname}' user='{user}' host='{host}' password='{password}'".format(**db_config)
+            self.conn_string = "dbname='{dbname}' user='{user}' host='{host}' password='{password}'".format(**db_config)
         log.debug("%s: connecting to database", __name__)
         while True:
             try:
-                self.connection = psycopg2.connect(conn_string)
+                self.connection = psycopg2.connect(self.conn_string)
                 break
             except psycopg2.OperationalError as err:
                 log.error("%s: %s", __name__, err)
@@ -117,6 +140,51 @@ class Responder:
                 time.sleep(5)
         self.cursor = self.connection.cursor()
 
+    def _listen_to_acks(self):
+        try:
+            self.ack_connection = psycopg2.connect(self.conn_string)
+            self.ack_connection.set_isolation_level(psycopg2.extensions.ISOLATION_LEVEL_AUTOCOMMIT)
+            self.ack_connection.cursor().execute("LISTEN {};".format(self.config['flow_control']['ack_channel']))
+            self.event_bus.io_loop.add_handler(self.ack_connection.fileno(), self.read_acks, tornado.ioloop.IOLoop.READ)
+        except psycopg2.Error as err:
+            log.error("%s: flow control disabled: %s", __name__, err)
+            self.ack_connection = None
+
+    def read_acks(self, fd, events):
+        """
+        Reads the queue lags reported by SUSE Manager and COMMITs held back events if possible.
+        """
+        try:
+            self.ack_connection.poll()
+        except psycopg2.Error as err:
+            log.error("%s: flow control disabled: %s", __name__, err)
+            self.event_bus.io_loop.remove_handler(fd)
+            self.ack_connection = None
+            return
+        while self.ack_connection.notifies:
+            notify = self.ack_connection.notifies.pop(0)
+            try:
+                self.lags = [int(lag) for lag in notify.payload.split(",")]
+                self.lags_updated = time.time()
+            except ValueError:
+                log.warning("%s: invalid flow control payload: %s", __name__, notify.payload)
+        self.attempt_commit()
+
+    def _is_backpressured(self):
+        """
+        Returns True if COMMITs should be held back because a queue with new events is lagging behind.
+        """
+        max_lag = self.config['flow_control']['max_lag']
+        max_hold = self.config['flow_control']['max_hold']
+        now = time.time()
+        if max_lag <= 0 or now - self.lags_updated > max_hold:
+            return False
+        if not any(counter > 0 and lag >= max_lag for counter, lag in zip(self.counters, self.lags)):
+            return False
+        if self.held_since is None:
+            self.held_since = now
+        return now - self.held_since < max_hold
+
     def _insert(self, tag, data):
         self.db_keepalive()
         if any([
@@ -150,6 +218,7 @@ class Responder:
     def trace_log(self):
         log.trace("%s: queues sizes -> %s", __name__, self.counters)
         log.trace("%s: tokens -> %s", __name__, self.tokens)
+        log.trace("%s: queues lags -> %s", __name__, self.lags)
 
     def _is_salt_mine_event(self, tag, data):
         return fnmatch.fnmatch(tag, "salt/job/*/ret/*") and self._is_salt_mine_update(data)
@@ -189,6 +258,10 @@ class Responder:
         """
         self.db_keepalive()
         if self.tokens > 0 and sum(self.counters) > 0:
+            if self._is_backpressured():
+                log.debug("%s: commit held back, queues lags -> %s", __name__, self.lags)
+                return
+            self.held_since = None
             log.debug("%s: commit", __name__)
             self.cursor.execute(
                 "NOTIFY {}, '{}';".format(
@@ -3,7 +3,8 @@ import pytest
 import psycopg2
 import shlex
 import subprocess
-from mgr_events import Responder, DEFAULT_COMMIT_BURST
+import time
+from mgr_events import Responder, DEFAULT_COMMIT_BURST, DEFAULT_FLOW_CONTROL_MAX_HOLD
 from mock import MagicMock, patch, call
 from sqlalchemy import create_engine
 from sqlalchemy_utils import database_exists, create_database, drop_database
@@ -192,6 +193,65 @@ def test_commit_avoidance_without_tokens(responder):
             assert responder.connection.commit.call_count == 0
             assert responder.cursor.execute.mock_calls == [call('INSERT INTO suseSaltEvent (minion_id, data, queue) VALUES (%s, %s, %s);', ('testminion', '{"tag": "salt/minion/1/start", "data": {"id": "testminion", "value": 1}}', 2))]
 
+def test_commit_held_back_by_lag(responder):
+    with patch.object(responder, 'cursor'):
+        with patch.object(responder, 'connection') as mock_connection:
+            mock_connection.closed = False
+            mock_connection.encoding = 'utf-8'
+            responder.config['flow_control']['max_lag'] = 100
+            responder.lags = [0, 0, 150, 0]
+            responder.lags_updated = time.time()
+            responder._insert('salt/minion/1/start', {'id': 'testminion', 'value': 1})
+            assert responder.counters == [0, 0, 1, 0]
+            assert responder.tokens == DEFAULT_COMMIT_BURST
+            assert responder.connection.commit.call_count == 0
+
+def test_commit_not_held_back_by_other_queues(responder):
+    with patch.object(responder, 'cursor'):
+        with patch.object(responder, 'connection') as mock_connection:
+            mock_connection.closed = False
+            mock_connection.encoding = 'utf-8'
+            responder.config['flow_control']['max_lag'] = 100
+            responder.lags = [0, 150, 0, 0]
+            responder.lags_updated = time.time()
+            responder._insert('salt/minion/1/start', {'id': 'testminion', 'value': 1})
+            assert responder.counters == [0, 0, 0, 0]
+            assert responder.connection.commit.call_count == 1
+
+def test_commit_after_max_hold(responder):
+    with patch.object(responder, 'cursor'):
+        with patch.object(responder, 'connection') as mock_connection:
+            mock_connection.closed = False
+            mock_connection.encoding = 'utf-8'
+            responder.config['flow_control']['max_lag'] = 100
+            responder.lags = [0, 0, 150, 0]
+            responder.lags_updated = time.time()
+            responder.held_since = time.time() - DEFAULT_FLOW_CONTROL_MAX_HOLD
+            responder._insert('salt/minion/1/start', {'id': 'testminion', 'value': 1})
+            assert responder.counters == [0, 0, 0, 0]
+            assert responder.held_since is None
+            assert responder.connection.commit.call_count == 1
+
+def test_commit_with_stale_lags(responder):
+    with patch.object(responder, 'cursor'):
+        with patch.object(responder, 'connection') as mock_connection:
+            mock_connection.closed = False
+            mock_connection.encoding = 'utf-8'
+            responder.config['flow_control']['max_lag'] = 100
+            responder.lags = [0, 0, 150, 0]
+            responder.lags_updated = time.time() - DEFAULT_FLOW_CONTROL_MAX_HOLD - 1
+            responder._insert('salt/minion/1/start', {'id': 'testminion', 'value': 1})
+            assert responder.connection.commit.call_count == 1
+
+def test_read_acks(responder):
+    responder.ack_connection = MagicMock()
+    responder.ack_connection.notifies = [MagicMock(payload='1,2,3,4')]
+    with patch.object(responder, 'attempt_commit') as mock_attempt_commit:
+        responder.read_acks(0, 0)
+        assert responder.lags == [1, 2, 3, 4]
+        assert responder.lags_updated > 0
+        assert mock_attempt_commit.call_count == 1
+
 
 def test_postgres_connect(db_connection, responder):
     disposable_connection = new_connection()